@@ -0,0 +1,42 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.db.repo;
+
+import com.axelor.apps.message.db.EmailAccount;
+import com.axelor.apps.message.service.MailSenderCache;
+import com.axelor.db.JPA;
+import com.axelor.inject.Beans;
+
+public class EmailAccountManagementRepository extends EmailAccountRepository {
+
+  @Override
+  public EmailAccount save(EmailAccount entity) {
+    Beans.get(MailSenderCache.class).invalidate(entity.getId());
+    return super.save(entity);
+  }
+
+  @Override
+  public void remove(EmailAccount entity) {
+    Beans.get(MailSenderCache.class).invalidate(entity.getId());
+    JPA.em()
+        .createQuery("DELETE FROM EmailAccountFetchState self WHERE self.emailAccount = :account")
+        .setParameter("account", entity)
+        .executeUpdate();
+    super.remove(entity);
+  }
+}
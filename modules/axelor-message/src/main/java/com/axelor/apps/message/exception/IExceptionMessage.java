@@ -30,6 +30,8 @@ public interface IExceptionMessage {
   static final String MAIL_ACCOUNT_4 = /*$$(*/
       "Provided settings are wrong, please modify them and try again" /*)*/;
   static final String MAIL_ACCOUNT_5 = /*$$(*/ "There is already a default account" /*)*/;
+  static final String MAIL_ACCOUNT_FETCH_RUNNING = /*$$(*/
+      "Emails of this account are being fetched already" /*)*/;
 
   /** Template service */
   static final String TEMPLATE_SERVICE_1 = /*$$(*/ "Model empty. Please configure a model." /*)*/;
@@ -54,6 +56,7 @@ public interface IExceptionMessage {
       "%d messages has been regenerated successfully and %d errors append." /*)*/;
   static final String SET_EMAIL_TEMPLATE_MESSAGE = /*$$(*/
       "Please set the email template to send" /*)*/;
+  static final String MESSAGE_DISPATCH_STATS = /*$$(*/ "Email dispatch: %s; senders: %s" /*)*/;
   static final String INVALID_MODEL_TEMPLATE_EMAIL = /*$$(*/
       "The email template model (%s) is different than the entity generating the email (%s)" /*)*/;
 }
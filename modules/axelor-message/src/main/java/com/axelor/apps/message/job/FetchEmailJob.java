@@ -19,23 +19,25 @@ package com.axelor.apps.message.job;
 
 import com.axelor.apps.message.db.EmailAccount;
 import com.axelor.apps.message.db.repo.EmailAccountRepository;
-import com.axelor.apps.message.service.MailAccountService;
-import com.axelor.exception.service.TraceBackService;
+import com.axelor.apps.message.service.MailFetchService;
 import com.google.inject.Inject;
-import java.io.IOException;
 import java.util.List;
-import javax.mail.MessagingException;
+import org.quartz.DisallowConcurrentExecution;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** An example {@link Job} class that prints a some messages to the stderr. */
+/**
+ * Fetches the unseen emails of every valid IMAP/POP account, several accounts at a time. A run
+ * never overlaps the previous one.
+ */
+@DisallowConcurrentExecution
 public class FetchEmailJob implements Job {
 
   private final Logger log = LoggerFactory.getLogger(FetchEmailJob.class);
 
-  @Inject private MailAccountService mailAccountService;
+  @Inject private MailFetchService mailFetchService;
 
   @Inject private EmailAccountRepository mailAccountRepo;
 
@@ -46,13 +48,7 @@ public class FetchEmailJob implements Job {
         mailAccountRepo.all().filter("self.isValid = true and self.serverTypeSelect > 1").fetch();
 
     log.debug("Total email fetching accounts : {}", mailAccounts.size());
-    for (EmailAccount account : mailAccounts) {
-      try {
-        Integer total = mailAccountService.fetchEmails(account, true);
-        log.debug("Email fetched for account: {}, total: {} ", account.getName(), total);
-      } catch (MessagingException | IOException e) {
-        TraceBackService.trace(e);
-      }
-    }
+    int total = mailFetchService.fetchAll(mailAccounts);
+    log.debug("Total email fetched : {}", total);
   }
 }
@@ -18,10 +18,17 @@
 package com.axelor.apps.message.module;
 
 import com.axelor.app.AxelorModule;
+import com.axelor.apps.message.db.repo.EmailAccountManagementRepository;
+import com.axelor.apps.message.db.repo.EmailAccountRepository;
 import com.axelor.apps.message.db.repo.MessageManagementRepository;
 import com.axelor.apps.message.db.repo.MessageRepository;
 import com.axelor.apps.message.service.MailAccountService;
 import com.axelor.apps.message.service.MailAccountServiceImpl;
+import com.axelor.apps.message.service.MailDispatchExecutor;
+import com.axelor.apps.message.service.MailFetchService;
+import com.axelor.apps.message.service.MailFetchServiceImpl;
+import com.axelor.apps.message.service.MailIdleWatcher;
+import com.axelor.apps.message.service.MailSenderCache;
 import com.axelor.apps.message.service.MailServiceMessageImpl;
 import com.axelor.apps.message.service.MessageService;
 import com.axelor.apps.message.service.MessageServiceImpl;
@@ -38,5 +45,10 @@ public class MessageModule extends AxelorModule {
     bind(MessageRepository.class).to(MessageManagementRepository.class);
     bind(MailAccountService.class).to(MailAccountServiceImpl.class);
     bind(MailServiceImpl.class).to(MailServiceMessageImpl.class);
+    bind(MailDispatchExecutor.class);
+    bind(MailSenderCache.class);
+    bind(MailFetchService.class).to(MailFetchServiceImpl.class);
+    bind(MailIdleWatcher.class);
+    bind(EmailAccountRepository.class).to(EmailAccountManagementRepository.class);
   }
 }
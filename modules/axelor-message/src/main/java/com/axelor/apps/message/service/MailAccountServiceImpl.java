@@ -17,6 +17,7 @@
  */
 package com.axelor.apps.message.service;
 
+import com.axelor.app.AppSettings;
 import com.axelor.apps.message.db.EmailAccount;
 import com.axelor.apps.message.db.EmailAddress;
 import com.axelor.apps.message.db.Message;
@@ -26,6 +27,7 @@ import com.axelor.apps.message.db.repo.MessageRepository;
 import com.axelor.apps.message.exception.IExceptionMessage;
 import com.axelor.apps.tool.date.DateTool;
 import com.axelor.apps.tool.service.CipherService;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.exception.service.TraceBackService;
@@ -42,6 +44,7 @@ import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -56,6 +59,7 @@ import javax.mail.NoSuchProviderException;
 import javax.mail.Session;
 import javax.mail.Store;
 import javax.mail.Transport;
+import javax.mail.UIDFolder;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 import javax.mail.search.FlagTerm;
@@ -282,6 +286,12 @@ public class MailAccountServiceImpl implements MailAccountService {
               getSecurity(mailAccount));
     }
 
+    // a blocked read must fail on its own, interrupting the thread does not stop it
+    int readTimeout =
+        Math.max(1, AppSettings.get().getInt("message.fetch.read-timeout", 60)) * 1000;
+    account.setConnectionTimeout(readTimeout);
+    account.setReadTimeout(readTimeout);
+
     MailReader reader = new MailReader(account);
     final Store store = reader.getStore();
     final Folder inbox = store.getFolder("INBOX");
@@ -289,35 +299,143 @@ public class MailAccountServiceImpl implements MailAccountService {
     // open as READ_WRITE to mark messages as seen
     inbox.open(Folder.READ_WRITE);
 
-    // find all unseen messages
-    final FetchProfile profile = new FetchProfile();
-    javax.mail.Message[] messages;
-    if (unseenOnly) {
-      final FlagTerm unseen = new FlagTerm(new Flags(Flags.Flag.SEEN), false);
-      messages = inbox.search(unseen);
-    } else {
-      messages = inbox.getMessages();
+    int count;
+    try {
+      if (inbox instanceof UIDFolder) {
+        count = fetchNewEmails(mailAccount, inbox, unseenOnly);
+      } else {
+        count = importEmails(mailAccount, inbox, search(inbox, unseenOnly), 0, Long.MAX_VALUE);
+      }
+    } finally {
+      if (inbox.isOpen()) {
+        inbox.close(false);
+      }
+      store.close();
     }
 
-    profile.add(FetchProfile.Item.ENVELOPE);
+    log.debug("Total emails fetched: {}", count);
+
+    return count;
+  }
+
+  /**
+   * Imports the emails with a uid above the last one imported, in chunks of {@code
+   * message.fetch.imap.chunk-size}, and records the new last uid after every chunk.
+   *
+   * <p>The first time, or when UIDVALIDITY changed (the uids known so far mean nothing), the
+   * folder is searched as before ({@code unseenOnly}) and the sync starts from its last uid.
+   */
+  protected int fetchNewEmails(EmailAccount mailAccount, Folder inbox, boolean unseenOnly)
+      throws MessagingException, IOException {
+
+    UIDFolder uidFolder = (UIDFolder) inbox;
+    long uidValidity = uidFolder.getUIDValidity();
+
+    List<Object[]> syncState =
+        JPA.em()
+            .createQuery(
+                "SELECT self.imapUidValidity, self.imapLastUid FROM EmailAccountFetchState self"
+                    + " WHERE self.emailAccount.id = :id",
+                Object[].class)
+            .setParameter("id", mailAccount.getId())
+            .getResultList();
+    Long savedUidValidity = syncState.isEmpty() ? null : (Long) syncState.get(0)[0];
+
+    if (savedUidValidity == null || savedUidValidity != uidValidity) {
+      // taken before the search, newer emails are left to the next sync
+      int messageCount = inbox.getMessageCount();
+      long lastUid = messageCount == 0 ? 0 : uidFolder.getUID(inbox.getMessage(messageCount));
+      int count = importEmails(mailAccount, inbox, search(inbox, unseenOnly), 0, lastUid);
+      saveSyncState(mailAccount, uidValidity, lastUid);
+      log.debug("Email sync reset for account: {}, last uid: {}", mailAccount.getName(), lastUid);
+      return count;
+    }
+
+    Long savedLastUid = (Long) syncState.get(0)[1];
+    long lastUid = savedLastUid == null ? 0 : savedLastUid;
+    javax.mail.Message[] messages = uidFolder.getMessagesByUID(lastUid + 1, UIDFolder.LASTUID);
+    log.debug("Total emails after uid {}: {}", lastUid, messages.length);
+    return importEmails(mailAccount, inbox, messages, lastUid, Long.MAX_VALUE);
+  }
+
+  /**
+   * Imports the messages with a uid in ({@code afterUid}, {@code upToUid}], chunk by chunk. On a
+   * folder with uids, the sync state is saved after every chunk when importing past the last uid.
+   */
+  private int importEmails(
+      EmailAccount mailAccount,
+      Folder inbox,
+      javax.mail.Message[] messages,
+      long afterUid,
+      long upToUid)
+      throws MessagingException, IOException {
 
-    // actually fetch the messages
-    inbox.fetch(messages, profile);
-    log.debug("Total emails unseen: {}", messages.length);
+    UIDFolder uidFolder = inbox instanceof UIDFolder ? (UIDFolder) inbox : null;
+    int chunkSize = Math.max(1, AppSettings.get().getInt("message.fetch.imap.chunk-size", 200));
+
+    final FetchProfile profile = new FetchProfile();
+    profile.add(FetchProfile.Item.ENVELOPE);
+    if (uidFolder != null) {
+      profile.add(UIDFolder.FetchProfileItem.UID);
+    }
 
     int count = 0;
-    for (javax.mail.Message message : messages) {
-      if (message instanceof MimeMessage) {
-        MailParser parser = new MailParser((MimeMessage) message);
-        parser.parse();
-        createMessage(mailAccount, parser, message.getSentDate());
-        count++;
+    for (int from = 0; from < messages.length; from += chunkSize) {
+      javax.mail.Message[] chunk =
+          Arrays.copyOfRange(messages, from, Math.min(messages.length, from + chunkSize));
+
+      // actually fetch the messages
+      inbox.fetch(chunk, profile);
+
+      long maxUid = afterUid;
+      for (javax.mail.Message message : chunk) {
+        if (uidFolder != null) {
+          // "n:*" always returns the last message, even when its uid is below n
+          long uid = uidFolder.getUID(message);
+          if (uid <= afterUid || uid > upToUid) {
+            continue;
+          }
+          maxUid = Math.max(maxUid, uid);
+        }
+        if (message instanceof MimeMessage) {
+          MailParser parser = new MailParser((MimeMessage) message);
+          parser.parse();
+          createMessage(mailAccount, parser, message.getSentDate());
+          count++;
+        }
+      }
+
+      if (uidFolder != null && upToUid == Long.MAX_VALUE && maxUid > afterUid) {
+        saveSyncState(mailAccount, uidFolder.getUIDValidity(), maxUid);
+        afterUid = maxUid;
       }
     }
+    return count;
+  }
 
-    log.debug("Total emails fetched: {}", count);
+  private javax.mail.Message[] search(Folder inbox, boolean unseenOnly) throws MessagingException {
+    if (unseenOnly) {
+      final FlagTerm unseen = new FlagTerm(new Flags(Flags.Flag.SEEN), false);
+      return inbox.search(unseen);
+    }
+    return inbox.getMessages();
+  }
 
-    return count;
+  /**
+   * Kept in the fetch state, created by the fetch lease, so that the account version is left as it
+   * is.
+   */
+  private void saveSyncState(EmailAccount mailAccount, long uidValidity, long lastUid) {
+    JPA.runInTransaction(
+        () ->
+            JPA.em()
+                .createQuery(
+                    "UPDATE EmailAccountFetchState self SET self.imapUidValidity = :uidValidity,"
+                        + " self.imapLastUid = :lastUid WHERE self.emailAccount.id = :id")
+                .setParameter("uidValidity", uidValidity)
+                .setParameter("lastUid", lastUid)
+                .setParameter("id", mailAccount.getId())
+                .executeUpdate());
   }
 
   @Transactional(rollbackOn = {Exception.class})
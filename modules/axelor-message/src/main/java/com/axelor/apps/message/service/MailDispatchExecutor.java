@@ -0,0 +1,608 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.apps.message.db.Message;
+import com.axelor.apps.message.db.repo.MessageRepository;
+import com.axelor.auth.db.User;
+import com.axelor.db.JPA;
+import com.axelor.events.ShutdownEvent;
+import com.axelor.events.StartupEvent;
+import com.axelor.inject.Beans;
+import com.google.inject.Singleton;
+import java.lang.invoke.MethodHandles;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.enterprise.event.Observes;
+import javax.persistence.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared, bounded pool sending the emails of the message module.
+ *
+ * <p>The pool has {@code message.mail.dispatch.pool-size} threads and queues up to {@code
+ * message.mail.dispatch.queue-depth} sends. When it is full, an email {@link Message} is not sent
+ * from the caller thread: it stays "in progress" in the database and is submitted again by a
+ * sweeper every {@code message.mail.dispatch.sweep-interval} seconds. Notification emails, which
+ * have no such record, are sent by the caller instead.
+ *
+ * <p>Every node sweeps the same table, so a worker first claims the message: its {@code
+ * dispatchLeaseUntil} is moved {@code message.mail.dispatch.lease} seconds ahead in one
+ * conditional update, and only the worker whose update changed the row sends. The lease is cleared
+ * with the status write. The sweeper only takes messages without a lease or whose lease expired,
+ * the ones of a node that stopped before writing their status.
+ *
+ * <p>Messages are queued once the transaction creating them has committed. Their sent (or failed)
+ * status is not written by the worker: outcomes are collected and applied every {@code
+ * message.mail.dispatch.status-interval} ms, up to {@code message.mail.dispatch.status-batch} per
+ * transaction, with plain updates instead of a locked read. When a batch fails its outcomes are
+ * written one by one, so a single bad row does not hold back the others. A failure outcome still
+ * failing after {@code message.mail.dispatch.status-attempts} rounds is logged and dropped; a sent
+ * one is never dropped, its bare sent status is written without the sender instead, and it is kept
+ * for the next rounds while even that fails.
+ *
+ * <p>On shutdown the pool stops taking new sends and waits up to {@code
+ * message.mail.dispatch.shutdown-timeout} seconds for the queued ones.
+ */
+@Singleton
+public class MailDispatchExecutor {
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final ThreadPoolExecutor executor;
+  private ScheduledExecutorService sweeper;
+  private ScheduledExecutorService statusWriter;
+
+  /** Send outcomes waiting for their status update. */
+  private final Queue<Outcome> outcomes = new ConcurrentLinkedQueue<>();
+
+  /** Messages queued or being sent by this node, not submitted twice. */
+  private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder totalLatency = new LongAdder();
+  private final AtomicLong maxLatency = new AtomicLong();
+
+  public MailDispatchExecutor() {
+    AppSettings settings = AppSettings.get();
+    int poolSize = Math.max(1, settings.getInt("message.mail.dispatch.pool-size", 4));
+    int queueDepth = Math.max(1, settings.getInt("message.mail.dispatch.queue-depth", 500));
+    executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueDepth),
+            threadFactory("mail-dispatch"),
+            new ThreadPoolExecutor.AbortPolicy());
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  public void onStartup(@Observes StartupEvent event) {
+    int statusInterval = AppSettings.get().getInt("message.mail.dispatch.status-interval", 200);
+    int interval = AppSettings.get().getInt("message.mail.dispatch.sweep-interval", 60);
+    synchronized (this) {
+      if (statusWriter == null) {
+        statusWriter =
+            Executors.newSingleThreadScheduledExecutor(threadFactory("mail-dispatch-status"));
+        statusWriter.scheduleWithFixedDelay(
+            this::writeStatusesQuietly, statusInterval, statusInterval, TimeUnit.MILLISECONDS);
+      }
+      if (sweeper == null && interval > 0) {
+        sweeper =
+            Executors.newSingleThreadScheduledExecutor(threadFactory("mail-dispatch-sweeper"));
+        sweeper.scheduleWithFixedDelay(this::sweepQuietly, interval, interval, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  public void onShutdown(@Observes ShutdownEvent event) {
+    synchronized (this) {
+      if (sweeper != null) {
+        sweeper.shutdownNow();
+        sweeper = null;
+      }
+    }
+    executor.shutdown();
+    int timeout = AppSettings.get().getInt("message.mail.dispatch.shutdown-timeout", 30);
+    try {
+      if (!executor.awaitTermination(timeout, TimeUnit.SECONDS)) {
+        List<Runnable> dropped = executor.shutdownNow();
+        log.warn(
+            "{} queued email(s) not sent at shutdown, the messages stay in progress",
+            dropped.size());
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      if (statusWriter != null) {
+        statusWriter.shutdown();
+        try {
+          statusWriter.awaitTermination(timeout, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        statusWriter = null;
+      }
+    }
+    writeStatusesQuietly();
+    if (!outcomes.isEmpty()) {
+      log.warn("{} email status update(s) not written at shutdown", outcomes.size());
+    }
+    log.info("Mail dispatch stopped: {}", getStats());
+  }
+
+  /**
+   * Queues the sending of a message. Returns {@code false} when the pool is full or shutting
+   * down, the message is then left to the sweeper.
+   *
+   * <p>Once sent, the message is marked sent by {@code senderUserId}; when the send fails it goes
+   * back to {@code failedStatus}.
+   */
+  public boolean submit(long messageId, Long senderUserId, int failedStatus, Callable<?> send) {
+    if (!inFlight.add(messageId)) {
+      return true;
+    }
+    try {
+      executor.execute(
+          new Timed(
+              () -> {
+                boolean claimed = false;
+                try {
+                  claimed = claim(messageId);
+                } finally {
+                  if (!claimed) {
+                    inFlight.remove(messageId);
+                  }
+                }
+                if (!claimed) {
+                  log.debug("Message {} is sent by another node", messageId);
+                  return;
+                }
+                try {
+                  send.call();
+                } catch (Exception e) {
+                  outcomes.add(new Outcome(messageId, null, null, failedStatus));
+                  throw new IllegalStateException("Cannot send message " + messageId, e);
+                }
+                outcomes.add(
+                    new Outcome(messageId, LocalDateTime.now(), senderUserId, failedStatus));
+              }));
+      return true;
+    } catch (RejectedExecutionException e) {
+      inFlight.remove(messageId);
+      rejected.increment();
+      return false;
+    }
+  }
+
+  /**
+   * Takes the lease of an email in progress whose lease is free or expired, returns {@code false}
+   * when another worker holds it or the message moved on.
+   */
+  private boolean claim(long messageId) {
+    LocalDateTime now = LocalDateTime.now();
+    int lease = Math.max(1, AppSettings.get().getInt("message.mail.dispatch.lease", 600));
+    AtomicInteger claimed = new AtomicInteger();
+    JPA.runInTransaction(
+        () ->
+            claimed.set(
+                JPA.em()
+                    .createQuery(
+                        "UPDATE Message self SET self.dispatchLeaseUntil = :leaseUntil"
+                            + " WHERE self.id = :id AND self.statusSelect = :inProgress"
+                            + " AND (self.dispatchLeaseUntil IS NULL"
+                            + " OR self.dispatchLeaseUntil < :now)")
+                    .setParameter("leaseUntil", now.plusSeconds(lease))
+                    .setParameter("id", messageId)
+                    .setParameter("inProgress", MessageRepository.STATUS_IN_PROGRESS)
+                    .setParameter("now", now)
+                    .executeUpdate()));
+    return claimed.get() == 1;
+  }
+
+  /** Queues a send with no durable record, run by the caller when the pool is full. */
+  public void execute(Runnable send) {
+    Timed task = new Timed(send);
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      task.run();
+    }
+  }
+
+  public Stats getStats() {
+    long count = completed.sum() + failed.sum();
+    return new Stats(
+        executor.getPoolSize(),
+        executor.getMaximumPoolSize(),
+        executor.getActiveCount(),
+        executor.getQueue().size(),
+        executor.getQueue().remainingCapacity(),
+        completed.sum(),
+        failed.sum(),
+        rejected.sum(),
+        count == 0 ? 0 : totalLatency.sum() / count,
+        maxLatency.get());
+  }
+
+  /**
+   * Writes the collected send outcomes, one transaction per batch. A failed batch is written again
+   * row by row and the round stops there, the outcomes that failed wait for the next one.
+   */
+  public int writeStatuses() {
+    int batchSize =
+        Math.max(1, AppSettings.get().getInt("message.mail.dispatch.status-batch", 200));
+    int written = 0;
+    while (!outcomes.isEmpty()) {
+      List<Outcome> batch = new ArrayList<>(batchSize);
+      Outcome outcome;
+      while (batch.size() < batchSize && (outcome = outcomes.poll()) != null) {
+        batch.add(outcome);
+      }
+      try {
+        JPA.runInTransaction(() -> batch.forEach(this::writeStatus));
+      } catch (RuntimeException e) {
+        log.warn(
+            "Exception occurred while writing {} email status(es), writing them one by one",
+            batch.size(),
+            e);
+        return written + writeOneByOne(batch);
+      }
+      batch.forEach(done -> inFlight.remove(done.messageId));
+      written += batch.size();
+    }
+    return written;
+  }
+
+  private int writeOneByOne(List<Outcome> batch) {
+    int maxAttempts =
+        Math.max(1, AppSettings.get().getInt("message.mail.dispatch.status-attempts", 10));
+    int written = 0;
+    for (Outcome outcome : batch) {
+      try {
+        JPA.runInTransaction(() -> writeStatus(outcome));
+        inFlight.remove(outcome.messageId);
+        written++;
+      } catch (RuntimeException e) {
+        if (++outcome.attempts < maxAttempts) {
+          outcomes.add(outcome);
+          continue;
+        }
+        if (outcome.sentDateT == null) {
+          log.error(
+              "Status of message {} not written after {} attempt(s), dropped",
+              outcome.messageId,
+              outcome.attempts,
+              e);
+          inFlight.remove(outcome.messageId);
+          continue;
+        }
+        // never dropped: left in progress, the message would be sent again once its lease expires
+        if (markSent(outcome)) {
+          log.warn(
+              "Status of message {} not written after {} attempt(s), marked sent without sender",
+              outcome.messageId,
+              outcome.attempts,
+              e);
+          inFlight.remove(outcome.messageId);
+          written++;
+        } else {
+          if (outcome.attempts == maxAttempts) {
+            log.error(
+                "Sent status of message {} not written after {} attempt(s), kept for retry",
+                outcome.messageId,
+                outcome.attempts,
+                e);
+          }
+          outcomes.add(outcome);
+        }
+      }
+    }
+    return written;
+  }
+
+  /**
+   * Writes the bare sent status of a message whose full status update keeps failing, so that no
+   * sweeper takes it again.
+   */
+  private boolean markSent(Outcome outcome) {
+    try {
+      JPA.runInTransaction(
+          () ->
+              JPA.em()
+                  .createQuery(
+                      "UPDATE Message self SET self.sentByEmail = true,"
+                          + " self.statusSelect = :status, self.sentDateT = :sentDateT,"
+                          + " self.dispatchLeaseUntil = NULL, self.version = self.version + 1"
+                          + " WHERE self.id = :id")
+                  .setParameter("status", MessageRepository.STATUS_SENT)
+                  .setParameter("sentDateT", outcome.sentDateT)
+                  .setParameter("id", outcome.messageId)
+                  .executeUpdate());
+      return true;
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  private void writeStatus(Outcome outcome) {
+    Query query;
+    if (outcome.sentDateT != null) {
+      query =
+          JPA.em()
+              .createQuery(
+                  "UPDATE Message self SET self.sentByEmail = true, self.statusSelect = :status,"
+                      + " self.sentDateT = :sentDateT,"
+                      + " self.senderUser = :senderUser, self.dispatchLeaseUntil = NULL,"
+                      + " self.version = self.version + 1"
+                      + " WHERE self.id = :id")
+              .setParameter("status", MessageRepository.STATUS_SENT)
+              .setParameter("sentDateT", outcome.sentDateT)
+              .setParameter(
+                  "senderUser",
+                  outcome.senderUserId == null
+                      ? null
+                      : JPA.em().getReference(User.class, outcome.senderUserId));
+    } else {
+      // a message moved on in the meantime (deleted, sent again) is left alone
+      query =
+          JPA.em()
+              .createQuery(
+                  "UPDATE Message self SET self.statusSelect = :status,"
+                      + " self.dispatchLeaseUntil = NULL, self.version = self.version + 1"
+                      + " WHERE self.id = :id AND self.statusSelect = :inProgress")
+              .setParameter("status", outcome.failedStatus)
+              .setParameter("inProgress", MessageRepository.STATUS_IN_PROGRESS);
+    }
+    query.setParameter("id", outcome.messageId).executeUpdate();
+  }
+
+  private void writeStatusesQuietly() {
+    try {
+      writeStatuses();
+    } catch (Exception e) {
+      log.error("Exception occurred while writing email statuses, kept for retry", e);
+    }
+  }
+
+  /**
+   * Submits again the email messages left in progress with no lease or an expired one, as many as
+   * the queue has room for.
+   */
+  public int sweep() {
+    int room = executor.getQueue().remainingCapacity();
+    if (room <= 0 || executor.isShutdown()) {
+      return 0;
+    }
+    List<Message> messages =
+        Beans.get(MessageRepository.class)
+            .all()
+            .filter(
+                "self.statusSelect = ?1 AND self.mediaTypeSelect = ?2 AND self.sentByEmail = false"
+                    + " AND (self.dispatchLeaseUntil IS NULL OR self.dispatchLeaseUntil < ?3)",
+                MessageRepository.STATUS_IN_PROGRESS,
+                MessageRepository.MEDIA_TYPE_EMAIL,
+                LocalDateTime.now())
+            .order("id")
+            .fetch(room + inFlight.size());
+    MessageService messageService = Beans.get(MessageService.class);
+    int submitted = 0;
+    for (Message message : messages) {
+      if (inFlight.contains(message.getId())) {
+        continue;
+      }
+      try {
+        JPA.runInTransaction(
+            () -> {
+              try {
+                messageService.sendByEmail(JPA.find(Message.class, message.getId()));
+              } catch (Exception e) {
+                throw new IllegalStateException(e);
+              }
+            });
+        submitted++;
+      } catch (Exception e) {
+        log.error("Exception occurred while resending message {}", message.getId(), e);
+      }
+      if (executor.getQueue().remainingCapacity() == 0) {
+        break;
+      }
+    }
+    if (submitted > 0) {
+      log.info("Resubmitted {} email message(s) left in progress", submitted);
+    }
+    return submitted;
+  }
+
+  private void sweepQuietly() {
+    try {
+      sweep();
+    } catch (Exception e) {
+      log.error("Exception occurred while sweeping email messages", e);
+    } finally {
+      JPA.clear();
+    }
+  }
+
+  private ThreadFactory threadFactory(String prefix) {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  private static final class Outcome {
+    private final long messageId;
+    private final LocalDateTime sentDateT;
+    private final Long senderUserId;
+    private final int failedStatus;
+    private int attempts;
+
+    private Outcome(long messageId, LocalDateTime sentDateT, Long senderUserId, int failedStatus) {
+      this.messageId = messageId;
+      this.sentDateT = sentDateT;
+      this.senderUserId = senderUserId;
+      this.failedStatus = failedStatus;
+    }
+  }
+
+  /** Records the time between queuing and the end of the send. */
+  private class Timed implements Runnable {
+    private final Runnable send;
+    private final long queuedAt = System.nanoTime();
+
+    private Timed(Runnable send) {
+      this.send = send;
+    }
+
+    @Override
+    public void run() {
+      try {
+        send.run();
+        completed.increment();
+      } catch (RuntimeException e) {
+        failed.increment();
+        log.error("Exception occurred while sending email", e);
+      } finally {
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedAt);
+        totalLatency.add(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+      }
+    }
+  }
+
+  public static class Stats {
+    private final int poolSize;
+    private final int maxPoolSize;
+    private final int activeWorkers;
+    private final int queueDepth;
+    private final int queueRemaining;
+    private final long completed;
+    private final long failed;
+    private final long rejected;
+    private final long averageLatency;
+    private final long maxLatency;
+
+    private Stats(
+        int poolSize,
+        int maxPoolSize,
+        int activeWorkers,
+        int queueDepth,
+        int queueRemaining,
+        long completed,
+        long failed,
+        long rejected,
+        long averageLatency,
+        long maxLatency) {
+      this.poolSize = poolSize;
+      this.maxPoolSize = maxPoolSize;
+      this.activeWorkers = activeWorkers;
+      this.queueDepth = queueDepth;
+      this.queueRemaining = queueRemaining;
+      this.completed = completed;
+      this.failed = failed;
+      this.rejected = rejected;
+      this.averageLatency = averageLatency;
+      this.maxLatency = maxLatency;
+    }
+
+    public int getPoolSize() {
+      return poolSize;
+    }
+
+    public int getMaxPoolSize() {
+      return maxPoolSize;
+    }
+
+    public int getActiveWorkers() {
+      return activeWorkers;
+    }
+
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+
+    public int getQueueRemaining() {
+      return queueRemaining;
+    }
+
+    public long getCompleted() {
+      return completed;
+    }
+
+    public long getFailed() {
+      return failed;
+    }
+
+    public long getRejected() {
+      return rejected;
+    }
+
+    /** Average time from queuing to the end of the send, in milliseconds. */
+    public long getAverageLatency() {
+      return averageLatency;
+    }
+
+    public long getMaxLatency() {
+      return maxLatency;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d/%d workers active (%d max), %d queued, %d sent, %d failed, %d rejected,"
+              + " latency avg %d ms max %d ms",
+          activeWorkers,
+          poolSize,
+          maxPoolSize,
+          queueDepth,
+          completed,
+          failed,
+          rejected,
+          averageLatency,
+          maxLatency);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.apps.message.db.EmailAccount;
+import java.io.IOException;
+import java.util.List;
+import javax.mail.MessagingException;
+
+public interface MailFetchService {
+
+  /**
+   * Fetches the unseen emails of the accounts in parallel, returns the total number of emails
+   * fetched.
+   */
+  public int fetchAll(List<EmailAccount> mailAccounts);
+
+  /**
+   * Fetches the unseen emails of one account, returns {@code null} when the account is being
+   * fetched already, on this node or another one.
+   */
+  public Integer fetch(EmailAccount mailAccount) throws MessagingException, IOException;
+}
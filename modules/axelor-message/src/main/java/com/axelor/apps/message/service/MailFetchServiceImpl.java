@@ -0,0 +1,244 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.apps.message.db.EmailAccount;
+import com.axelor.apps.message.db.EmailAccountFetchState;
+import com.axelor.apps.message.db.repo.EmailAccountRepository;
+import com.axelor.db.JPA;
+import com.axelor.exception.service.TraceBackService;
+import com.axelor.inject.Beans;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.mail.MessagingException;
+import javax.persistence.PersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches mailboxes {@code message.fetch.parallelism} at a time.
+ *
+ * <p>An account is fetched under a lease stored in its {@link EmailAccountFetchState}, so a mailbox
+ * is read by one thread of one node at a time. Each lease has its own token and is only released
+ * with it, so a fetch that outlived its lease cannot clear the lease taken over by another one. The
+ * lease lasts {@code message.fetch.account-timeout} seconds plus a minute: a fetch still running
+ * after the timeout is interrupted, a blocked socket read gives up after {@code
+ * message.fetch.read-timeout} seconds, and the lease of a node that died is taken over once it has
+ * expired. The date, duration, number of emails and error of the last fetch are kept in the fetch
+ * state as well: it is a row of its own so that fetching never changes the account version, which
+ * would make open account forms stale and restart the account's IDLE listener.
+ */
+public class MailFetchServiceImpl implements MailFetchService {
+
+  private static final String NODE = ManagementFactory.getRuntimeMXBean().getName();
+  private static final int LEASE_MARGIN = 60;
+  private static final int ERROR_LENGTH = 255;
+
+  private final Logger log = LoggerFactory.getLogger(MailFetchServiceImpl.class);
+
+  @Inject private MailAccountService mailAccountService;
+
+  @Override
+  public int fetchAll(List<EmailAccount> mailAccounts) {
+    if (mailAccounts.isEmpty()) {
+      return 0;
+    }
+    int parallelism =
+        Math.min(
+            mailAccounts.size(),
+            Math.max(1, AppSettings.get().getInt("message.fetch.parallelism", 4)));
+    int timeout = getTimeout();
+
+    ExecutorService pool = Executors.newFixedThreadPool(parallelism, threadFactory("mail-fetch"));
+    ScheduledExecutorService watchdog =
+        Executors.newSingleThreadScheduledExecutor(threadFactory("mail-fetch-watchdog"));
+    List<Future<Integer>> results = new ArrayList<>(mailAccounts.size());
+    for (EmailAccount mailAccount : mailAccounts) {
+      Long id = mailAccount.getId();
+      results.add(pool.submit(() -> fetchWithTimeout(id, watchdog, timeout)));
+    }
+    pool.shutdown();
+
+    int rounds = (mailAccounts.size() + parallelism - 1) / parallelism;
+    try {
+      if (!pool.awaitTermination((long) (timeout + LEASE_MARGIN) * rounds, TimeUnit.SECONDS)) {
+        log.warn("Email fetching did not complete in time, remaining fetches are interrupted");
+        pool.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+      Thread.currentThread().interrupt();
+    } finally {
+      watchdog.shutdownNow();
+    }
+
+    int total = 0;
+    for (Future<Integer> result : results) {
+      if (result.isDone() && !result.isCancelled()) {
+        try {
+          total += result.get();
+        } catch (InterruptedException | ExecutionException e) {
+          // traced by the fetch itself
+        }
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public Integer fetch(EmailAccount mailAccount) throws MessagingException, IOException {
+    String token = lock(mailAccount.getId());
+    if (token == null) {
+      log.debug("Account {} is being fetched already", mailAccount.getName());
+      return null;
+    }
+    long start = System.currentTimeMillis();
+    int count = 0;
+    String error = null;
+    try {
+      count = mailAccountService.fetchEmails(mailAccount, true);
+      return count;
+    } catch (MessagingException | IOException | RuntimeException e) {
+      error = e.toString();
+      throw e;
+    } finally {
+      long duration = System.currentTimeMillis() - start;
+      release(mailAccount.getId(), token, duration, count, error);
+      log.debug(
+          "Email fetched for account: {}, total: {}, duration: {} ms",
+          mailAccount.getName(),
+          count,
+          duration);
+    }
+  }
+
+  private int fetchWithTimeout(Long id, ScheduledExecutorService watchdog, int timeout) {
+    Thread worker = Thread.currentThread();
+    ScheduledFuture<?> alarm = watchdog.schedule(worker::interrupt, timeout, TimeUnit.SECONDS);
+    try {
+      EmailAccount mailAccount = Beans.get(EmailAccountRepository.class).find(id);
+      Integer count = mailAccount == null ? null : fetch(mailAccount);
+      return count == null ? 0 : count;
+    } catch (Exception e) {
+      TraceBackService.trace(e);
+      return 0;
+    } finally {
+      alarm.cancel(false);
+      Thread.interrupted();
+      JPA.clear();
+    }
+  }
+
+  /** Returns the token of the new lease, null when the account is leased already. */
+  private String lock(Long id) {
+    createState(id);
+    LocalDateTime now = LocalDateTime.now();
+    String token = NODE + "/" + UUID.randomUUID();
+    AtomicInteger updated = new AtomicInteger();
+    JPA.runInTransaction(
+        () ->
+            updated.set(
+                JPA.em()
+                    .createQuery(
+                        "UPDATE EmailAccountFetchState self SET self.fetchLockedBy = :token,"
+                            + " self.fetchLockedUntil = :until WHERE self.emailAccount.id = :id"
+                            + " AND (self.fetchLockedUntil IS NULL"
+                            + " OR self.fetchLockedUntil < :now)")
+                    .setParameter("token", token)
+                    .setParameter("until", now.plusSeconds(getTimeout() + LEASE_MARGIN))
+                    .setParameter("id", id)
+                    .setParameter("now", now)
+                    .executeUpdate()));
+    return updated.get() == 1 ? token : null;
+  }
+
+  /** Creates the fetch state of the account on its first fetch. */
+  private void createState(Long id) {
+    Long existing =
+        JPA.em()
+            .createQuery(
+                "SELECT COUNT(self) FROM EmailAccountFetchState self"
+                    + " WHERE self.emailAccount.id = :id",
+                Long.class)
+            .setParameter("id", id)
+            .getSingleResult();
+    if (existing > 0) {
+      return;
+    }
+    EmailAccountFetchState state = new EmailAccountFetchState();
+    state.setEmailAccount(JPA.em().getReference(EmailAccount.class, id));
+    try {
+      JPA.runInTransaction(() -> JPA.em().persist(state));
+    } catch (PersistenceException e) {
+      // created by another node meanwhile, the unique account column kept a single one
+      log.debug("Fetch state of account {} created concurrently", id);
+      if (JPA.em().contains(state)) {
+        JPA.em().detach(state);
+      }
+    }
+  }
+
+  private void release(Long id, String token, long duration, int count, String error) {
+    String lastError =
+        error == null || error.length() <= ERROR_LENGTH ? error : error.substring(0, ERROR_LENGTH);
+    JPA.runInTransaction(
+        () ->
+            JPA.em()
+                .createQuery(
+                    "UPDATE EmailAccountFetchState self SET self.fetchLockedBy = NULL,"
+                        + " self.fetchLockedUntil = NULL, self.lastFetchDateT = :at,"
+                        + " self.lastFetchDuration = :duration, self.lastFetchCount = :count,"
+                        + " self.lastFetchError = :error"
+                        + " WHERE self.emailAccount.id = :id AND self.fetchLockedBy = :token")
+                .setParameter("at", LocalDateTime.now())
+                .setParameter("duration", duration)
+                .setParameter("count", count)
+                .setParameter("error", lastError)
+                .setParameter("id", id)
+                .setParameter("token", token)
+                .executeUpdate());
+  }
+
+  private int getTimeout() {
+    return Math.max(1, AppSettings.get().getInt("message.fetch.account-timeout", 300));
+  }
+
+  private ThreadFactory threadFactory(String prefix) {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.apps.message.db.EmailAccount;
+import com.axelor.apps.message.db.repo.EmailAccountRepository;
+import com.axelor.db.JPA;
+import com.axelor.events.ShutdownEvent;
+import com.axelor.events.StartupEvent;
+import com.axelor.exception.service.TraceBackService;
+import com.axelor.inject.Beans;
+import com.axelor.mail.MailAccount;
+import com.axelor.mail.MailReader;
+import com.google.inject.Singleton;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.enterprise.event.Observes;
+import javax.mail.Folder;
+import javax.mail.MessagingException;
+import javax.mail.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps an IMAP IDLE connection on the INBOX of every valid IMAP account whose server supports
+ * it, and fetches the account as soon as the server reports a change, instead of waiting for the
+ * next {@code FetchEmailJob} run.
+ *
+ * <p>Enabled by {@code message.fetch.imap.idle}. Accounts are looked up every {@code
+ * message.fetch.imap.idle-scan} seconds, the IDLE is renewed every {@code
+ * message.fetch.imap.idle-refresh} seconds (servers drop it after 30 minutes) and a lost
+ * connection is opened again after {@code message.fetch.imap.idle-retry} seconds. Fetches go
+ * through {@link MailFetchService}, so they never run alongside the job's fetch of the same
+ * account. A listener is restarted when the connection settings of its account change, not on any
+ * other edit of the account.
+ */
+@Singleton
+public class MailIdleWatcher {
+
+  private static final String INBOX = "INBOX";
+
+  private final Logger log = LoggerFactory.getLogger(MailIdleWatcher.class);
+
+  private final Map<Long, Listener> listeners = new ConcurrentHashMap<>();
+  private volatile ScheduledExecutorService scheduler;
+
+  public void onStartup(@Observes StartupEvent event) {
+    if (!AppSettings.get().getBoolean("message.fetch.imap.idle", true)) {
+      return;
+    }
+    int scan = Math.max(1, AppSettings.get().getInt("message.fetch.imap.idle-scan", 300));
+    synchronized (this) {
+      if (scheduler == null) {
+        AtomicInteger counter = new AtomicInteger();
+        scheduler =
+            Executors.newScheduledThreadPool(
+                2,
+                runnable -> {
+                  Thread thread = new Thread(runnable, "mail-idle-" + counter.incrementAndGet());
+                  thread.setDaemon(true);
+                  return thread;
+                });
+        scheduler.scheduleWithFixedDelay(this::scanQuietly, 0, scan, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  public void onShutdown(@Observes ShutdownEvent event) {
+    synchronized (this) {
+      if (scheduler != null) {
+        scheduler.shutdownNow();
+        scheduler = null;
+      }
+    }
+    listeners.values().forEach(Listener::stop);
+    listeners.clear();
+  }
+
+  /**
+   * Starts a listener for new accounts, restarts the ones whose connection settings changed or
+   * lost ones.
+   */
+  private void scan() {
+    List<EmailAccount> accounts =
+        Beans.get(EmailAccountRepository.class)
+            .all()
+            .filter(
+                "self.isValid = true AND self.serverTypeSelect = ?1",
+                EmailAccountRepository.SERVER_TYPE_IMAP)
+            .fetch();
+    Map<Long, Integer> settings = new HashMap<>();
+    accounts.forEach(account -> settings.put(account.getId(), settingsHash(account)));
+
+    listeners
+        .entrySet()
+        .removeIf(
+            entry -> {
+              Listener listener = entry.getValue();
+              if (Objects.equals(listener.settingsHash, settings.get(entry.getKey()))
+                  && (listener.isAlive() || !listener.supported)) {
+                return false;
+              }
+              listener.stop();
+              return true;
+            });
+
+    MailAccountService mailAccountService = Beans.get(MailAccountService.class);
+    for (EmailAccount account : accounts) {
+      if (!listeners.containsKey(account.getId())) {
+        Listener listener =
+            new Listener(
+                account.getId(),
+                settings.get(account.getId()),
+                mailAccountService.getMailAccount(account));
+        listeners.put(account.getId(), listener);
+        listener.start();
+      }
+    }
+  }
+
+  /** The settings the IDLE connection is opened with. */
+  private int settingsHash(EmailAccount account) {
+    return Objects.hash(
+        account.getHost(),
+        account.getPort(),
+        account.getLogin(),
+        account.getPassword(),
+        account.getServerTypeSelect(),
+        account.getSecuritySelect(),
+        INBOX);
+  }
+
+  private void scanQuietly() {
+    try {
+      scan();
+    } catch (Exception e) {
+      log.error("Exception occurred while scanning IMAP accounts", e);
+    } finally {
+      JPA.clear();
+    }
+  }
+
+  private final class Listener implements Runnable {
+    private final Long accountId;
+    private final Integer settingsHash;
+    private final MailAccount account;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean supported = true;
+    private volatile Store store;
+
+    private Listener(Long accountId, Integer settingsHash, MailAccount account) {
+      this.accountId = accountId;
+      this.settingsHash = settingsHash;
+      this.account = account;
+      this.thread = new Thread(this, "mail-idle-account-" + accountId);
+      this.thread.setDaemon(true);
+    }
+
+    private void start() {
+      thread.start();
+    }
+
+    private boolean isAlive() {
+      return thread.isAlive();
+    }
+
+    private void stop() {
+      running = false;
+      thread.interrupt();
+      close();
+    }
+
+    @Override
+    public void run() {
+      int retry = Math.max(1, AppSettings.get().getInt("message.fetch.imap.idle-retry", 60));
+      while (running) {
+        try {
+          listen();
+        } catch (Exception e) {
+          if (running) {
+            log.warn("IMAP IDLE lost for account {}, retry in {}s: {}", accountId, retry, e);
+          }
+        } finally {
+          close();
+        }
+        if (!supported) {
+          return;
+        }
+        try {
+          Thread.sleep(retry * 1000L);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+
+    private void listen() throws MessagingException {
+      ScheduledExecutorService timer = scheduler;
+      if (timer == null) {
+        return;
+      }
+      store = new MailReader(account).getStore();
+      if (!(store instanceof IMAPStore) || !((IMAPStore) store).hasCapability("IDLE")) {
+        supported = false;
+        log.info("IMAP server of account {} does not support IDLE", accountId);
+        return;
+      }
+      IMAPFolder inbox = (IMAPFolder) store.getFolder(INBOX);
+      inbox.open(Folder.READ_ONLY);
+
+      int refresh = Math.max(60, AppSettings.get().getInt("message.fetch.imap.idle-refresh", 1500));
+      // any command ends the IDLE, which is then issued again
+      ScheduledFuture<?> keepAlive =
+          timer.scheduleWithFixedDelay(() -> noop(inbox), refresh, refresh, TimeUnit.SECONDS);
+      try {
+        // catch up with what arrived while not listening
+        fetch();
+        while (running && inbox.isOpen()) {
+          inbox.idle(true);
+          fetch();
+        }
+      } finally {
+        keepAlive.cancel(false);
+      }
+    }
+
+    private void noop(IMAPFolder inbox) {
+      try {
+        inbox.doCommand(
+            protocol -> {
+              protocol.simpleCommand("NOOP", null);
+              return null;
+            });
+      } catch (MessagingException e) {
+        log.debug("IMAP NOOP failed for account {}", accountId, e);
+      }
+    }
+
+    private void fetch() {
+      try {
+        EmailAccount mailAccount = Beans.get(EmailAccountRepository.class).find(accountId);
+        if (mailAccount != null) {
+          Beans.get(MailFetchService.class).fetch(mailAccount);
+        }
+      } catch (Exception e) {
+        TraceBackService.trace(e);
+      } finally {
+        JPA.clear();
+      }
+    }
+
+    private void close() {
+      Store current = store;
+      store = null;
+      if (current != null) {
+        try {
+          current.close();
+        } catch (MessagingException e) {
+          // already closed
+        }
+      }
+    }
+  }
+}
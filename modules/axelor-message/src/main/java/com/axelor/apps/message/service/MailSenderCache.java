@@ -0,0 +1,101 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.apps.message.db.EmailAccount;
+import com.axelor.mail.MailSender;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ready to use {@link MailSender}s, one per {@link EmailAccount}.
+ *
+ * <p>A sender is built, and the account password decrypted, once per account version: an entry
+ * is reused as long as the account it was built from has the same id and version, and is dropped
+ * when the account is saved or removed.
+ */
+@Singleton
+public class MailSenderCache {
+
+  private final Map<Long, Entry> senders = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  @Inject private MailAccountService mailAccountService;
+
+  public MailSender get(EmailAccount emailAccount) {
+    Entry entry = senders.get(emailAccount.getId());
+    if (entry != null && Objects.equals(entry.version, emailAccount.getVersion())) {
+      hits.increment();
+      return entry.sender;
+    }
+    return senders
+        .compute(
+            emailAccount.getId(),
+            (id, current) -> {
+              if (current != null && Objects.equals(current.version, emailAccount.getVersion())) {
+                hits.increment();
+                return current;
+              }
+              misses.increment();
+              return new Entry(
+                  emailAccount.getVersion(),
+                  new MailSender(mailAccountService.getMailAccount(emailAccount)));
+            })
+        .sender;
+  }
+
+  public void invalidate(Long emailAccountId) {
+    if (emailAccountId != null) {
+      senders.remove(emailAccountId);
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public int size() {
+    return senders.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%d sender(s) cached, %d hit(s), %d miss(es)", size(), getHits(), getMisses());
+  }
+
+  private static final class Entry {
+    private final Integer version;
+    private final MailSender sender;
+
+    private Entry(Integer version, MailSender sender) {
+      this.version = version;
+      this.sender = sender;
+    }
+  }
+}
@@ -49,9 +49,6 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import javax.inject.Singleton;
 import javax.mail.MessagingException;
 import javax.mail.internet.AddressException;
@@ -65,18 +62,16 @@ public class MailServiceMessageImpl extends MailServiceImpl {
 
   private Logger log = LoggerFactory.getLogger(MailService.class);
 
-  private ExecutorService executor = Executors.newCachedThreadPool();
-
-  private MailSender sender = null;
+  @Inject private MailDispatchExecutor mailDispatchExecutor;
 
   private MailReader reader = null;
 
-  private EmailAccount senderAccount = null;
-
   private EmailAccount readerAccount = null;
 
   @Inject private MailAccountService mailAccountService;
 
+  @Inject private MailSenderCache mailSenderCache;
+
   @Override
   public Model resolve(String email) {
     final EmailAddressRepository addresses = Beans.get(EmailAddressRepository.class);
@@ -155,7 +150,7 @@ public class MailServiceMessageImpl extends MailServiceImpl {
     Preconditions.checkNotNull(message, "mail message can't be null");
 
     final Model related = findEntity(message);
-    final MailSender sender = getMailSender(emailAccount);
+    final MailSender sender = mailSenderCache.get(emailAccount);
 
     final Set<String> recipients = recipients(message, related);
     if (recipients.isEmpty()) {
@@ -194,33 +189,16 @@ public class MailServiceMessageImpl extends MailServiceImpl {
     }
 
     // send email using a separate process to void thread blocking
-    executor.submit(
-        new Callable<Boolean>() {
-          @Override
-          public Boolean call() throws Exception {
+    mailDispatchExecutor.execute(
+        () -> {
+          try {
             send(sender, email);
-            return true;
+          } catch (MessagingException e) {
+            throw new MailException(e);
           }
         });
   }
 
-  private MailSender getMailSender(EmailAccount emailAccount) {
-
-    if (senderAccount == null
-        || !senderAccount.getId().equals(emailAccount.getId())
-        || !senderAccount.getVersion().equals(emailAccount.getVersion())) {
-      senderAccount = emailAccount;
-      sender = null;
-    }
-
-    if (sender == null) {
-      MailAccount mailAccount = mailAccountService.getMailAccount(emailAccount);
-      sender = new MailSender(mailAccount);
-    }
-
-    return sender;
-  }
-
   private MailReader getMailReader(EmailAccount emailAccount) {
 
     if (readerAccount == null
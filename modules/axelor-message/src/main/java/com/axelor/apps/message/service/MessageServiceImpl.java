@@ -34,8 +34,6 @@ import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
 import com.axelor.inject.Beans;
 import com.axelor.mail.MailBuilder;
-import com.axelor.mail.MailSender;
-import com.axelor.mail.SmtpAccount;
 import com.axelor.meta.MetaFiles;
 import com.axelor.meta.db.MetaAttachment;
 import com.axelor.meta.db.MetaFile;
@@ -51,12 +49,8 @@ import java.lang.invoke.MethodHandles;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import javax.mail.MessagingException;
-import javax.persistence.EntityNotFoundException;
-import javax.persistence.LockModeType;
-import javax.persistence.PersistenceException;
+import org.hibernate.engine.spi.SessionImplementor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,9 +60,9 @@ public class MessageServiceImpl extends JpaSupport implements MessageService {
   private MetaAttachmentRepository metaAttachmentRepository;
   protected MessageRepository messageRepository;
 
-  private ExecutorService executor = Executors.newCachedThreadPool();
-  private static final int ENTITY_FIND_TIMEOUT = 10000;
-  private static final int ENTITY_FIND_INTERVAL = 200;
+  @Inject private MailDispatchExecutor mailDispatchExecutor;
+
+  @Inject private MailSenderCache mailSenderCache;
 
   @Inject
   public MessageServiceImpl(
@@ -265,14 +259,6 @@ public class MessageServiceImpl extends JpaSupport implements MessageService {
     }
 
     log.debug("Sent email");
-    MailAccountService mailAccountService = Beans.get(MailAccountService.class);
-    com.axelor.mail.MailAccount account =
-        new SmtpAccount(
-            mailAccount.getHost(),
-            mailAccount.getPort().toString(),
-            mailAccount.getLogin(),
-            mailAccountService.getDecryptPassword(mailAccount.getPassword()),
-            mailAccountService.getSecurity(mailAccount));
 
     List<String> replytoRecipients = this.getEmailAddresses(message.getReplyToEmailAddressSet());
     List<String> toRecipients = this.getEmailAddresses(message.getToEmailAddressSet());
@@ -286,8 +272,7 @@ public class MessageServiceImpl extends JpaSupport implements MessageService {
           I18n.get(IExceptionMessage.MESSAGE_6));
     }
 
-    MailSender sender = new MailSender(account);
-    MailBuilder mailBuilder = sender.compose();
+    MailBuilder mailBuilder = mailSenderCache.get(mailAccount).compose();
 
     mailBuilder.subject(message.getSubject());
 
@@ -321,65 +306,38 @@ public class MessageServiceImpl extends JpaSupport implements MessageService {
       mailBuilder.attach(metaFile.getFileName(), MetaFiles.getPath(metaFile).toString());
     }
 
+    // in progress until sent, left so for the dispatch sweeper when the pool is full
+    final int previousStatus =
+        message.getStatusSelect() == null
+                || message.getStatusSelect() == MessageRepository.STATUS_IN_PROGRESS
+            ? MessageRepository.STATUS_DRAFT
+            : message.getStatusSelect();
+    message.setStatusSelect(MessageRepository.STATUS_IN_PROGRESS);
     getEntityManager().flush();
-    getEntityManager().lock(message, LockModeType.PESSIMISTIC_WRITE);
     final long messageId = message.getId();
-    // send email using a separate process to avoid thread blocking
-    executor.submit(
+    final Long senderUserId = AuthUtils.getUser() == null ? null : AuthUtils.getUser().getId();
+    // queued once the message is committed, the sent status is then written by the dispatcher
+    afterCommit(
         () -> {
-          final long startTime = System.currentTimeMillis();
-          boolean done = false;
-          PersistenceException persistenceException = null;
-          mailBuilder.send();
-          do {
-            try {
-              inTransaction(
-                  () -> {
-                    final Message updateMessage = findMessage(messageId);
-                    getEntityManager().lock(updateMessage, LockModeType.PESSIMISTIC_WRITE);
-                    updateMessage.setSentByEmail(true);
-                    updateMessage.setStatusSelect(MessageRepository.STATUS_SENT);
-                    updateMessage.setSentDateT(LocalDateTime.now());
-                    updateMessage.setSenderUser(AuthUtils.getUser());
-                    messageRepository.save(updateMessage);
-                  });
-              done = true;
-            } catch (PersistenceException e) {
-              persistenceException = e;
-              sleep();
-            }
-          } while (!done && System.currentTimeMillis() - startTime < ENTITY_FIND_TIMEOUT);
-          if (!done) {
-            throw persistenceException;
+          if (!mailDispatchExecutor.submit(
+              messageId, senderUserId, previousStatus, () -> mailBuilder.send())) {
+            log.info("Mail dispatch is full, message {} will be sent by the sweeper", messageId);
           }
-          return true;
         });
 
     return message;
   }
 
-  private Message findMessage(Long messageId) {
-    Message foundMessage;
-    final long startTime = System.currentTimeMillis();
-
-    while ((foundMessage = messageRepository.find(messageId)) == null
-        && System.currentTimeMillis() - startTime < ENTITY_FIND_TIMEOUT) {
-      sleep();
-    }
-
-    if (foundMessage == null) {
-      throw new EntityNotFoundException(messageId.toString());
-    }
-
-    return foundMessage;
-  }
-
-  private void sleep() {
-    try {
-      Thread.sleep(ENTITY_FIND_INTERVAL);
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-    }
+  private void afterCommit(Runnable runnable) {
+    getEntityManager()
+        .unwrap(SessionImplementor.class)
+        .getActionQueue()
+        .registerProcess(
+            (success, session) -> {
+              if (success) {
+                runnable.run();
+              }
+            });
   }
 
   public Set<MetaAttachment> getMetaAttachments(Message message) {
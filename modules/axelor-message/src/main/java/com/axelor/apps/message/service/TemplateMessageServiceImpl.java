@@ -26,6 +26,7 @@ import com.axelor.apps.message.db.repo.EmailAddressRepository;
 import com.axelor.apps.message.db.repo.MessageRepository;
 import com.axelor.apps.message.db.repo.TemplateRepository;
 import com.axelor.apps.message.exception.IExceptionMessage;
+import com.axelor.apps.tool.EmailTool;
 import com.axelor.db.EntityHelper;
 import com.axelor.db.JPA;
 import com.axelor.db.Model;
@@ -41,7 +42,6 @@ import com.axelor.meta.db.MetaJsonRecord;
 import com.axelor.meta.db.MetaModel;
 import com.axelor.rpc.Context;
 import com.axelor.tool.template.TemplateMaker;
-import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -60,7 +60,6 @@ import org.slf4j.LoggerFactory;
 
 public class TemplateMessageServiceImpl implements TemplateMessageService {
 
-  private static final String RECIPIENT_SEPARATOR = ";|,";
   private static final char TEMPLATE_DELIMITER = '$';
 
   private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
@@ -288,11 +287,7 @@ public class TemplateMessageServiceImpl implements TemplateMessageService {
       return emailAddressList;
     }
 
-    for (String recipient :
-        Splitter.onPattern(RECIPIENT_SEPARATOR)
-            .trimResults()
-            .omitEmptyStrings()
-            .splitToList(recipients)) {
+    for (String recipient : EmailTool.splitEmailAddresses(recipients)) {
       emailAddressList.add(getEmailAddress(recipient));
     }
     return emailAddressList;
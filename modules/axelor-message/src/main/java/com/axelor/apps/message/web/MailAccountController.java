@@ -18,9 +18,12 @@
 package com.axelor.apps.message.web;
 
 import com.axelor.apps.message.db.EmailAccount;
+import com.axelor.apps.message.db.EmailAccountFetchState;
+import com.axelor.apps.message.db.repo.EmailAccountFetchStateRepository;
 import com.axelor.apps.message.db.repo.EmailAccountRepository;
 import com.axelor.apps.message.exception.IExceptionMessage;
 import com.axelor.apps.message.service.MailAccountService;
+import com.axelor.apps.message.service.MailFetchService;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
@@ -70,11 +73,35 @@ public class MailAccountController {
     EmailAccount account = request.getContext().asType(EmailAccount.class);
     account = Beans.get(EmailAccountRepository.class).find(account.getId());
 
-    int totalFetched = Beans.get(MailAccountService.class).fetchEmails(account, true);
+    Integer totalFetched = Beans.get(MailFetchService.class).fetch(account);
 
+    if (totalFetched == null) {
+      response.setFlash(I18n.get(IExceptionMessage.MAIL_ACCOUNT_FETCH_RUNNING));
+      return;
+    }
     response.setFlash(I18n.get(String.format("Total email fetched: %s", totalFetched)));
   }
 
+  public void fillFetchState(ActionRequest request, ActionResponse response) {
+
+    EmailAccount account = request.getContext().asType(EmailAccount.class);
+    if (account.getId() == null) {
+      return;
+    }
+    EmailAccountFetchState state =
+        Beans.get(EmailAccountFetchStateRepository.class)
+            .all()
+            .filter("self.emailAccount.id = ?1", account.getId())
+            .fetchOne();
+    if (state == null) {
+      return;
+    }
+    response.setValue("$lastFetchDateT", state.getLastFetchDateT());
+    response.setValue("$lastFetchDuration", state.getLastFetchDuration());
+    response.setValue("$lastFetchCount", state.getLastFetchCount());
+    response.setValue("$lastFetchError", state.getLastFetchError());
+  }
+
   public void validate(ActionRequest request, ActionResponse response) {
     if (request.getContext().get("newPassword") != null)
       response.setValue(
@@ -20,6 +20,8 @@ package com.axelor.apps.message.web;
 import com.axelor.apps.message.db.Message;
 import com.axelor.apps.message.db.repo.MessageRepository;
 import com.axelor.apps.message.exception.IExceptionMessage;
+import com.axelor.apps.message.service.MailDispatchExecutor;
+import com.axelor.apps.message.service.MailSenderCache;
 import com.axelor.apps.message.service.MessageService;
 import com.axelor.apps.tool.ModelTool;
 import com.axelor.exception.AxelorException;
@@ -69,6 +71,14 @@ public class MessageController {
     }
   }
 
+  public void showDispatchStats(ActionRequest request, ActionResponse response) {
+    response.setFlash(
+        String.format(
+            I18n.get(IExceptionMessage.MESSAGE_DISPATCH_STATS),
+            Beans.get(MailDispatchExecutor.class).getStats(),
+            Beans.get(MailSenderCache.class)));
+  }
+
   @SuppressWarnings("unchecked")
   public void regenerateMessages(ActionRequest request, ActionResponse response) {
     List<Integer> idList = (List<Integer>) request.getContext().get("_ids");
@@ -17,13 +17,152 @@
  */
 package com.axelor.apps.tool;
 
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
+/**
+ * Email address validation and normalization shared by the mail services.
+ *
+ * <p>Addresses are checked with a hand written scan equivalent to {@code
+ * [_A-Za-z0-9-]+(\.[_A-Za-z0-9-]+)*@[A-Za-z0-9]+(\.[A-Za-z0-9]+)*(\.[A-Za-z]{2,})}, the pattern
+ * this class used to compile on every call, so any string gets the same answer as before.
+ * Validation does not allocate.
+ */
 public class EmailTool {
+
   public static boolean isValidEmailAddress(String email) {
-    final String EMAIL_PATTERN =
-        "[_A-Za-z0-9-]+(\\.[_A-Za-z0-9-]+)*@[A-Za-z0-9]+(\\.[A-Za-z0-9]+)*(\\.[A-Za-z]{2,})";
-    Pattern pattern = Pattern.compile(EMAIL_PATTERN);
-    return pattern.matcher(email).matches();
+    int length = email.length();
+    int at = -1;
+    for (int i = 0; i < length; i++) {
+      if (email.charAt(i) == '@') {
+        if (at >= 0) {
+          return false;
+        }
+        at = i;
+      }
+    }
+    if (at <= 0) {
+      return false;
+    }
+    return isValidLocalPart(email, 0, at) && isValidDomain(email, at + 1, length);
+  }
+
+  /**
+   * Returns the addresses of the collection that are not valid, in their original order. A null
+   * address is not valid.
+   */
+  public static List<String> getInvalidEmailAddresses(Collection<String> emails) {
+    List<String> invalid = null;
+    for (String email : emails) {
+      if (email == null || !isValidEmailAddress(email)) {
+        if (invalid == null) {
+          invalid = new ArrayList<>();
+        }
+        invalid.add(email);
+      }
+    }
+    return invalid == null ? Collections.emptyList() : invalid;
+  }
+
+  /**
+   * Trims the address and lower cases its domain. Returns null when the address is not valid. The
+   * given string is returned as is when it is already normalized.
+   */
+  public static String normalizeEmailAddress(String email) {
+    if (email == null) {
+      return null;
+    }
+    String trimmed = email.trim();
+    if (!isValidEmailAddress(trimmed)) {
+      return null;
+    }
+    int at = trimmed.indexOf('@');
+    for (int i = at + 1; i < trimmed.length(); i++) {
+      if (Character.isUpperCase(trimmed.charAt(i))) {
+        return trimmed.substring(0, at + 1) + trimmed.substring(at + 1).toLowerCase(Locale.ROOT);
+      }
+    }
+    return trimmed;
+  }
+
+  /** Splits a recipient list separated by ',' or ';', trimming entries and skipping empty ones. */
+  public static List<String> splitEmailAddresses(String recipients) {
+    if (recipients == null || recipients.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<String> result = new ArrayList<>();
+    int length = recipients.length();
+    int start = 0;
+    for (int i = 0; i <= length; i++) {
+      if (i == length || recipients.charAt(i) == ',' || recipients.charAt(i) == ';') {
+        int from = start;
+        int to = i;
+        while (from < to && Character.isWhitespace(recipients.charAt(from))) {
+          from++;
+        }
+        while (to > from && Character.isWhitespace(recipients.charAt(to - 1))) {
+          to--;
+        }
+        if (from < to) {
+          result.add(recipients.substring(from, to));
+        }
+        start = i + 1;
+      }
+    }
+    return result;
+  }
+
+  // [_A-Za-z0-9-]+(\.[_A-Za-z0-9-]+)*
+  private static boolean isValidLocalPart(String email, int start, int end) {
+    boolean afterDot = true;
+    for (int i = start; i < end; i++) {
+      char c = email.charAt(i);
+      if (c == '.') {
+        if (afterDot) {
+          return false;
+        }
+        afterDot = true;
+      } else if (isLetter(c) || isDigit(c) || c == '_' || c == '-') {
+        afterDot = false;
+      } else {
+        return false;
+      }
+    }
+    return !afterDot;
+  }
+
+  // [A-Za-z0-9]+(\.[A-Za-z0-9]+)*(\.[A-Za-z]{2,})
+  private static boolean isValidDomain(String email, int start, int end) {
+    int labels = 0;
+    int labelStart = start;
+    boolean lettersOnly = true;
+    for (int i = start; i < end; i++) {
+      char c = email.charAt(i);
+      if (c == '.') {
+        if (i == labelStart) {
+          return false;
+        }
+        labels++;
+        labelStart = i + 1;
+        lettersOnly = true;
+      } else if (isDigit(c)) {
+        lettersOnly = false;
+      } else if (!isLetter(c)) {
+        return false;
+      }
+    }
+    // the last label is the top level domain
+    return labels > 0 && lettersOnly && end - labelStart >= 2;
+  }
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
   }
 }
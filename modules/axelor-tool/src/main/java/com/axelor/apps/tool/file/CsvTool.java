@@ -23,6 +23,8 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
 import java.util.List;
 
 public final class CsvTool {
@@ -105,4 +107,29 @@ public final class CsvTool {
       reconWriter = null;
     }
   }
+
+  /**
+   * Writes the rows one by one as they are iterated, so that they never have to be held in memory
+   * together (e.g. rows read from a database cursor). The writer is flushed but not closed.
+   *
+   * @return the number of rows written, headers excluded
+   */
+  public static long csvWriter(
+      Writer writer, char separator, char quoteChar, String[] headers, Iterator<String[]> rows)
+      throws IOException {
+    CSVWriter csvWriter = new CSVWriter(writer, separator, quoteChar, "\r\n");
+    if (headers != null) {
+      csvWriter.writeNext(headers);
+    }
+    long count = 0;
+    while (rows.hasNext()) {
+      csvWriter.writeNext(rows.next());
+      count++;
+    }
+    csvWriter.flush();
+    if (csvWriter.checkError()) {
+      throw new IOException("Error while writing CSV");
+    }
+    return count;
+  }
 }
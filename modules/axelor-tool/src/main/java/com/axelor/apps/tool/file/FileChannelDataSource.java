@@ -0,0 +1,73 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.tool.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import javax.activation.DataSource;
+
+/**
+ * Read only {@link DataSource} over a {@link FileChannel}.
+ *
+ * <p>Every call to {@link #getInputStream()} opens a new channel, so the file is read in small
+ * chunks while JavaMail encodes it to the socket instead of being loaded on the heap.
+ */
+public class FileChannelDataSource implements DataSource {
+
+  private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+  private final Path path;
+  private final String name;
+  private final String contentType;
+
+  public FileChannelDataSource(Path path, String name, String contentType) {
+    this.path = path;
+    this.name = name == null ? path.getFileName().toString() : name;
+    this.contentType = contentType == null ? DEFAULT_CONTENT_TYPE : contentType;
+  }
+
+  public long size() throws IOException {
+    return Files.size(path);
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ));
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    throw new IOException("FileChannelDataSource is read only");
+  }
+
+  @Override
+  public String getContentType() {
+    return contentType;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+}
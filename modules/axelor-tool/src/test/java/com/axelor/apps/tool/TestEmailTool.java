@@ -0,0 +1,118 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.tool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestEmailTool {
+
+  private static final Pattern EMAIL_PATTERN =
+      Pattern.compile(
+          "[_A-Za-z0-9-]+(\\.[_A-Za-z0-9-]+)*@[A-Za-z0-9]+(\\.[A-Za-z0-9]+)*(\\.[A-Za-z]{2,})");
+
+  @Test
+  public void testIsValidEmailAddress() {
+
+    Assert.assertTrue(EmailTool.isValidEmailAddress("john.doe@axelor.com"));
+    Assert.assertTrue(EmailTool.isValidEmailAddress("john_doe-1@mail.axelor.co.th"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress(""));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("john.doe"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("@axelor.com"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("john@@axelor.com"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress(".john@axelor.com"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("john..doe@axelor.com"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("john@axelor"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("john@axelor.c"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("john@axelor.c0m"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("john@axelor..com"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("john doe@axelor.com"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress(" john@axelor.com"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("john@axelor.com "));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("j\u00f6hn@axelor.com"));
+    Assert.assertFalse(EmailTool.isValidEmailAddress("john@axelor.com@axelor.com"));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testIsValidEmailAddressNull() {
+
+    EmailTool.isValidEmailAddress(null);
+  }
+
+  @Test
+  public void testNoLengthLimit() {
+
+    String local = repeat('a', 65);
+    String domain = repeat('b', 256) + ".com";
+    Assert.assertTrue(EmailTool.isValidEmailAddress(local + "@axelor.com"));
+    Assert.assertTrue(EmailTool.isValidEmailAddress("john@" + domain));
+    Assert.assertTrue(EMAIL_PATTERN.matcher(local + "@" + domain).matches());
+    Assert.assertTrue(EmailTool.isValidEmailAddress(local + "@" + domain));
+  }
+
+  @Test
+  public void testSameResultAsPattern() {
+
+    String[] emails = {
+      "a@b.co", "a.b@c.d.ef", "a-@b.cd", "a_b@c-d.ef", "a@1.2.com", "a@b.c1", "a@.com", "a.@b.com",
+      "a@b.com.", "A@B.COM", "a+b@c.com", "a@b_c.com", "_@b.co", "-a-@b.co", "a_.b@c.co",
+      "a@b.c.d", "a@b.cd.", "a@b..cd", "a@-b.cd", "a@b-.cd", "a@b.c-d", "a@1.co", "a@b.123",
+      "1@2.3.ab", "a.b.c@d.ef", "a@b.cD", "a@@b.cd", "@", "a@", "@b.cd", ".", "a@b.cd@e.fg",
+      "a\tb@c.de", "a@b.cd\n", "\u00e4@b.cd", "a@b.\u00e7d"
+    };
+    for (String email : emails) {
+      Assert.assertEquals(
+          email, EMAIL_PATTERN.matcher(email).matches(), EmailTool.isValidEmailAddress(email));
+    }
+  }
+
+  @Test
+  public void testNormalizeEmailAddress() {
+
+    Assert.assertEquals(
+        "John.Doe@axelor.com", EmailTool.normalizeEmailAddress(" John.Doe@Axelor.COM "));
+    Assert.assertNull(EmailTool.normalizeEmailAddress("john.doe"));
+    Assert.assertNull(EmailTool.normalizeEmailAddress(null));
+  }
+
+  @Test
+  public void testSplitEmailAddresses() {
+
+    Assert.assertEquals(
+        Arrays.asList("a@b.com", "c@d.com", "e@f.com"),
+        EmailTool.splitEmailAddresses(" a@b.com, c@d.com;;e@f.com ; "));
+    Assert.assertEquals(Collections.emptyList(), EmailTool.splitEmailAddresses(null));
+  }
+
+  @Test
+  public void testGetInvalidEmailAddresses() {
+
+    Assert.assertEquals(
+        Arrays.asList("bad", null),
+        EmailTool.getInvalidEmailAddresses(Arrays.asList("a@b.com", "bad", "c@d.com", null)));
+  }
+
+  private static String repeat(char c, int count) {
+    char[] chars = new char[count];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.tool.file;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCsvTool {
+
+  @Test
+  public void csvWriterStreamsRows() throws IOException {
+    StringWriter writer = new StringWriter();
+    long count =
+        CsvTool.csvWriter(
+            writer,
+            ';',
+            '"',
+            new String[] {"id", "status"},
+            Arrays.asList(new String[] {"1", "Success"}, new String[] {"2", "Fail; retry"})
+                .iterator());
+
+    Assert.assertEquals(2, count);
+    Assert.assertEquals(
+        "\"id\";\"status\"\r\n\"1\";\"Success\"\r\n\"2\";\"Fail; retry\"\r\n", writer.toString());
+  }
+
+  @Test
+  public void csvWriterDoesNotMaterializeRows() throws IOException {
+    int total = 100000;
+    Iterator<String[]> rows =
+        new Iterator<String[]>() {
+          private int next;
+
+          @Override
+          public boolean hasNext() {
+            return next < total;
+          }
+
+          @Override
+          public String[] next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return new String[] {String.valueOf(next++)};
+          }
+        };
+    CountingWriter writer = new CountingWriter();
+
+    Assert.assertEquals(total, CsvTool.csvWriter(writer, ',', '"', null, rows));
+    Assert.assertEquals(total, writer.lines);
+  }
+
+  private static class CountingWriter extends Writer {
+    private long lines;
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        if (cbuf[i] == '\n') {
+          lines++;
+        }
+      }
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+}
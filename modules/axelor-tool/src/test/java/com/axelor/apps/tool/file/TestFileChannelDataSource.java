@@ -0,0 +1,151 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2020 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.tool.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.Random;
+import javax.activation.DataHandler;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestFileChannelDataSource {
+
+  private static final int MB = 1024 * 1024;
+
+  @Test
+  public void readsTheWholeFile() throws IOException {
+    Path file = createFile(MB + 17);
+    FileChannelDataSource dataSource = new FileChannelDataSource(file, null, null);
+
+    Assert.assertEquals(MB + 17, dataSource.size());
+    Assert.assertEquals(file.getFileName().toString(), dataSource.getName());
+    Assert.assertEquals("application/octet-stream", dataSource.getContentType());
+    try (InputStream in = dataSource.getInputStream()) {
+      Assert.assertArrayEquals(Files.readAllBytes(file), readAll(in));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void isReadOnly() throws IOException {
+    new FileChannelDataSource(createFile(1), "a.pdf", "application/pdf").getOutputStream();
+  }
+
+  /**
+   * Encodes an email with a 1 MB then a 32 MB attachment and compares the bytes allocated by the
+   * sending thread: loading the file would cost at least its size, streaming only small buffers.
+   */
+  @Test
+  public void heapStaysFlatAsAttachmentGrows() throws IOException, MessagingException {
+    Assume.assumeTrue(
+        ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+
+    // class loading and JavaMail caches are allocated once, outside of the measure
+    encode(createFile(MB));
+
+    long small = allocatedWhileEncoding(threadBean, createFile(MB));
+    long large = allocatedWhileEncoding(threadBean, createFile(32 * MB));
+
+    Assert.assertTrue(
+        String.format("%d bytes allocated for 1 MB, %d bytes for 32 MB", small, large),
+        large - small < 4 * MB);
+  }
+
+  private long allocatedWhileEncoding(com.sun.management.ThreadMXBean threadBean, Path file)
+      throws IOException, MessagingException {
+    long threadId = Thread.currentThread().getId();
+    long before = threadBean.getThreadAllocatedBytes(threadId);
+    long written = encode(file);
+    long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+    // base64 makes 4 bytes out of 3, the whole file went through
+    Assert.assertTrue(written > Files.size(file) * 4 / 3);
+    return allocated;
+  }
+
+  private long encode(Path file) throws IOException, MessagingException {
+    MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+    MimeBodyPart attachPart = new MimeBodyPart();
+    attachPart.setDataHandler(new DataHandler(new FileChannelDataSource(file, null, null)));
+    attachPart.setFileName(file.getFileName().toString());
+    attachPart.setHeader("Content-Transfer-Encoding", "base64");
+    MimeMultipart multipart = new MimeMultipart();
+    multipart.addBodyPart(attachPart);
+    message.setContent(multipart);
+    message.saveChanges();
+
+    CountingOutputStream out = new CountingOutputStream();
+    message.writeTo(out);
+    return out.count;
+  }
+
+  private Path createFile(int size) throws IOException {
+    Path file = Files.createTempFile("attachment", ".bin");
+    file.toFile().deleteOnExit();
+    byte[] chunk = new byte[Math.min(size, MB)];
+    new Random(size).nextBytes(chunk);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      for (int remaining = size; remaining > 0; remaining -= chunk.length) {
+        channel.write(ByteBuffer.wrap(chunk, 0, Math.min(remaining, chunk.length)));
+      }
+    }
+    return file;
+  }
+
+  private byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  private static class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
@@ -1,21 +1,52 @@
 package com.kline.communication;
 
+import com.axelor.i18n.I18n;
+import com.axelor.meta.db.MetaFile;
+import com.axelor.meta.schema.actions.ActionView;
 import com.axelor.rpc.ActionRequest;
 import com.axelor.rpc.ActionResponse;
+import com.axelor.rpc.Context;
 import com.google.inject.Inject;
+import com.kline.communication.db.KlineTransaction;
+import com.kline.communication.db.repo.KlineTransactionRepository;
+import com.kline.communication.exception.KLineException;
+import com.kline.communication.jdbc.TransactionJournal;
+import com.kline.communication.model.TransactionExportFilter;
 import com.kline.communication.service.EmailService;
 import com.kline.communication.service.SmsService;
+import com.kline.communication.service.TransactionExportService;
+import com.kline.communication.utils.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.time.LocalDate;
+import java.util.List;
+
+import static com.kline.communication.constant.CommunicationConstant.ERROR.EXCEPTION_OCCURRED_WHILE_EXPORTING;
+import static com.kline.communication.constant.CommunicationConstant.EXPORT_IS_RUNNING;
+import static com.kline.communication.constant.CommunicationConstant.EXPORT_STARTED;
+import static com.kline.communication.constant.CommunicationConstant.SELECT_A_TRANSACTION;
 import static com.kline.communication.constant.CommunicationConstant.TYPE_EMAIL;
 
 public class CommonController {
 
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
     @Inject
     private EmailService emailService;
 
     @Inject
     private SmsService smsService;
 
+    @Inject
+    private TransactionJournal transactionJournal;
+
+    @Inject
+    private KlineTransactionRepository klineTransactionRepository;
+
+    @Inject
+    private TransactionExportService transactionExportService;
+
     public void showTransactionDetail(ActionRequest request, ActionResponse response){
         String type = com.kline.communication.utils.StringUtils.toString(request.getContext().get("type"));
         if (TYPE_EMAIL.equals(type)) {
@@ -23,6 +54,93 @@ public class CommonController {
         }else{
             smsService.generateEmailValue(request, response);
         }
+        // status changes not yet flushed by the journal
+        Object id = request.getContext().get("id");
+        TransactionJournal.Entry entry = transactionJournal.find(id == null ? null : Long.valueOf(id.toString()));
+        if (entry != null) {
+            response.setValue("status", entry.getStatus());
+            response.setValue("statusDesc", entry.getStatusDesc());
+        }
     }
-}
 
+    /**
+     * Keyset paging: the next page starts right after the selected row (the last one shown), an
+     * index range scan on tranDateTime however deep in history it is, where an offset would read
+     * and skip every row before it.
+     */
+    public void showOlderTransactions(ActionRequest request, ActionResponse response){
+        List<?> ids = (List<?>) request.getContext().get("_ids");
+        KlineTransaction cursor = null;
+        if (ids != null) {
+            for (Object id : ids) {
+                KlineTransaction transaction = klineTransactionRepository.find(Long.valueOf(id.toString()));
+                if (transaction != null && transaction.getTranDateTime() != null && (cursor == null
+                        || transaction.getTranDateTime().isBefore(cursor.getTranDateTime())
+                        || (transaction.getTranDateTime().isEqual(cursor.getTranDateTime()) && transaction.getId() < cursor.getId()))) {
+                    cursor = transaction;
+                }
+            }
+        }
+        if (cursor == null) {
+            response.setFlash(SELECT_A_TRANSACTION);
+            return;
+        }
+        response.setView(
+                ActionView.define(I18n.get("Enquiry"))
+                        .model(KlineTransaction.class.getName())
+                        .add("grid", "communication-kline-transaction-grid")
+                        .add("form", "communication-kline-transaction-form")
+                        .domain("self.tranDateTime < :cursorDateTime"
+                                + " OR (self.tranDateTime = :cursorDateTime AND self.id < :cursorId)")
+                        .context("cursorDateTime", cursor.getTranDateTime())
+                        .context("cursorId", cursor.getId())
+                        .map());
+    }
+
+    /** Queues the export of the filtered history, the csv is written in the background. */
+    public void exportTransactions(ActionRequest request, ActionResponse response){
+        Context context = request.getContext();
+        TransactionExportFilter filter = new TransactionExportFilter();
+        filter.setFromDate(toLocalDate(context.get("exportFromDate")));
+        filter.setToDate(toLocalDate(context.get("exportToDate")));
+        filter.setType(StringUtils.toString(context.get("exportType")));
+        filter.setStatus(StringUtils.toString(context.get("exportStatus")));
+        filter.setOwner(StringUtils.toString(context.get("exportOwner")));
+        try {
+            response.setValue("exportJobId", transactionExportService.submit(filter));
+            response.setFlash(EXPORT_STARTED);
+        } catch (KLineException e) {
+            response.setError(e.getMessage());
+        } catch (Exception e) {
+            logger.error("exception occurred while export transactions : ", e);
+            response.setError(EXCEPTION_OCCURRED_WHILE_EXPORTING.getMessage());
+        }
+    }
+
+    /** Downloads the csv of the last export once it is written. */
+    public void downloadExport(ActionRequest request, ActionResponse response){
+        try {
+            MetaFile metaFile = transactionExportService.findFile(StringUtils.toString(request.getContext().get("exportJobId")));
+            if (metaFile == null) {
+                response.setFlash(EXPORT_IS_RUNNING);
+                return;
+            }
+            response.setView(
+                    ActionView.define(I18n.get("Export"))
+                            .add("html", "ws/rest/com.axelor.meta.db.MetaFile/" + metaFile.getId()
+                                    + "/content/download?v=" + metaFile.getVersion())
+                            .param("download", "true")
+                            .map());
+        } catch (KLineException e) {
+            response.setError(e.getMessage());
+        }
+    }
+
+    private LocalDate toLocalDate(Object value) {
+        if (value == null || value instanceof LocalDate) {
+            return (LocalDate) value;
+        }
+        String date = value.toString();
+        return date.isEmpty() ? null : LocalDate.parse(date.length() > 10 ? date.substring(0, 10) : date);
+    }
+}
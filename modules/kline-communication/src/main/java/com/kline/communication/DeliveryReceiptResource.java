@@ -0,0 +1,73 @@
+package com.kline.communication;
+
+import com.axelor.app.AppSettings;
+import com.google.inject.Inject;
+import com.kline.communication.model.DeliveryReceipt;
+import com.kline.communication.service.DeliveryReceiptService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+import static com.kline.communication.constant.CommunicationConstant.RECEIPT_TOKEN;
+import static com.kline.communication.constant.CommunicationConstant.TYPE_EMAIL;
+import static com.kline.communication.constant.CommunicationConstant.TYPE_SMS;
+
+/**
+ * Delivery receipt callbacks, {@code POST ws/communication/receipt/sms} from the sms gateway and
+ * {@code POST ws/communication/receipt/email} from the bounce processing, each with a json array of
+ * {@link DeliveryReceipt}. Receipts are only queued here, 202 once queued, 503 when the queue is
+ * full so that the sender retries later. The {@code receipt.token} setting is required, callbacks
+ * are refused with 403 while it is not set.
+ */
+@Path("/communication/receipt")
+@Consumes(MediaType.APPLICATION_JSON)
+public class DeliveryReceiptResource {
+
+    private static final String TOKEN_HEADER = "X-Receipt-Token";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private DeliveryReceiptService deliveryReceiptService;
+
+    @POST
+    @Path("/sms")
+    public Response sms(@HeaderParam(TOKEN_HEADER) String token, List<DeliveryReceipt> receipts) {
+        return submit(TYPE_SMS, token, receipts);
+    }
+
+    @POST
+    @Path("/email")
+    public Response email(@HeaderParam(TOKEN_HEADER) String token, List<DeliveryReceipt> receipts) {
+        return submit(TYPE_EMAIL, token, receipts);
+    }
+
+    private Response submit(String type, String token, List<DeliveryReceipt> receipts) {
+        String expected = AppSettings.get().get(RECEIPT_TOKEN);
+        if (StringUtils.isEmpty(expected)) {
+            logger.warn("Refused {} delivery receipts, {} is not set", type, RECEIPT_TOKEN);
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        if (token == null || !MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8))) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        if (receipts == null || receipts.isEmpty()) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (!deliveryReceiptService.submit(type, receipts)) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", 1).build();
+        }
+        return Response.accepted().build();
+    }
+}
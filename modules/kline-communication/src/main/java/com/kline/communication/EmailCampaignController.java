@@ -0,0 +1,39 @@
+package com.kline.communication;
+
+import com.axelor.rpc.ActionRequest;
+import com.axelor.rpc.ActionResponse;
+import com.google.inject.Inject;
+import com.kline.communication.db.KlineEmailCampaign;
+import com.kline.communication.db.repo.KlineEmailCampaignRepository;
+import com.kline.communication.exception.KLineException;
+import com.kline.communication.service.EmailCampaignService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.kline.communication.constant.CommunicationConstant.CAMPAIGN_STARTED_SUCCESSFULLY;
+import static com.kline.communication.constant.CommunicationConstant.ERROR.EXCEPTION_OCCURRED_WHILE_SENDING_EMAIL;
+
+public class EmailCampaignController {
+
+    @Inject
+    private EmailCampaignService emailCampaignService;
+
+    @Inject
+    private KlineEmailCampaignRepository emailCampaignRepository;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    public void start(ActionRequest request, ActionResponse response) {
+        try {
+            KlineEmailCampaign campaign = request.getContext().asType(KlineEmailCampaign.class);
+            emailCampaignService.start(emailCampaignRepository.find(campaign.getId()));
+            response.setNotify(CAMPAIGN_STARTED_SUCCESSFULLY);
+            response.setReload(true);
+        } catch (KLineException e) {
+            response.setError(e.getMessage());
+        } catch (Exception e) {
+            logger.error("exception occurred while start campaign", e);
+            response.setError(EXCEPTION_OCCURRED_WHILE_SENDING_EMAIL.getMessage());
+        }
+    }
+}
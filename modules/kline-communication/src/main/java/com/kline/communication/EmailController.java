@@ -10,28 +10,30 @@ import com.google.inject.Inject;
 import com.kline.communication.db.KlineEmailTemplate;
 import com.kline.communication.exception.KLineException;
 import com.kline.communication.model.EmailRequest;
+import com.kline.communication.model.SmtpPoolStats;
 import com.kline.communication.model.TransactionModel;
+import com.kline.communication.service.EmailQueueService;
+import com.kline.communication.ratelimit.RateLimiter;
 import com.kline.communication.service.EmailService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.StringUtils;
 
-import javax.mail.Message;
-import javax.mail.Multipart;
-import javax.mail.Session;
-import javax.mail.Transport;
-import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
-
 import static com.kline.communication.constant.CommunicationConstant.ERROR.EXCEPTION_OCCURRED_WHILE_SENDING_EMAIL;
 import static com.kline.communication.constant.CommunicationConstant.ERROR.PLEASE_SET_EMAIL_ADDRESS_IN_YOUR_PROFILE;
-import static com.kline.communication.constant.CommunicationConstant.*;
+import static com.kline.communication.constant.CommunicationConstant.EMAIL_QUEUED_SUCCESSFULLY;
 
 public class EmailController {
 
     @Inject
     private EmailService emailService;
 
+    @Inject
+    private EmailQueueService emailQueueService;
+
+    @Inject
+    private RateLimiter rateLimiter;
+
     private Logger logger = LoggerFactory.getLogger(getClass());
 
     public void onLoad(ActionRequest request, ActionResponse response) {
@@ -43,37 +45,44 @@ public class EmailController {
     }
 
     public void send(ActionRequest request, ActionResponse response) {
-        TransactionModel transactionModel = null;
         try {
-            Session session = emailService.initEmailSession();
-            Message msg = new MimeMessage(session);
-            Multipart multipart = new MimeMultipart();
-            emailService.initEmailFrom(msg);
-
             EmailRequest req = emailService.validateRequest(request);
-            logger.info("Sms request from UI : {}", req);
-            transactionModel = emailService.initTransaction(req);
-            emailService.initEmailTo(req, msg);
-            emailService.initEmailSubject(req, msg);
-            emailService.initEmailContent(req, multipart);
-            emailService.initEmailAttachment(req, multipart, request);
-            msg.setContent(multipart);
+            logger.info("Email request from UI : {}", req);
+            emailService.storeAttachments(req);
+            TransactionModel transactionModel;
+            try {
+                transactionModel = emailService.initTransaction(req);
+            } catch (RuntimeException e) {
+                emailService.removeAttachFileOnSystem(req);
+                throw e;
+            }
 
-            // sends the e-mail
-            Transport.send(msg);
-            //emailService.removeAttachFileOnSystem(req);
-            emailService.updateTransaction(transactionModel, STATUS_SUCCESS, SEND_EMAIL_SUCCESSFULLY);
-            response.setNotify(SEND_EMAIL_SUCCESSFULLY);
+            // smtp work is done by the queue workers, the transaction stays pending until then
+            emailQueueService.enqueue(transactionModel.getEmailTransaction().getId());
+            response.setNotify(EMAIL_QUEUED_SUCCESSFULLY);
             clear(request, response);
         } catch (KLineException e) {
             response.setError(e.getMessage());
         } catch (Exception e) {
             logger.error("exception occurred...", e);
-            emailService.updateTransaction(transactionModel, STATUS_FAILED, e.getMessage());
             response.setError(EXCEPTION_OCCURRED_WHILE_SENDING_EMAIL.getMessage());
         }
     }
 
+    public void showSmtpStatus(ActionRequest request, ActionResponse response) {
+        StringBuilder status = new StringBuilder();
+        for (SmtpPoolStats stats : emailService.getSmtpPoolStats()) {
+            status.append(String.format("Smtp pool %s : active : %d, idle : %d, created : %d, broken : %d,"
+                            + " evicted : %d, borrowed : %d, borrow wait avg : %.0f ms, max : %.0f ms<br/>",
+                    stats.getKey(), stats.getActive(), stats.getIdle(), stats.getCreated(), stats.getBroken(),
+                    stats.getEvicted(), stats.getBorrowed(), stats.getAvgBorrowWaitMs(), stats.getMaxBorrowWaitMs()));
+        }
+        if (status.length() == 0) {
+            status.append("Smtp pool : no connection opened yet<br/>");
+        }
+        response.setFlash(status.append(rateLimiter.getStats()).toString());
+    }
+
     public void clear(ActionRequest request, ActionResponse response) {
         response.setValue("klineEmailTemplate", null);
         response.setValue("emailTo", null);
@@ -1,21 +1,29 @@
 package com.kline.communication;
 
 import com.axelor.i18n.I18n;
+import com.axelor.meta.MetaFiles;
+import com.axelor.meta.db.MetaFile;
+import com.axelor.meta.db.repo.MetaFileRepository;
 import com.axelor.meta.schema.actions.ActionView;
 import com.axelor.rpc.ActionRequest;
 import com.axelor.rpc.ActionResponse;
 import com.google.inject.Inject;
+import com.kline.communication.db.Communication;
 import com.kline.communication.db.KlineSmsTemplate;
 import com.kline.communication.exception.KLineException;
+import com.kline.communication.model.SmsGatewayStats;
 import com.kline.communication.model.SmsRequest;
-import com.kline.communication.model.SmsResponse;
 import com.kline.communication.model.TransactionModel;
+import com.kline.communication.ratelimit.RateLimiter;
+import com.kline.communication.service.SmsBulkService;
+import com.kline.communication.service.SmsDispatchService;
 import com.kline.communication.service.SmsService;
+import com.kline.communication.sms.SmsSegments;
+import com.kline.communication.utils.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static com.kline.communication.constant.CommunicationConstant.*;
-import static com.kline.communication.constant.CommunicationConstant.ERROR.EXCEPTION_OCCURRED_WHILE_SENDING_EMAIL;
 import static com.kline.communication.constant.CommunicationConstant.ERROR.EXCEPTION_OCCURRED_WHILE_SENDING_SMS;
 
 public class SmsController {
@@ -23,31 +31,72 @@ public class SmsController {
     @Inject
     private SmsService smsService;
 
+    @Inject
+    private SmsDispatchService smsDispatchService;
+
+    @Inject
+    private SmsBulkService smsBulkService;
+
+    @Inject
+    private MetaFileRepository metaFileRepository;
+
+    @Inject
+    private RateLimiter rateLimiter;
+
     private Logger logger = LoggerFactory.getLogger(getClass());
 
     public void sendSms(ActionRequest request, ActionResponse response) {
-        TransactionModel transactionModel = null;
         try {
             SmsRequest req = smsService.validateRequest(request);
-            transactionModel = smsService.initTransaction(req);
-            SmsResponse smsResponse = smsService.sendSms(req);
-            logger.info("sms response : {}", smsResponse);
-            smsService.validateResult(smsResponse, transactionModel);
-            response.setNotify(SEND_SMS_SUCCESSFULLY);
+            TransactionModel transactionModel = smsService.initTransaction(req);
+
+            // gateway work is done by the dispatch pool, the transaction stays pending until then
+            smsDispatchService.dispatch(req, transactionModel);
+            response.setNotify(SMS_QUEUED_SUCCESSFULLY);
             clear(request, response);
         } catch (KLineException e) {
             response.setError(e.getMessage());
         } catch (Exception e) {
             logger.error("exception occurred : " ,e);
-            smsService.updateTransaction(transactionModel, STATUS_FAILED, e.getMessage());
             response.setError(EXCEPTION_OCCURRED_WHILE_SENDING_SMS.getMessage());
         }
     }
 
+    public void sendBulkSms(ActionRequest request, ActionResponse response) {
+        try {
+            String smsContent = StringUtils.toString(request.getContext().get("smsContent"));
+            String smsTo = StringUtils.toString(request.getContext().get("smsTo"));
+            Communication communication = request.getContext().asType(Communication.class);
+            MetaFile recipientFile = communication.getSmsRecipientFile();
+            smsBulkService.start(smsContent, communication.getKlineSmsTemplate(),
+                    recipientFile == null ? null : MetaFiles.getPath(metaFileRepository.find(recipientFile.getId())),
+                    smsTo);
+            response.setNotify(BULK_SMS_STARTED_SUCCESSFULLY);
+            clear(request, response);
+        } catch (KLineException e) {
+            response.setError(e.getMessage());
+        } catch (Exception e) {
+            logger.error("exception occurred while start bulk sms : ", e);
+            response.setError(EXCEPTION_OCCURRED_WHILE_SENDING_SMS.getMessage());
+        }
+    }
+
+    public void showGatewayStatus(ActionRequest request, ActionResponse response) {
+        SmsGatewayStats stats = smsService.getGatewayStats();
+        response.setFlash(String.format("Gateway : %s, active calls : %d/%d, calls : %d, failures : %d,"
+                        + " rejected : %d (bulkhead) %d (breaker), latency avg : %.0f ms, max : %d ms<br/>%s<br/>%s<br/>%s",
+                stats.getBreakerState(), stats.getActive(), stats.getMaxConcurrent(), stats.getCalls(),
+                stats.getFailures(), stats.getRejectedByBulkhead(), stats.getRejectedByBreaker(),
+                stats.getAvgLatencyMs(), stats.getMaxLatencyMs(), stats.getLatencyHistogram(),
+                smsService.getHttpPoolStats(), rateLimiter.getStats()));
+    }
+
     public void clear(ActionRequest request, ActionResponse response){
         response.setValue("klineSmsTemplate",null);
         response.setValue("smsContent",null);
         response.setValue("smsTo",null);
+        response.setValue("smsRecipientFile",null);
+        response.setAttr("smsSegmentsLabel", "title", "");
     }
 
     public void template(ActionRequest request, ActionResponse response){
@@ -64,6 +113,16 @@ public class SmsController {
         logger.info("Sms template is {}", smsTemplate);
         if (smsTemplate != null) {
             response.setValue("smsContent", smsTemplate.getContent());
+            showSegments(smsTemplate.getContent(), response);
         }
     }
+
+    public void countSegments(ActionRequest request, ActionResponse response){
+        showSegments(StringUtils.toString(request.getContext().get("smsContent")), response);
+    }
+
+    /** Placeholders are counted as written, the estimate is per recipient before personalization. */
+    private void showSegments(String content, ActionResponse response) {
+        response.setAttr("smsSegmentsLabel", "title", content == null ? "" : SmsSegments.of(content).toString());
+    }
 }
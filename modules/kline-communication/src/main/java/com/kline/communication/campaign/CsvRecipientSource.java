@@ -0,0 +1,82 @@
+package com.kline.communication.campaign;
+
+import com.opencsv.CSVReader;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads recipients line by line from a csv file with a header row, nothing is kept in memory but
+ * the current line. The key column ("email" by default, case insensitive) holds the address, or the
+ * first column when there is none; its trimmed value is returned under the key column name.
+ */
+public class CsvRecipientSource implements RecipientSource {
+
+    private final CSVReader reader;
+    private final String[] header;
+    private final String keyColumn;
+    private final int keyIndex;
+    private String[] next;
+
+    public CsvRecipientSource(Path file, char separator) throws IOException {
+        this(file, separator, EMAIL);
+    }
+
+    public CsvRecipientSource(Path file, char separator, String keyColumn) throws IOException {
+        this.reader = new CSVReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), separator);
+        String[] firstLine = reader.readNext();
+        this.header = firstLine == null ? new String[0] : firstLine;
+        int index = 0;
+        for (int i = 0; i < header.length; i++) {
+            header[i] = header[i].trim();
+            if (keyColumn.equalsIgnoreCase(header[i])) {
+                index = i;
+            }
+        }
+        this.keyColumn = keyColumn;
+        this.keyIndex = index;
+        advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Map<String, String> next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        String[] line = next;
+        Map<String, String> values = new HashMap<>(header.length * 2);
+        for (int i = 0; i < header.length && i < line.length; i++) {
+            values.put(header[i], line[i]);
+        }
+        values.put(keyColumn, line.length > keyIndex ? line[keyIndex].trim() : "");
+        advance();
+        return values;
+    }
+
+    private void advance() {
+        try {
+            do {
+                next = reader.readNext();
+            } while (next != null && next.length == 1 && next[0].trim().isEmpty());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,134 @@
+package com.kline.communication.campaign;
+
+import com.axelor.apps.message.db.EmailAddress;
+import com.axelor.db.JPA;
+import com.axelor.db.Query;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pages through {@link EmailAddress} rows matching a filter, ordered by id and continuing after the
+ * last id seen, so every page costs the same however far the campaign has gone.
+ *
+ * The filter is not JPQL: it is a list of {@code field operator 'value'} conditions joined by
+ * {@code and} / {@code or}, e.g. {@code address like '%@kline.co.th' and address <> 'x@kline.co.th'}.
+ * Only the fields of {@link #FIELDS} are accepted and every value is bound as a parameter.
+ */
+public class QueryRecipientSource implements RecipientSource {
+
+    /** Filter field -> EmailAddress property. */
+    private static final Map<String, String> FIELDS = new HashMap<>();
+    private static final Map<String, String> OPERATORS = new HashMap<>();
+    private static final Pattern CONDITION = Pattern.compile(
+            "\\G\\s*(\\w+)\\s+(=|<>|!=|not\\s+like|like)\\s+'((?:[^']|'')*)'\\s*(?:(and|or)\\b|$)",
+            Pattern.CASE_INSENSITIVE);
+
+    static {
+        FIELDS.put("address", "address");
+        OPERATORS.put("=", "=");
+        OPERATORS.put("<>", "<>");
+        OPERATORS.put("!=", "<>");
+        OPERATORS.put("like", "LIKE");
+        OPERATORS.put("not like", "NOT LIKE");
+    }
+
+    private final String filter;
+    private final Map<String, Object> params = new HashMap<>();
+    private final int pageSize;
+    private final Deque<Map<String, String>> page = new ArrayDeque<>();
+    private long lastId = 0;
+    private boolean exhausted;
+
+    /** @throws IllegalArgumentException when the filter is not valid */
+    public QueryRecipientSource(String filter, int pageSize) {
+        this.filter = toJpql(filter, params);
+        this.pageSize = pageSize;
+    }
+
+    public static boolean isValidFilter(String filter) {
+        try {
+            toJpql(filter, new HashMap<>());
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static String toJpql(String filter, Map<String, Object> params) {
+        if (filter == null || filter.trim().isEmpty()) {
+            throw new IllegalArgumentException("Empty recipient filter");
+        }
+        StringBuilder jpql = new StringBuilder();
+        Matcher matcher = CONDITION.matcher(filter);
+        int end = 0;
+        String connector = null;
+        while (end < filter.length() && matcher.find()) {
+            String field = FIELDS.get(matcher.group(1).toLowerCase(Locale.ROOT));
+            String operator = OPERATORS.get(matcher.group(2).toLowerCase(Locale.ROOT).replaceAll("\\s+", " "));
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown recipient filter field " + matcher.group(1));
+            }
+            if (connector != null) {
+                jpql.append(' ').append(connector).append(' ');
+            }
+            String param = "p" + params.size();
+            jpql.append("self.").append(field).append(' ').append(operator).append(" :").append(param);
+            params.put(param, matcher.group(3).replace("''", "'"));
+            connector = matcher.group(4) == null ? null : matcher.group(4).toUpperCase(Locale.ROOT);
+            end = matcher.end();
+        }
+        if (end < filter.length() && !filter.substring(end).trim().isEmpty() || connector != null || params.isEmpty()) {
+            throw new IllegalArgumentException("Invalid recipient filter " + filter);
+        }
+        return jpql.toString();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (page.isEmpty() && !exhausted) {
+            fetchPage();
+        }
+        return !page.isEmpty();
+    }
+
+    @Override
+    public Map<String, String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.poll();
+    }
+
+    private void fetchPage() {
+        Query<EmailAddress> query = Query.of(EmailAddress.class)
+                .filter("(" + filter + ") AND self.id > :lastId AND self.address IS NOT NULL")
+                .bind("lastId", lastId);
+        params.forEach(query::bind);
+        List<Map> rows = query
+                .order("id")
+                .select("id", "address")
+                .fetch(pageSize, 0);
+        for (Map row : rows) {
+            lastId = (Long) row.get("id");
+            Map<String, String> values = new HashMap<>(4);
+            values.put(EMAIL, (String) row.get("address"));
+            values.put("address", (String) row.get("address"));
+            page.add(values);
+        }
+        exhausted = rows.size() < pageSize;
+        JPA.clear();
+    }
+
+    @Override
+    public void close() {
+        page.clear();
+    }
+}
@@ -0,0 +1,15 @@
+package com.kline.communication.campaign;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Forward-only stream of campaign recipients. Each entry holds the placeholder values of one
+ * recipient, the address itself is always available under {@link #EMAIL} (or {@link #MOBILE_NO}
+ * for a bulk sms).
+ */
+public interface RecipientSource extends Iterator<Map<String, String>>, Closeable {
+    String EMAIL = "email";
+    String MOBILE_NO = "mobileNo";
+}
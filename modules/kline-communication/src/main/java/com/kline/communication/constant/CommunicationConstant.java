@@ -5,17 +5,128 @@ public class CommunicationConstant {
     public static final String TEXT_HTML = "text/html";
     public static final String SEND_EMAIL_SUCCESSFULLY = "Send Email Successfully";
     public static final String SEND_SMS_SUCCESSFULLY = "Send SMS Successfully";
+    public static final String EMAIL_QUEUED_SUCCESSFULLY = "Email has been queued for sending";
+    public static final String CAMPAIGN_STARTED_SUCCESSFULLY = "Campaign has been started";
+    public static final String SMS_QUEUED_SUCCESSFULLY = "Sms has been queued for sending";
+    public static final String SELECT_A_TRANSACTION = "Please select the last transaction of the page";
+    public static final String BULK_SMS_STARTED_SUCCESSFULLY = "Bulk sms has been started";
 
     public static final String TAG_IMAGE = "data:image/jpeg;base64";
     public static final String TYPE_EMAIL = "email";
     public static final String TYPE_SMS = "sms";
 
     public static final String STATUS_PENDING = "Pending";
+    public static final String STATUS_SENDING = "Sending";
     public static final String STATUS_FAILED = "Fail";
     public static final String STATUS_SUCCESS = "Success";
+    public static final String STATUS_DELIVERED = "Delivered";
+    public static final String STATUS_BOUNCED = "Bounced";
+    public static final String STATUS_READ = "Read";
     public static final String SMS_SUCCESS_RESPONSE = "200";
+    /** @deprecated email addresses are validated by {@link com.axelor.apps.tool.EmailTool} */
+    @Deprecated
     public static final String EMAIL_PATTERN = "^([\\w-\\.]+){1,64}@([\\w&&[^_]]+){2,255}.[a-z]{2,}$";
 
+    public static final String CAMPAIGN_STATUS_DRAFT = "Draft";
+    public static final String CAMPAIGN_STATUS_RUNNING = "Running";
+    public static final String CAMPAIGN_STATUS_DONE = "Done";
+    public static final String CAMPAIGN_SOURCE_CSV = "csv";
+    public static final String CAMPAIGN_SOURCE_QUERY = "query";
+
+    public static final String EMAIL_QUEUE_WORKERS = "email.queue.workers";
+    public static final String EMAIL_QUEUE_CAPACITY = "email.queue.capacity";
+    public static final String EMAIL_QUEUE_SWEEP_INTERVAL = "email.queue.sweep-interval";
+    public static final String EMAIL_QUEUE_SWEEP_BATCH = "email.queue.sweep-batch";
+    public static final String EMAIL_QUEUE_SENDING_TIMEOUT = "email.queue.sending-timeout";
+
+    public static final String EMAIL_SMTP_POOL_MAX_TOTAL = "email.smtp.pool.max-total";
+    public static final String EMAIL_SMTP_POOL_MAX_WAIT = "email.smtp.pool.max-wait";
+    public static final String EMAIL_SMTP_POOL_VALIDATE_AFTER = "email.smtp.pool.validate-after";
+    public static final String EMAIL_SMTP_POOL_IDLE_TIMEOUT = "email.smtp.pool.idle-timeout";
+    public static final String EMAIL_SMTP_POOL_EVICT_INTERVAL = "email.smtp.pool.evict-interval";
+    public static final String EMAIL_SMTP_CONNECT_TIMEOUT = "email.smtp.connect-timeout";
+    public static final String EMAIL_SMTP_READ_TIMEOUT = "email.smtp.read-timeout";
+    public static final String EMAIL_SMTP_MAX_RCPT = "email.smtp.max-rcpt";
+    public static final String EMAIL_ATTACHMENT_MAX_SIZE = "email.attachment.max-size";
+    public static final String EMAIL_ATTACHMENT_RECLAIM_INTERVAL = "email.attachment.reclaim-interval";
+    public static final String EMAIL_ATTACHMENT_RECLAIM_BATCH = "email.attachment.reclaim-batch";
+    public static final String EMAIL_BODY_CACHE_SIZE = "email.body.cache-size";
+
+    public static final String CAMPAIGN_MAX_RUNNING = "campaign.max-running";
+    public static final String CAMPAIGN_SENDERS = "campaign.senders";
+    public static final String CAMPAIGN_BATCH_SIZE = "campaign.batch-size";
+    public static final String CAMPAIGN_CSV_SEPARATOR = "campaign.csv.separator";
+    public static final String CAMPAIGN_QUERY_PAGE_SIZE = "campaign.query.page-size";
+    public static final String CAMPAIGN_STALE_AFTER = "campaign.stale-after";
+
+    public static final String TRANSACTION_BACKFILL_BATCH_SIZE = "transaction.backfill.batch-size";
+
+    public static final String ARCHIVE_AFTER_DAYS = "archive.after-days";
+    public static final String ARCHIVE_BATCH_SIZE = "archive.batch-size";
+    public static final String ARCHIVE_INTERVAL = "archive.interval";
+
+    public static final String EXPORT_FETCH_SIZE = "export.fetch-size";
+    public static final String EXPORT_WORKERS = "export.workers";
+    public static final String EXPORT_QUEUE_CAPACITY = "export.queue-capacity";
+    public static final String EXPORT_KEEP_MINUTES = "export.keep-minutes";
+    public static final String EXPORT_STARTED = "Export started, click Download export once it is written";
+    public static final String EXPORT_IS_RUNNING = "Export is still running, please try again in a moment";
+
+    public static final String RECEIPT_TOKEN = "receipt.token";
+    public static final String RECEIPT_QUEUE_CAPACITY = "receipt.queue-capacity";
+    public static final String RECEIPT_BATCH_SIZE = "receipt.batch-size";
+    public static final String RECEIPT_FLUSH_INTERVAL = "receipt.flush-interval";
+    public static final String RECEIPT_DEDUP_SIZE = "receipt.dedup-size";
+    public static final String RECEIPT_MATCH_WINDOW = "receipt.match-window";
+    public static final String RECEIPT_UNMATCHED_CAPACITY = "receipt.unmatched-capacity";
+
+    public static final String JOURNAL_BATCH_SIZE = "journal.batch-size";
+    public static final String JOURNAL_FLUSH_INTERVAL = "journal.flush-interval";
+
+    public static final String SMS_CONNECT_TIMEOUT = "sms.connect-timeout";
+    public static final String SMS_READ_TIMEOUT = "sms.read-timeout";
+    public static final String SMS_HTTP_MAX_TOTAL = "sms.http.max-total";
+    public static final String SMS_HTTP_MAX_PER_ROUTE = "sms.http.max-per-route";
+    public static final String SMS_HTTP_KEEP_ALIVE = "sms.http.keep-alive";
+    public static final String SMS_HTTP_CONTENT_TYPE = "sms.http.content-type";
+    public static final String SMS_DISPATCH_WORKERS = "sms.dispatch.workers";
+    public static final String SMS_DISPATCH_CAPACITY = "sms.dispatch.capacity";
+    public static final String SMS_BULK_MAX_RUNNING = "sms.bulk.max-running";
+    public static final String SMS_BULK_SENDERS = "sms.bulk.senders";
+    public static final String SMS_BULK_BATCH_SIZE = "sms.bulk.batch-size";
+    public static final String SMS_BULK_INSERT_BATCH = "sms.bulk.insert-batch";
+    public static final String SMS_GATEWAY_MAX_CONCURRENT = "sms.gateway.max-concurrent";
+    public static final String SMS_GATEWAY_MAX_WAIT = "sms.gateway.max-wait";
+    public static final String SMS_BREAKER_WINDOW = "sms.breaker.window";
+    public static final String SMS_BREAKER_MINIMUM_CALLS = "sms.breaker.minimum-calls";
+    public static final String SMS_BREAKER_FAILURE_RATE = "sms.breaker.failure-rate";
+    public static final String SMS_BREAKER_SLOW_CALL_RATE = "sms.breaker.slow-call-rate";
+    public static final String SMS_BREAKER_SLOW_CALL_DURATION = "sms.breaker.slow-call-duration";
+    public static final String SMS_BREAKER_OPEN_DURATION = "sms.breaker.open-duration";
+    public static final String SMS_BREAKER_HALF_OPEN_CALLS = "sms.breaker.half-open-calls";
+
+    public static final String RATELIMIT_MAX_WAIT = "ratelimit.max-wait";
+    public static final String RATELIMIT_GLOBAL_RATE = "ratelimit.global.rate";
+    public static final String RATELIMIT_GLOBAL_BURST = "ratelimit.global.burst";
+    public static final String RATELIMIT_SMS_RATE = "ratelimit.sms.rate";
+    public static final String RATELIMIT_SMS_BURST = "ratelimit.sms.burst";
+    public static final String RATELIMIT_EMAIL_RATE = "ratelimit.email.rate";
+    public static final String RATELIMIT_EMAIL_BURST = "ratelimit.email.burst";
+    public static final String RATELIMIT_OWNER_SMS_RATE = "ratelimit.owner.sms.rate";
+    public static final String RATELIMIT_OWNER_SMS_BURST = "ratelimit.owner.sms.burst";
+    public static final String RATELIMIT_OWNER_EMAIL_RATE = "ratelimit.owner.email.rate";
+    public static final String RATELIMIT_OWNER_EMAIL_BURST = "ratelimit.owner.email.burst";
+    public static final String RATELIMIT_OWNER_BULK_SMS_RATE = "ratelimit.owner.bulk-sms.rate";
+    public static final String RATELIMIT_OWNER_BULK_SMS_BURST = "ratelimit.owner.bulk-sms.burst";
+
+    public static final String RETRY_MAX_ATTEMPTS = "retry.max-attempts";
+    public static final String RETRY_BASE_DELAY = "retry.base-delay";
+    public static final String RETRY_MAX_DELAY = "retry.max-delay";
+    public static final String RETRY_BUCKET = "retry.bucket";
+    public static final String RETRY_WORKERS = "retry.workers";
+    public static final String RETRY_PENDING_TIMEOUT = "retry.pending-timeout";
+    public static final String RETRY_LOAD_BATCH = "retry.load-batch";
+
 
     public enum ERROR {
         EXCEPTION_OCCURRED_WHILE_SENDING_EMAIL("Cannot send email, please contact administrator."),
@@ -29,9 +140,22 @@ public class CommunicationConstant {
         SMS_CONTENT_IS_REQUIRED("Sms Content is required."),
         SMS_MOBILE_NO_IS_REQUIRED("Mobile Number is required."),
         INVALID_MOBILE_NO("Invalid mobile number."),
+        SMS_CONTENT_HAS_UNKNOWN_PLACEHOLDER("Sms Content can only use ${mobileNo} when sent to a single number, use bulk sms for other placeholders."),
         INVALID_EMAIL_TO("Email To is invalid."),
         INVALID_EMAIL_CC("Email CC is invalid."),
         INVALID_EMAIL_BCC("Email BCC is invalid."),
+        CAMPAIGN_TEMPLATE_IS_REQUIRED("Campaign template is required."),
+        CAMPAIGN_RECIPIENT_IS_REQUIRED("Campaign recipient file or query is required."),
+        CAMPAIGN_IS_ALREADY_STARTED("Campaign is already started."),
+        INVALID_RECIPIENT_QUERY("Recipient filter is invalid, use conditions like: address like '%@kline.co.th'."),
+        EMAIL_ATTACHMENT_IS_TOO_LARGE("Email attachments exceed the maximum size."),
+        EXCEPTION_OCCURRED_WHILE_SAVING_ATTACHMENT("Cannot save email attachments, please try again."),
+        SMS_GATEWAY_IS_BUSY("Too many sms are being sent, please try again later."),
+        SMS_GATEWAY_IS_UNAVAILABLE("Sms gateway is temporarily unavailable, please try again later."),
+        SEND_RATE_LIMIT_EXCEEDED("Too many messages are being sent, please try again later."),
+        EXCEPTION_OCCURRED_WHILE_EXPORTING("Cannot export transactions, please contact administrator."),
+        EXPORT_IS_BUSY("Too many exports are running, please try again later."),
+        EXPORT_IS_NOT_FOUND("Export not found or expired, please export again."),
 
 
         ;
@@ -3,11 +3,19 @@ package com.kline.communication.exception;
 import com.kline.communication.constant.CommunicationConstant;
 
 public class KLineException extends Exception {
+    private final CommunicationConstant.ERROR error;
+
     public KLineException(CommunicationConstant.ERROR err) {
         super(err.getMessage());
+        this.error = err;
     }
 
     public KLineException(CommunicationConstant.ERROR err, Throwable e) {
         super(err.getMessage(), e);
+        this.error = err;
+    }
+
+    public CommunicationConstant.ERROR getError() {
+        return error;
     }
 }
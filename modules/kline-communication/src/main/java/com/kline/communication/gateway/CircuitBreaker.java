@@ -0,0 +1,123 @@
+package com.kline.communication.gateway;
+
+/**
+ * Count based circuit breaker.
+ *
+ * The outcome of the last {@code windowSize} calls is kept in a ring. Once {@code minimumCalls} are
+ * recorded the breaker opens when the failure rate or the slow call rate reaches its threshold (in
+ * percent). After {@code openMillis} it lets {@code halfOpenCalls} trial calls through: one failed or
+ * slow trial opens it again, all of them fine closes it.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallMillis;
+    private final long openMillis;
+    private final int halfOpenCalls;
+
+    private final boolean[] failures;
+    private final boolean[] slows;
+    private int index;
+    private int count;
+    private int failureCount;
+    private int slowCount;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSucceeded;
+    private long rejected;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, int failureRateThreshold, int slowCallRateThreshold,
+                          long slowCallMillis, long openMillis, int halfOpenCalls) {
+        this.windowSize = Math.max(windowSize, 1);
+        this.minimumCalls = Math.max(Math.min(minimumCalls, this.windowSize), 1);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallMillis = slowCallMillis;
+        this.openMillis = openMillis;
+        this.halfOpenCalls = Math.max(halfOpenCalls, 1);
+        this.failures = new boolean[this.windowSize];
+        this.slows = new boolean[this.windowSize];
+    }
+
+    /** Returns false when the call must not be made. A permitted call must report its result. */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMillis) {
+                rejected++;
+                return false;
+            }
+            state = State.HALF_OPEN;
+            halfOpenPermits = halfOpenCalls;
+            halfOpenSucceeded = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermits == 0) {
+                rejected++;
+                return false;
+            }
+            halfOpenPermits--;
+        }
+        return true;
+    }
+
+    public synchronized void onResult(long durationMillis, boolean failed) {
+        boolean slow = durationMillis >= slowCallMillis;
+        if (state == State.HALF_OPEN) {
+            if (failed || slow) {
+                open();
+            } else if (++halfOpenSucceeded >= halfOpenCalls) {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+        if (count == windowSize) {
+            failureCount -= failures[index] ? 1 : 0;
+            slowCount -= slows[index] ? 1 : 0;
+        } else {
+            count++;
+        }
+        failures[index] = failed;
+        slows[index] = slow;
+        failureCount += failed ? 1 : 0;
+        slowCount += slow ? 1 : 0;
+        index = (index + 1) % windowSize;
+
+        if (count >= minimumCalls
+                && (failureCount * 100 >= failureRateThreshold * count || slowCount * 100 >= slowCallRateThreshold * count)) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        index = 0;
+        count = 0;
+        failureCount = 0;
+        slowCount = 0;
+    }
+}
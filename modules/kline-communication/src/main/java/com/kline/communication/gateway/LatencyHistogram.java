@@ -0,0 +1,51 @@
+package com.kline.communication.gateway;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Call durations counted in fixed millisecond buckets, lock free. */
+public class LatencyHistogram {
+
+    private static final long[] BOUNDS = {50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    public void record(long millis) {
+        int i = 0;
+        while (i < BOUNDS.length && millis > BOUNDS[i]) {
+            i++;
+        }
+        buckets.incrementAndGet(i);
+        count.incrementAndGet();
+        totalMillis.addAndGet(millis);
+        maxMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getAvgMillis() {
+        long calls = count.get();
+        return calls == 0 ? 0 : (double) totalMillis.get() / calls;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    /** Bucket label ({@code <=100ms}, ..., {@code >10000ms}) to number of calls. */
+    public Map<String, Long> getBuckets() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < BOUNDS.length; i++) {
+            result.put("<=" + BOUNDS[i] + "ms", buckets.get(i));
+        }
+        result.put(">" + BOUNDS[BOUNDS.length - 1] + "ms", buckets.get(BOUNDS.length));
+        return result;
+    }
+}
@@ -0,0 +1,95 @@
+package com.kline.communication.gateway;
+
+import com.axelor.app.AppSettings;
+import com.google.inject.Singleton;
+import com.kline.communication.exception.KLineException;
+import com.kline.communication.model.SmsGatewayStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+import static com.kline.communication.constant.CommunicationConstant.ERROR.*;
+
+/**
+ * Guards the calls to {@code sms.url}.
+ *
+ * At most {@code sms.gateway.max-concurrent} calls run at once, a caller waits up to
+ * {@code sms.gateway.max-wait} milliseconds for a slot and then fails with
+ * {@code SMS_GATEWAY_IS_BUSY}. A {@link CircuitBreaker} fails fast with
+ * {@code SMS_GATEWAY_IS_UNAVAILABLE} while the gateway keeps failing or
+ * answering slowly.
+ */
+@Singleton
+public class SmsGateway {
+
+    public interface Call<T> {
+        T execute() throws Exception;
+    }
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final int maxConcurrent = AppSettings.get().getInt(SMS_GATEWAY_MAX_CONCURRENT, 10);
+    private final long maxWait = AppSettings.get().getInt(SMS_GATEWAY_MAX_WAIT, 1000);
+    private final Semaphore bulkhead = new Semaphore(maxConcurrent, true);
+    private final CircuitBreaker breaker = new CircuitBreaker(
+            AppSettings.get().getInt(SMS_BREAKER_WINDOW, 20),
+            AppSettings.get().getInt(SMS_BREAKER_MINIMUM_CALLS, 10),
+            AppSettings.get().getInt(SMS_BREAKER_FAILURE_RATE, 50),
+            AppSettings.get().getInt(SMS_BREAKER_SLOW_CALL_RATE, 80),
+            AppSettings.get().getInt(SMS_BREAKER_SLOW_CALL_DURATION, 5000),
+            AppSettings.get().getInt(SMS_BREAKER_OPEN_DURATION, 30) * 1000L,
+            AppSettings.get().getInt(SMS_BREAKER_HALF_OPEN_CALLS, 3));
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejectedByBulkhead = new AtomicLong();
+
+    public <T> T execute(Call<T> call) throws KLineException {
+        boolean acquired;
+        try {
+            acquired = bulkhead.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KLineException(SMS_GATEWAY_IS_BUSY, e);
+        }
+        if (!acquired) {
+            rejectedByBulkhead.incrementAndGet();
+            throw new KLineException(SMS_GATEWAY_IS_BUSY);
+        }
+        try {
+            if (!breaker.tryAcquire()) {
+                throw new KLineException(SMS_GATEWAY_IS_UNAVAILABLE);
+            }
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                T result = call.execute();
+                failed = false;
+                return result;
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                logger.error("Exception while calling sms gateway : ", e);
+                throw new KLineException(EXCEPTION_OCCURRED_WHILE_SENDING_SMS, e);
+            } finally {
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                latency.record(millis);
+                CircuitBreaker.State before = breaker.getState();
+                breaker.onResult(millis, failed);
+                if (before != breaker.getState()) {
+                    logger.warn("Sms gateway circuit breaker {} -> {}", before, breaker.getState());
+                }
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    public SmsGatewayStats getStats() {
+        return new SmsGatewayStats(breaker.getState().name(), maxConcurrent - bulkhead.availablePermits(),
+                maxConcurrent, latency.getCount(), failures.get(), rejectedByBulkhead.get(), breaker.getRejected(),
+                latency.getAvgMillis(), latency.getMaxMillis(), latency.getBuckets());
+    }
+}
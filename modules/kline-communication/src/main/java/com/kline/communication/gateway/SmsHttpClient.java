@@ -0,0 +1,130 @@
+package com.kline.communication.gateway;
+
+import com.axelor.app.AppSettings;
+import com.google.gson.Gson;
+import com.google.inject.Singleton;
+import com.kline.communication.model.HttpPoolStats;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+
+/**
+ * Pooled http client for the sms gateway, with one shared {@link Gson}.
+ *
+ * Connections are kept alive for as long as the gateway allows ({@code Keep-Alive} header) or
+ * {@code sms.http.keep-alive} seconds, so consecutive sends reuse the same socket and TLS session.
+ * Responses are always consumed so that their connection goes back to the pool. The body is sent
+ * as UTF-8 with the {@code sms.http.content-type} header exactly as configured, without the charset
+ * parameter the gateway does not accept.
+ */
+@Singleton
+public class SmsHttpClient {
+
+    private static final Gson GSON = new Gson();
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final String contentType;
+
+    public SmsHttpClient() {
+        int connectTimeout = AppSettings.get().getInt(SMS_CONNECT_TIMEOUT, 5000);
+        long keepAlive = AppSettings.get().getInt(SMS_HTTP_KEEP_ALIVE, 30) * 1000L;
+        contentType = AppSettings.get().get(SMS_HTTP_CONTENT_TYPE, "application/json");
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(AppSettings.get().getInt(SMS_HTTP_MAX_TOTAL, 20));
+        connectionManager.setDefaultMaxPerRoute(AppSettings.get().getInt(SMS_HTTP_MAX_PER_ROUTE, 10));
+        // a connection idle for a while is checked before use, the gateway may have closed it
+        connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(AppSettings.get().getInt(SMS_READ_TIMEOUT, 10000))
+                .build();
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(config)
+                .setKeepAliveStrategy(keepAliveStrategy(keepAlive))
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /** Posts {@code body} as json and reads the response as {@code type}. A 5xx response is an IOException. */
+    public <T> T postJson(String url, Map<String, String> headers, Object body, Class<T> type) throws IOException {
+        HttpPost post = new HttpPost(url);
+        StringEntity requestEntity = new StringEntity(GSON.toJson(body), StandardCharsets.UTF_8);
+        requestEntity.setContentType(contentType);
+        post.setEntity(requestEntity);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            post.setHeader(header.getKey(), header.getValue());
+        }
+        try (CloseableHttpResponse response = client.execute(post)) {
+            HttpEntity entity = response.getEntity();
+            String content = entity == null ? null : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+            logger.debug("{} responded {}", url, response.getStatusLine());
+            if (response.getStatusLine().getStatusCode() >= 500) {
+                throw new IOException(url + " responded " + response.getStatusLine());
+            }
+            return content == null ? null : GSON.fromJson(content, type);
+        }
+    }
+
+    public Gson getGson() {
+        return GSON;
+    }
+
+    public HttpPoolStats getStats() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return new HttpPoolStats(stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax());
+    }
+
+    public void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.error("Exception occurred while close sms http client", e);
+        }
+    }
+
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(long defaultMillis) {
+        return (response, context) -> {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement element = it.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        return Math.min(Long.parseLong(element.getValue()) * 1000L, defaultMillis);
+                    } catch (NumberFormatException ignored) {
+                        // fall back to the default
+                    }
+                }
+            }
+            return defaultMillis;
+        };
+    }
+}
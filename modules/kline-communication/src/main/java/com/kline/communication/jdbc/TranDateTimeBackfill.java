@@ -0,0 +1,124 @@
+package com.kline.communication.jdbc;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.kline.communication.constant.CommunicationConstant.TRANSACTION_BACKFILL_BATCH_SIZE;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Fills {@code tranDateTime} of the transactions written before the column existed, from their
+ * {@code tranDate} and {@code tranTime} strings (or {@code createdOn} when they are missing).
+ *
+ * Runs once per startup in the background, one short transaction per batch of ids so that the
+ * table is never locked for long; once every row is filled it is a single indexed lookup. The
+ * strings are parsed here rather than by the database so that a malformed one cannot fail the
+ * batch; a row that has neither a valid date and time nor a {@code createdOn} is left empty and
+ * skipped for the rest of the run.
+ */
+@Singleton
+public class TranDateTimeBackfill {
+
+    private static final String SELECT_EMPTY =
+            "SELECT id, tran_date, tran_time, created_on FROM communication_kline_transaction"
+                    + " WHERE tran_date_time IS NULL AND id > ? ORDER BY id LIMIT ?";
+    private static final String BACKFILL =
+            "UPDATE communication_kline_transaction SET tran_date_time = ? WHERE id = ? AND tran_date_time IS NULL";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private ExecutorService executor;
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadExecutor(namedThreadFactory("kline-backfill"));
+        executor.execute(this::backfill);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            // the remaining rows are filled on next start
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void backfill() {
+        int batchSize = AppSettings.get().getInt(TRANSACTION_BACKFILL_BATCH_SIZE, 1000);
+        AtomicInteger selected = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicLong lastId = new AtomicLong();
+        int total = 0;
+        try {
+            do {
+                selected.set(0);
+                AtomicInteger updated = new AtomicInteger();
+                JPA.runInTransaction(() -> JPA.jdbcWork(connection -> {
+                    try (PreparedStatement select = connection.prepareStatement(SELECT_EMPTY);
+                         PreparedStatement update = connection.prepareStatement(BACKFILL)) {
+                        select.setLong(1, lastId.get());
+                        select.setInt(2, batchSize);
+                        try (ResultSet rs = select.executeQuery()) {
+                            while (rs.next()) {
+                                selected.incrementAndGet();
+                                lastId.set(rs.getLong(1));
+                                Timestamp tranDateTime = toTimestamp(rs.getString(2), rs.getString(3));
+                                if (tranDateTime == null) {
+                                    tranDateTime = rs.getTimestamp(4);
+                                }
+                                if (tranDateTime == null) {
+                                    skipped.incrementAndGet();
+                                    continue;
+                                }
+                                update.setTimestamp(1, tranDateTime);
+                                update.setLong(2, rs.getLong(1));
+                                update.addBatch();
+                                updated.incrementAndGet();
+                            }
+                        }
+                        if (updated.get() > 0) {
+                            update.executeBatch();
+                        }
+                    }
+                }));
+                total += updated.get();
+            } while (selected.get() == batchSize && !Thread.currentThread().isInterrupted());
+            if (total > 0) {
+                logger.info("Filled tranDateTime of {} transaction(s)", total);
+            }
+            if (skipped.get() > 0) {
+                logger.warn("{} transaction(s) have no valid tranDate, tranTime nor createdOn, tranDateTime left empty", skipped.get());
+            }
+        } catch (Exception e) {
+            logger.error("Exception occurred while filling tranDateTime", e);
+        }
+    }
+
+    /** Null when either string is missing or not a valid yyyy-MM-dd / HH:mm:ss value. */
+    private static Timestamp toTimestamp(String tranDate, String tranTime) {
+        if (tranDate == null || tranTime == null) {
+            return null;
+        }
+        try {
+            return Timestamp.valueOf(LocalDate.parse(tranDate.trim()).atTime(LocalTime.parse(tranTime.trim())));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.kline.communication.jdbc;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.kline.communication.constant.CommunicationConstant.ARCHIVE_AFTER_DAYS;
+import static com.kline.communication.constant.CommunicationConstant.ARCHIVE_BATCH_SIZE;
+import static com.kline.communication.constant.CommunicationConstant.ARCHIVE_INTERVAL;
+import static com.kline.communication.constant.CommunicationConstant.STATUS_PENDING;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Moves the transactions older than {@code archive.after-days} into the archive tables
+ * ({@link com.kline.communication.db.KlineTransactionArchive} and its email and sms counterparts).
+ *
+ * Every batch of {@code archive.batch-size} transactions is copied and deleted in one short
+ * transaction, together with the email and sms rows they point to once no transaction left in the
+ * hot table still refers to them (a bulk sms row is shared by all its recipients). Pending rows and
+ * rows waiting for a retry are left alone. Archived rows keep their ids, the detail view looks them
+ * up in the archive when the hot row is gone.
+ */
+@Singleton
+public class TransactionArchiver {
+
+    private static final String SELECT_DUE =
+            "SELECT id, email_tran_id, sms_tran_id FROM communication_kline_transaction"
+                    + " WHERE tran_date_time < ? AND status <> ? AND next_retry_at IS NULL"
+                    + " ORDER BY tran_date_time LIMIT ? FOR UPDATE SKIP LOCKED";
+
+    private static final String ARCHIVE_TRANSACTIONS =
+            "INSERT INTO communication_kline_transaction_archive"
+                    + " (id, version, created_on, created_by, type, tran_date, tran_time, tran_date_time, email,"
+                    + " mobile_no, email_tran_id, sms_tran_id, status, status_desc, owner, campaign, attempts, provider_message_id,"
+                    + " archived_on)"
+                    + " SELECT id, 0, created_on, created_by, type, tran_date, tran_time, tran_date_time, email,"
+                    + " mobile_no, email_tran_id, sms_tran_id, status, status_desc, owner, campaign, attempts, provider_message_id, ?"
+                    + " FROM communication_kline_transaction WHERE id = ANY(?)";
+    private static final String DELETE_TRANSACTION_VIEW_ROWS =
+            "DELETE FROM communication_kline_transaction_email_attachment_transaction"
+                    + " WHERE communication_kline_transaction = ANY(?)";
+    private static final String DELETE_TRANSACTIONS =
+            "DELETE FROM communication_kline_transaction WHERE id = ANY(?)";
+
+    private static final String ARCHIVE_EMAILS =
+            "INSERT INTO communication_kline_email_transaction_archive"
+                    + " (id, version, created_on, created_by, date_time, email_from, email_to, email_cc, email_bcc,"
+                    + " email_subject, email_body, body, attachment_ids, owner, status, archived_on)"
+                    + " SELECT e.id, 0, e.created_on, e.created_by, e.date_time, e.email_from, e.email_to, e.email_cc,"
+                    + " e.email_bcc, e.email_subject, e.email_body, e.body,"
+                    + " (SELECT string_agg(j.kline_email_attachment::text, ',')"
+                    + " FROM communication_kline_email_transaction_kline_email_attachment j"
+                    + " WHERE j.communication_kline_email_transaction = e.id),"
+                    + " e.owner, e.status, ?"
+                    + " FROM communication_kline_email_transaction e WHERE e.id = ANY(?)"
+                    + " AND NOT EXISTS (SELECT 1 FROM communication_kline_transaction t WHERE t.email_tran_id = e.id::text)"
+                    + " RETURNING id";
+    // the KlineEmailAttachment rows stay, they keep the shared blob referenced
+    private static final String DELETE_EMAIL_ATTACHMENT_LINKS =
+            "DELETE FROM communication_kline_email_transaction_kline_email_attachment"
+                    + " WHERE communication_kline_email_transaction = ANY(?)";
+    private static final String DELETE_EMAILS =
+            "DELETE FROM communication_kline_email_transaction WHERE id = ANY(?)";
+
+    private static final String ARCHIVE_SMS =
+            "INSERT INTO communication_kline_sms_transaction_archive"
+                    + " (id, version, created_on, created_by, date_time, message, owner, status, sms_to, segments, archived_on)"
+                    + " SELECT s.id, 0, s.created_on, s.created_by, s.date_time, s.message, s.owner, s.status, s.sms_to,"
+                    + " s.segments, ?"
+                    + " FROM communication_kline_sms_transaction s WHERE s.id = ANY(?)"
+                    + " AND NOT EXISTS (SELECT 1 FROM communication_kline_transaction t WHERE t.sms_tran_id = s.id::text)"
+                    + " RETURNING id";
+    private static final String DELETE_SMS =
+            "DELETE FROM communication_kline_sms_transaction WHERE id = ANY(?)";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private ScheduledExecutorService archiver;
+
+    public synchronized void start() {
+        if (archiver != null) {
+            return;
+        }
+        int afterDays = AppSettings.get().getInt(ARCHIVE_AFTER_DAYS, 90);
+        if (afterDays <= 0) {
+            return;
+        }
+        int interval = AppSettings.get().getInt(ARCHIVE_INTERVAL, 3600);
+        archiver = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("kline-archiver"));
+        archiver.scheduleWithFixedDelay(this::archiveQuietly, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (archiver != null) {
+            // a batch is one transaction, an interrupted one is rolled back and moved on next run
+            archiver.shutdownNow();
+            archiver = null;
+        }
+    }
+
+    /** Archives everything that is due, batch after batch; returns the number of transactions moved. */
+    public int archive() {
+        int afterDays = AppSettings.get().getInt(ARCHIVE_AFTER_DAYS, 90);
+        int batchSize = AppSettings.get().getInt(ARCHIVE_BATCH_SIZE, 1000);
+        Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minusDays(afterDays));
+        AtomicInteger moved = new AtomicInteger();
+        int total = 0;
+        do {
+            moved.set(0);
+            JPA.runInTransaction(() -> JPA.jdbcWork(connection ->
+                    moved.set(archiveBatch(connection, cutoff, batchSize))));
+            total += moved.get();
+        } while (moved.get() == batchSize && !Thread.currentThread().isInterrupted());
+        if (total > 0) {
+            logger.info("Archived {} transaction(s) older than {} day(s)", total, afterDays);
+        }
+        return total;
+    }
+
+    private int archiveBatch(Connection connection, Timestamp cutoff, int batchSize) throws SQLException {
+        List<Long> ids = new ArrayList<>(batchSize);
+        Set<Long> emailIds = new LinkedHashSet<>();
+        Set<Long> smsIds = new LinkedHashSet<>();
+        try (PreparedStatement ps = connection.prepareStatement(SELECT_DUE)) {
+            ps.setTimestamp(1, cutoff);
+            ps.setString(2, STATUS_PENDING);
+            ps.setInt(3, batchSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                    addId(emailIds, rs.getString(2));
+                    addId(smsIds, rs.getString(3));
+                }
+            }
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        Timestamp archivedOn = Timestamp.valueOf(LocalDateTime.now());
+        Array transactionIds = connection.createArrayOf("bigint", ids.toArray());
+        update(connection, ARCHIVE_TRANSACTIONS, archivedOn, transactionIds);
+        update(connection, DELETE_TRANSACTION_VIEW_ROWS, null, transactionIds);
+        update(connection, DELETE_TRANSACTIONS, null, transactionIds);
+
+        if (!emailIds.isEmpty()) {
+            Array archived = copy(connection, ARCHIVE_EMAILS, archivedOn, connection.createArrayOf("bigint", emailIds.toArray()));
+            update(connection, DELETE_EMAIL_ATTACHMENT_LINKS, null, archived);
+            update(connection, DELETE_EMAILS, null, archived);
+        }
+        if (!smsIds.isEmpty()) {
+            Array archived = copy(connection, ARCHIVE_SMS, archivedOn, connection.createArrayOf("bigint", smsIds.toArray()));
+            update(connection, DELETE_SMS, null, archived);
+        }
+        return ids.size();
+    }
+
+    /** Runs an {@code INSERT ... RETURNING id} and returns the ids it copied. */
+    private Array copy(Connection connection, String sql, Timestamp archivedOn, Array ids) throws SQLException {
+        List<Long> copied = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setTimestamp(1, archivedOn);
+            ps.setArray(2, ids);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    copied.add(rs.getLong(1));
+                }
+            }
+        }
+        return connection.createArrayOf("bigint", copied.toArray());
+    }
+
+    private void update(Connection connection, String sql, Timestamp archivedOn, Array ids) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (archivedOn != null) {
+                ps.setTimestamp(index++, archivedOn);
+            }
+            ps.setArray(index, ids);
+            ps.executeUpdate();
+        }
+    }
+
+    private void addId(Set<Long> ids, String tranId) {
+        if (tranId == null) {
+            return;
+        }
+        try {
+            ids.add(Long.valueOf(tranId.trim()));
+        } catch (NumberFormatException e) {
+            // " - " for the other channel
+        }
+    }
+
+    private void archiveQuietly() {
+        try {
+            archive();
+        } catch (Exception e) {
+            logger.error("Exception occurred while archive transactions", e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.kline.communication.jdbc;
+
+import com.axelor.db.JPA;
+import com.google.inject.Singleton;
+import com.kline.communication.db.KlineSmsTransaction;
+import com.kline.communication.db.KlineTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Writes communication transactions with plain JDBC batches, for the bulk paths where one
+ * {@code repository.save} per row would mean one flush per message.
+ *
+ * The entities passed in are only used as value holders, they are not attached to the session.
+ */
+@Singleton
+public class TransactionBatchWriter {
+
+    private static final String INSERT_KLINE_TRANSACTION =
+            "INSERT INTO communication_kline_transaction"
+                    + " (id, version, archived, created_on, type, tran_date, tran_time, email, mobile_no,"
+                    + " email_tran_id, sms_tran_id, status, status_desc, owner, campaign, attempts, tran_date_time,"
+                    + " provider_message_id)"
+                    + " VALUES (COALESCE(CAST(? AS bigint), nextval('communication_kline_transaction_seq')), 0, false,"
+                    + " ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String NEXT_KLINE_TRANSACTION_IDS =
+            "SELECT nextval('communication_kline_transaction_seq') FROM generate_series(1, ?)";
+
+    private static final String NEXT_SMS_TRANSACTION_IDS =
+            "SELECT nextval('communication_kline_sms_transaction_seq') FROM generate_series(1, ?)";
+
+    private static final String INSERT_SMS_TRANSACTION =
+            "INSERT INTO communication_kline_sms_transaction"
+                    + " (id, version, archived, created_on, date_time, message, owner, status, sms_to, segments)"
+                    + " VALUES (?, 0, false, ?, ?, ?, ?, ?, ?, ?)";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    public void insertTransactions(List<KlineTransaction> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        JPA.runInTransaction(() -> JPA.jdbcWork(connection -> insertTransactions(connection, transactions)));
+        logger.debug("Inserted {} kline transaction(s)", transactions.size());
+    }
+
+    /**
+     * Inserts each sms transaction with the kline transaction at the same index, in one database
+     * transaction. The ids are taken from the sequences up front so that every kline transaction
+     * can point to its sms row without reading anything back; both entities get their id so that
+     * later status changes can go through the journal.
+     */
+    public void insertSmsTransactions(List<KlineSmsTransaction> smsTransactions, List<KlineTransaction> transactions) {
+        if (smsTransactions.size() != transactions.size()) {
+            throw new IllegalArgumentException("Every sms transaction needs its kline transaction");
+        }
+        if (smsTransactions.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        JPA.runInTransaction(() -> JPA.jdbcWork(connection -> {
+            long[] ids = nextIds(connection, NEXT_SMS_TRANSACTION_IDS, smsTransactions.size());
+            long[] klineIds = nextIds(connection, NEXT_KLINE_TRANSACTION_IDS, transactions.size());
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_SMS_TRANSACTION)) {
+                for (int i = 0; i < smsTransactions.size(); i++) {
+                    KlineSmsTransaction e = smsTransactions.get(i);
+                    ps.setLong(1, ids[i]);
+                    ps.setTimestamp(2, now);
+                    ps.setTimestamp(3, e.getDateTime() == null ? now : Timestamp.valueOf(e.getDateTime()));
+                    ps.setString(4, e.getMessage());
+                    ps.setString(5, e.getOwner());
+                    ps.setString(6, e.getStatus());
+                    ps.setString(7, e.getSmsTo());
+                    ps.setInt(8, e.getSegments() == null ? 0 : e.getSegments());
+                    ps.addBatch();
+                    e.setId(ids[i]);
+                    transactions.get(i).setId(klineIds[i]);
+                    transactions.get(i).setSmsTranId(String.valueOf(ids[i]));
+                }
+                ps.executeBatch();
+            }
+            insertTransactions(connection, transactions);
+        }));
+        logger.debug("Inserted {} sms transaction(s)", smsTransactions.size());
+    }
+
+    private long[] nextIds(Connection connection, String sql, int count) throws SQLException {
+        long[] ids = new long[count];
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setInt(1, count);
+            try (ResultSet rs = ps.executeQuery()) {
+                for (int i = 0; i < count && rs.next(); i++) {
+                    ids[i] = rs.getLong(1);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void insertTransactions(Connection connection, List<KlineTransaction> transactions) throws SQLException {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        try (PreparedStatement ps = connection.prepareStatement(INSERT_KLINE_TRANSACTION)) {
+            for (KlineTransaction e : transactions) {
+                if (e.getId() != null) {
+                    ps.setLong(1, e.getId());
+                } else {
+                    ps.setNull(1, Types.BIGINT);
+                }
+                ps.setTimestamp(2, now);
+                ps.setString(3, e.getType());
+                ps.setString(4, e.getTranDate());
+                ps.setString(5, e.getTranTime());
+                ps.setString(6, e.getEmail());
+                ps.setString(7, e.getMobileNo());
+                ps.setString(8, e.getEmailTranId());
+                ps.setString(9, e.getSmsTranId());
+                ps.setString(10, e.getStatus());
+                ps.setString(11, e.getStatusDesc());
+                ps.setString(12, e.getOwner());
+                if (e.getCampaign() != null) {
+                    ps.setLong(13, e.getCampaign().getId());
+                } else {
+                    ps.setNull(13, Types.BIGINT);
+                }
+                ps.setInt(14, e.getAttempts() == null ? 0 : e.getAttempts());
+                ps.setTimestamp(15, e.getTranDateTime() == null ? now : Timestamp.valueOf(e.getTranDateTime()));
+                ps.setString(16, e.getProviderMessageId());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+}
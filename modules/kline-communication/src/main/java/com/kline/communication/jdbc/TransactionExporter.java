@@ -0,0 +1,139 @@
+package com.kline.communication.jdbc;
+
+import com.axelor.app.AppSettings;
+import com.axelor.apps.tool.file.CsvTool;
+import com.axelor.db.JPA;
+import com.google.inject.Singleton;
+import com.kline.communication.model.TransactionExportFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.kline.communication.constant.CommunicationConstant.EXPORT_FETCH_SIZE;
+
+/**
+ * Writes the transaction history matching a {@link TransactionExportFilter} as csv, archived
+ * transactions included.
+ *
+ * Rows are read with a forward only cursor, {@code export.fetch-size} at a time (the postgres
+ * driver only streams inside a transaction), and written to the csv as they are read, so an export
+ * of a few rows and one of millions use the same memory.
+ */
+@Singleton
+public class TransactionExporter {
+
+    public static final String[] HEADERS = {
+            "id", "type", "tranDateTime", "email", "mobileNo", "emailTranId", "smsTranId",
+            "status", "statusDesc", "owner", "attempts"};
+
+    private static final String COLUMNS =
+            "SELECT id, type, tran_date_time, email, mobile_no, email_tran_id, sms_tran_id,"
+                    + " status, status_desc, owner, attempts FROM ";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Returns the number of rows written. */
+    public long exportCsv(TransactionExportFilter filter, Writer writer, char separator) {
+        int fetchSize = AppSettings.get().getInt(EXPORT_FETCH_SIZE, 1000);
+        List<Object> params = new ArrayList<>();
+        String sql = COLUMNS + "communication_kline_transaction" + where(filter, params)
+                + " UNION ALL " + COLUMNS + "communication_kline_transaction_archive" + where(filter, params)
+                + " ORDER BY tran_date_time, id";
+        AtomicLong count = new AtomicLong();
+        JPA.runInTransaction(() -> JPA.jdbcWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(fetchSize);
+                for (int i = 0; i < params.size(); i++) {
+                    ps.setObject(i + 1, params.get(i));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    count.set(CsvTool.csvWriter(writer, separator, '"', HEADERS, new Rows(rs)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }));
+        logger.info("Exported {} transaction(s) for {}", count.get(), filter);
+        return count.get();
+    }
+
+    private String where(TransactionExportFilter filter, List<Object> params) {
+        List<String> conditions = new ArrayList<>();
+        if (filter.getFromDate() != null) {
+            conditions.add("tran_date_time >= ?");
+            params.add(Timestamp.valueOf(filter.getFromDate().atStartOfDay()));
+        }
+        if (filter.getToDate() != null) {
+            conditions.add("tran_date_time < ?");
+            params.add(Timestamp.valueOf(filter.getToDate().plusDays(1).atStartOfDay()));
+        }
+        if (!StringUtils.isEmpty(filter.getType())) {
+            conditions.add("type = ?");
+            params.add(filter.getType());
+        }
+        if (!StringUtils.isEmpty(filter.getStatus())) {
+            conditions.add("status = ?");
+            params.add(filter.getStatus());
+        }
+        if (!StringUtils.isEmpty(filter.getOwner())) {
+            conditions.add("owner = ?");
+            params.add(filter.getOwner());
+        }
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    /** The result set as csv rows, read one row ahead. */
+    private static final class Rows implements Iterator<String[]> {
+        private final ResultSet rs;
+        private Boolean hasNext;
+
+        private Rows(ResultSet rs) {
+            this.rs = rs;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hasNext == null) {
+                try {
+                    hasNext = rs.next();
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return hasNext;
+        }
+
+        @Override
+        public String[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = null;
+            try {
+                String[] row = new String[HEADERS.length];
+                for (int i = 0; i < row.length; i++) {
+                    Object value = rs.getObject(i + 1);
+                    row[i] = value instanceof Timestamp
+                            ? ((Timestamp) value).toLocalDateTime().toString()
+                            : value == null ? "" : value.toString();
+                }
+                return row;
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.kline.communication.jdbc;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.google.inject.Singleton;
+import com.kline.communication.model.TransactionModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.kline.communication.constant.CommunicationConstant.JOURNAL_BATCH_SIZE;
+import static com.kline.communication.constant.CommunicationConstant.JOURNAL_FLUSH_INTERVAL;
+import static com.kline.communication.constant.CommunicationConstant.STATUS_BOUNCED;
+import static com.kline.communication.constant.CommunicationConstant.STATUS_DELIVERED;
+import static com.kline.communication.constant.CommunicationConstant.STATUS_READ;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Write-behind journal for transaction status changes.
+ *
+ * {@link #record} appends the change to {@code KlineTransactionOutbox} before it returns, a single
+ * row insert that does not touch the transaction rows, so a status reported to the sender survives
+ * a crash. The change is also kept in memory, one entry per {@code KlineTransaction} (the latest
+ * change wins), and applied with JDBC batches when {@code journal.batch-size} entries are waiting or
+ * every {@code journal.flush-interval} milliseconds; the outbox rows of a batch are deleted in the
+ * same database transaction. An entry is only dropped once its batch is committed and only if it
+ * was not changed meanwhile, a failed batch is retried on the next flush.
+ *
+ * Until then {@link #find} exposes the buffered state so readers see the in-flight status.
+ *
+ * {@link #recover} replays at startup what a crash left in the outbox. A change the outbox could not
+ * take (database down) is kept in memory only and logged.
+ */
+@Singleton
+public class TransactionJournal {
+
+    // a delivery receipt applied meanwhile is newer than anything the sender knows
+    private static final String UPDATE_KLINE_TRANSACTION =
+            "UPDATE communication_kline_transaction SET status = ?, status_desc = ?,"
+                    + " attempts = COALESCE(?, attempts), next_retry_at = ?,"
+                    + " provider_message_id = COALESCE(?, provider_message_id),"
+                    + " version = version + 1, updated_on = now()"
+                    + " WHERE id = ? AND status NOT IN ('" + STATUS_DELIVERED + "', '" + STATUS_BOUNCED + "', '" + STATUS_READ + "')";
+    private static final String UPDATE_EMAIL_TRANSACTION =
+            "UPDATE communication_kline_email_transaction SET status = ?,"
+                    + " version = version + 1, updated_on = now() WHERE id = ?";
+    private static final String UPDATE_SMS_TRANSACTION =
+            "UPDATE communication_kline_sms_transaction SET status = ?,"
+                    + " version = version + 1, updated_on = now() WHERE id = ?";
+    private static final String INSERT_OUTBOX =
+            "INSERT INTO communication_kline_transaction_outbox"
+                    + " (id, version, archived, created_on, kline_transaction_id, email_tran_id, sms_tran_id,"
+                    + " status, status_desc, attempts, next_retry_at, provider_message_id)"
+                    + " VALUES (nextval('communication_kline_transaction_outbox_seq'), 0, false, now(),"
+                    + " ?, ?, ?, ?, ?, ?, ?, ?) RETURNING id";
+    // older changes of the same transaction were superseded by this one
+    private static final String DELETE_OUTBOX =
+            "DELETE FROM communication_kline_transaction_outbox WHERE kline_transaction_id = ? AND id <= ?";
+    private static final String SELECT_OUTBOX =
+            "SELECT id, kline_transaction_id, email_tran_id, sms_tran_id, status, status_desc, attempts,"
+                    + " next_retry_at, provider_message_id FROM communication_kline_transaction_outbox ORDER BY id";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<Long, Entry> pending = new ConcurrentHashMap<>();
+    private final Map<Long, Entry> pendingByEmailTranId = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final int batchSize = AppSettings.get().getInt(JOURNAL_BATCH_SIZE, 200);
+    private final ScheduledExecutorService flusher =
+            Executors.newSingleThreadScheduledExecutor(namedThreadFactory("kline-transaction-journal"));
+
+    public TransactionJournal() {
+        long interval = AppSettings.get().getInt(JOURNAL_FLUSH_INTERVAL, 500);
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void record(TransactionModel transactionModel, String status, String statusDesc) {
+        record(transactionModel, status, statusDesc, null, null);
+    }
+
+    /**
+     * Same as {@link #record(TransactionModel, String, String)} and also sets the attempts made so far,
+     * null keeps the stored value, and the next retry time, null when no retry is planned.
+     */
+    public void record(TransactionModel transactionModel, String status, String statusDesc,
+                       Integer attempts, LocalDateTime nextRetryAt) {
+        if (transactionModel == null || transactionModel.getKlineTransaction() == null) {
+            return;
+        }
+        Long emailTranId = transactionModel.getEmailTransaction() == null ? null : transactionModel.getEmailTransaction().getId();
+        Long smsTranId = transactionModel.getSmsTransaction() == null ? null : transactionModel.getSmsTransaction().getId();
+        Entry entry = new Entry(transactionModel.getKlineTransaction().getId(), emailTranId, smsTranId, status, statusDesc,
+                attempts, nextRetryAt, transactionModel.getProviderMessageId());
+        persist(entry);
+        buffer(entry);
+    }
+
+    /** Buffers again the changes left in the outbox by a crash, to be applied by the next flush. */
+    public void recover() {
+        List<Entry> entries = new ArrayList<>();
+        try {
+            JPA.runInTransaction(() -> JPA.jdbcWork(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(SELECT_OUTBOX);
+                     ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Timestamp nextRetryAt = rs.getTimestamp(8);
+                        Entry entry = new Entry(rs.getLong(2), (Long) rs.getObject(3), (Long) rs.getObject(4),
+                                rs.getString(5), rs.getString(6), (Integer) rs.getObject(7),
+                                nextRetryAt == null ? null : nextRetryAt.toLocalDateTime(), rs.getString(9));
+                        entry.outboxId = rs.getLong(1);
+                        entries.add(entry);
+                    }
+                }
+            }));
+        } catch (Exception e) {
+            logger.error("Exception occurred while reading the transaction outbox", e);
+            return;
+        }
+        for (Entry entry : entries) {
+            buffer(entry);
+        }
+        if (!entries.isEmpty()) {
+            logger.info("Replaying {} transaction status change(s) left in the outbox", entries.size());
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    private void persist(Entry entry) {
+        try {
+            JPA.runInTransaction(() -> JPA.jdbcWork(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(INSERT_OUTBOX)) {
+                    ps.setLong(1, entry.id);
+                    setLong(ps, 2, entry.emailTranId);
+                    setLong(ps, 3, entry.smsTranId);
+                    ps.setString(4, entry.status);
+                    ps.setString(5, entry.statusDesc);
+                    if (entry.attempts != null) {
+                        ps.setInt(6, entry.attempts);
+                    } else {
+                        ps.setNull(6, Types.INTEGER);
+                    }
+                    if (entry.nextRetryAt != null) {
+                        ps.setTimestamp(7, Timestamp.valueOf(entry.nextRetryAt));
+                    } else {
+                        ps.setNull(7, Types.TIMESTAMP);
+                    }
+                    ps.setString(8, entry.providerMessageId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            entry.outboxId = rs.getLong(1);
+                        }
+                    }
+                }
+            }));
+        } catch (Exception e) {
+            logger.error("Exception occurred while saving the status of transaction {} to the outbox, kept in memory only",
+                    entry.id, e);
+        }
+    }
+
+    private void buffer(Entry entry) {
+        Entry latest = pending.merge(entry.id, entry, TransactionJournal::latest);
+        if (latest == entry && entry.emailTranId != null) {
+            pendingByEmailTranId.put(entry.emailTranId, entry);
+        }
+        if (pending.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /** A change replayed from the outbox must not override a newer one recorded meanwhile. */
+    private static Entry latest(Entry current, Entry candidate) {
+        if (current.outboxId != null && candidate.outboxId != null && current.outboxId > candidate.outboxId) {
+            return current;
+        }
+        return candidate;
+    }
+
+    public Entry find(Long klineTransactionId) {
+        return klineTransactionId == null ? null : pending.get(klineTransactionId);
+    }
+
+    public Entry findByEmailTranId(Long emailTranId) {
+        return emailTranId == null ? null : pendingByEmailTranId.get(emailTranId);
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    public void stop() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            while (flush() >= batchSize) {
+                // keep draining while full batches are waiting
+            }
+        } catch (Exception e) {
+            logger.error("Exception occurred while flush transaction journal, {} entries kept for retry", pending.size(), e);
+        } finally {
+            flushRequested.set(false);
+        }
+    }
+
+    private synchronized int flush() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        List<Entry> batch = new ArrayList<>(Math.min(pending.size(), batchSize));
+        for (Entry entry : pending.values()) {
+            batch.add(entry);
+            if (batch.size() == batchSize) {
+                break;
+            }
+        }
+        // same lock order for every batch
+        batch.sort(Comparator.comparing(e -> e.id));
+        JPA.runInTransaction(() -> JPA.jdbcWork(connection -> write(connection, batch)));
+        for (Entry entry : batch) {
+            pending.remove(entry.id, entry);
+            if (entry.emailTranId != null) {
+                pendingByEmailTranId.remove(entry.emailTranId, entry);
+            }
+        }
+        logger.debug("Flushed {} transaction status change(s)", batch.size());
+        return batch.size();
+    }
+
+    private void write(Connection connection, List<Entry> batch) throws SQLException {
+        try (PreparedStatement kline = connection.prepareStatement(UPDATE_KLINE_TRANSACTION);
+             PreparedStatement email = connection.prepareStatement(UPDATE_EMAIL_TRANSACTION);
+             PreparedStatement sms = connection.prepareStatement(UPDATE_SMS_TRANSACTION);
+             PreparedStatement outbox = connection.prepareStatement(DELETE_OUTBOX)) {
+            boolean hasEmail = false;
+            boolean hasSms = false;
+            boolean hasOutbox = false;
+            for (Entry entry : batch) {
+                kline.setString(1, entry.status);
+                kline.setString(2, entry.statusDesc);
+                if (entry.attempts != null) {
+                    kline.setInt(3, entry.attempts);
+                } else {
+                    kline.setNull(3, Types.INTEGER);
+                }
+                if (entry.nextRetryAt != null) {
+                    kline.setTimestamp(4, Timestamp.valueOf(entry.nextRetryAt));
+                } else {
+                    kline.setNull(4, Types.TIMESTAMP);
+                }
+                kline.setString(5, entry.providerMessageId);
+                kline.setLong(6, entry.id);
+                kline.addBatch();
+                if (entry.emailTranId != null) {
+                    email.setString(1, entry.status);
+                    email.setLong(2, entry.emailTranId);
+                    email.addBatch();
+                    hasEmail = true;
+                }
+                if (entry.smsTranId != null) {
+                    sms.setString(1, entry.status);
+                    sms.setLong(2, entry.smsTranId);
+                    sms.addBatch();
+                    hasSms = true;
+                }
+                if (entry.outboxId != null) {
+                    outbox.setLong(1, entry.id);
+                    outbox.setLong(2, entry.outboxId);
+                    outbox.addBatch();
+                    hasOutbox = true;
+                }
+            }
+            kline.executeBatch();
+            if (hasEmail) {
+                email.executeBatch();
+            }
+            if (hasSms) {
+                sms.executeBatch();
+            }
+            if (hasOutbox) {
+                outbox.executeBatch();
+            }
+        }
+    }
+
+    private static void setLong(PreparedStatement ps, int index, Long value) throws SQLException {
+        if (value != null) {
+            ps.setLong(index, value);
+        } else {
+            ps.setNull(index, Types.BIGINT);
+        }
+    }
+
+    public static final class Entry {
+        private final Long id;
+        private final Long emailTranId;
+        private final Long smsTranId;
+        private final String status;
+        private final String statusDesc;
+        private final Integer attempts;
+        private final LocalDateTime nextRetryAt;
+        private final String providerMessageId;
+        /** Set once the change is in the outbox. */
+        private Long outboxId;
+
+        private Entry(Long id, Long emailTranId, Long smsTranId, String status, String statusDesc,
+                      Integer attempts, LocalDateTime nextRetryAt, String providerMessageId) {
+            this.id = id;
+            this.emailTranId = emailTranId;
+            this.smsTranId = smsTranId;
+            this.status = status;
+            this.statusDesc = statusDesc;
+            this.attempts = attempts;
+            this.nextRetryAt = nextRetryAt;
+            this.providerMessageId = providerMessageId;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getStatusDesc() {
+            return statusDesc;
+        }
+
+        public Integer getAttempts() {
+            return attempts;
+        }
+
+        public LocalDateTime getNextRetryAt() {
+            return nextRetryAt;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.kline.communication.mail;
+
+import com.axelor.app.AppSettings;
+import com.google.inject.Singleton;
+import com.kline.communication.model.SmtpPoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.Authenticator;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.PasswordAuthentication;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Pool of connected and authenticated smtp {@link Transport}, keyed by smtp.host/port/user.
+ *
+ * Connections are validated with a NOOP when they have been idle for longer than
+ * {@code email.smtp.pool.validate-after}, closed by the evictor after
+ * {@code email.smtp.pool.idle-timeout} and capped per key by {@code email.smtp.pool.max-total}.
+ */
+@Singleton
+public class SmtpTransportPool {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<PoolKey, KeyedPool> pools = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService evictor;
+
+    public Session getSession() {
+        return getPool().session;
+    }
+
+    /**
+     * Sends the message over a pooled connection. A connection is only returned to the pool when
+     * the failure is recipient related, anything else may have left it in an unknown state.
+     */
+    public void send(Message msg) throws MessagingException {
+        PooledTransport transport = borrow();
+        boolean broken = false;
+        try {
+            msg.saveChanges();
+            transport.getTransport().sendMessage(msg, msg.getAllRecipients());
+        } catch (SendFailedException e) {
+            broken = !transport.getTransport().isConnected();
+            throw e;
+        } catch (MessagingException | RuntimeException e) {
+            broken = true;
+            throw e;
+        } finally {
+            release(transport, broken);
+        }
+    }
+
+    public PooledTransport borrow() throws MessagingException {
+        return getPool().borrow();
+    }
+
+    public void release(PooledTransport transport, boolean broken) {
+        transport.getPool().release(transport, broken);
+    }
+
+    public List<SmtpPoolStats> getStats() {
+        List<SmtpPoolStats> stats = new ArrayList<>();
+        for (KeyedPool pool : pools.values()) {
+            stats.add(pool.stats());
+        }
+        return stats;
+    }
+
+    public synchronized void close() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        for (KeyedPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    private KeyedPool getPool() {
+        PoolKey key = new PoolKey(
+                AppSettings.get().get("smtp.host"),
+                AppSettings.get().get("smtp.port"),
+                AppSettings.get().get("smtp.user"));
+        KeyedPool pool = pools.get(key);
+        if (pool == null) {
+            pool = pools.computeIfAbsent(key, KeyedPool::new);
+            startEvictor();
+        }
+        return pool;
+    }
+
+    private synchronized void startEvictor() {
+        if (evictor != null) {
+            return;
+        }
+        int interval = AppSettings.get().getInt(EMAIL_SMTP_POOL_EVICT_INTERVAL, 30);
+        evictor = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("kline-smtp-evictor"));
+        evictor.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private void evictIdle() {
+        for (KeyedPool pool : pools.values()) {
+            try {
+                pool.evictIdle();
+                logger.debug("{}", pool.stats());
+            } catch (Exception e) {
+                logger.error("Exception occurred while evict smtp connection", e);
+            }
+        }
+    }
+
+    public static class PooledTransport {
+        private final KeyedPool pool;
+        private final Transport transport;
+        private long lastUsed;
+
+        private PooledTransport(KeyedPool pool, Transport transport) {
+            this.pool = pool;
+            this.transport = transport;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        private KeyedPool getPool() {
+            return pool;
+        }
+    }
+
+    private static final class PoolKey {
+        private final String host;
+        private final String port;
+        private final String user;
+
+        private PoolKey(String host, String port, String user) {
+            this.host = host;
+            this.port = port;
+            this.user = user;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PoolKey)) return false;
+            PoolKey that = (PoolKey) o;
+            return Objects.equals(host, that.host) && Objects.equals(port, that.port) && Objects.equals(user, that.user);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, user);
+        }
+
+        @Override
+        public String toString() {
+            return user + "@" + host + ":" + port;
+        }
+    }
+
+    private final class KeyedPool {
+        private final PoolKey key;
+        private final Session session;
+        private final Semaphore permits;
+        private final int maxTotal;
+        private final long maxWaitMillis;
+        private final long validateAfterMillis;
+        private final long idleTimeoutMillis;
+        private final LinkedBlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong broken = new AtomicLong();
+        private final AtomicLong evicted = new AtomicLong();
+        private final AtomicLong borrowed = new AtomicLong();
+        private final AtomicLong borrowWaitNanos = new AtomicLong();
+        private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+
+        private volatile boolean closed;
+
+        private KeyedPool(PoolKey key) {
+            this.key = key;
+            this.session = Session.getInstance(initProperties(), initAuthenticator());
+            this.maxTotal = AppSettings.get().getInt(EMAIL_SMTP_POOL_MAX_TOTAL, 8);
+            this.maxWaitMillis = AppSettings.get().getInt(EMAIL_SMTP_POOL_MAX_WAIT, 30) * 1000L;
+            this.validateAfterMillis = AppSettings.get().getInt(EMAIL_SMTP_POOL_VALIDATE_AFTER, 5) * 1000L;
+            this.idleTimeoutMillis = AppSettings.get().getInt(EMAIL_SMTP_POOL_IDLE_TIMEOUT, 60) * 1000L;
+            this.permits = new Semaphore(maxTotal, true);
+        }
+
+        private PooledTransport borrow() throws MessagingException {
+            long start = System.nanoTime();
+            try {
+                if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                    throw new MessagingException("Timeout waiting for smtp connection to " + key);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("Interrupted while waiting for smtp connection to " + key, e);
+            }
+            recordWait(System.nanoTime() - start);
+            try {
+                PooledTransport transport;
+                while ((transport = idle.pollFirst()) != null) {
+                    if (validate(transport)) {
+                        return transport;
+                    }
+                    broken.incrementAndGet();
+                    closeQuietly(transport);
+                }
+                return create();
+            } catch (MessagingException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private void release(PooledTransport transport, boolean isBroken) {
+            try {
+                if (isBroken) {
+                    broken.incrementAndGet();
+                    closeQuietly(transport);
+                } else if (closed) {
+                    closeQuietly(transport);
+                } else {
+                    transport.lastUsed = System.currentTimeMillis();
+                    idle.offerFirst(transport);
+                }
+            } finally {
+                permits.release();
+            }
+        }
+
+        private boolean validate(PooledTransport transport) {
+            if (System.currentTimeMillis() - transport.lastUsed < validateAfterMillis) {
+                return true;
+            }
+            // SMTPTransport.isConnected() issues a NOOP to the server
+            return transport.getTransport().isConnected();
+        }
+
+        private PooledTransport create() throws MessagingException {
+            Transport transport = session.getTransport("smtp");
+            transport.connect();
+            created.incrementAndGet();
+            logger.debug("New smtp connection to {}", key);
+            return new PooledTransport(this, transport);
+        }
+
+        private void evictIdle() {
+            long now = System.currentTimeMillis();
+            for (PooledTransport transport : idle) {
+                if (now - transport.lastUsed > idleTimeoutMillis && idle.remove(transport)) {
+                    evicted.incrementAndGet();
+                    closeQuietly(transport);
+                }
+            }
+        }
+
+        private void recordWait(long nanos) {
+            borrowed.incrementAndGet();
+            borrowWaitNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = maxBorrowWaitNanos.get()) && !maxBorrowWaitNanos.compareAndSet(max, nanos)) {
+                // retry
+            }
+        }
+
+        private SmtpPoolStats stats() {
+            long count = borrowed.get();
+            int idleCount = idle.size();
+            return new SmtpPoolStats(
+                    key.toString(),
+                    maxTotal - permits.availablePermits(),
+                    idleCount,
+                    created.get(),
+                    broken.get(),
+                    evicted.get(),
+                    count,
+                    count == 0 ? 0 : borrowWaitNanos.get() / 1_000_000d / count,
+                    maxBorrowWaitNanos.get() / 1_000_000d);
+        }
+
+        private void close() {
+            closed = true;
+            PooledTransport transport;
+            while ((transport = idle.pollFirst()) != null) {
+                closeQuietly(transport);
+            }
+        }
+
+        private void closeQuietly(PooledTransport transport) {
+            try {
+                transport.getTransport().close();
+            } catch (Exception e) {
+                logger.debug("Exception while close smtp connection", e);
+            }
+        }
+    }
+
+    private Properties initProperties() {
+        Properties properties = new Properties();
+        properties.put("mail.smtp.host", AppSettings.get().get("smtp.host"));
+        properties.put("mail.smtp.port", AppSettings.get().get("smtp.port"));
+        properties.put("mail.smtp.auth", true);
+        properties.put("mail.user", AppSettings.get().get("smtp.user"));
+        properties.put("mail.password", AppSettings.get().get("smtp.pwd"));
+        properties.put("mail.smtp.ssl.trust", "*");
+        properties.put("mail.smtp.connectiontimeout", AppSettings.get().get(EMAIL_SMTP_CONNECT_TIMEOUT, "10000"));
+        properties.put("mail.smtp.timeout", AppSettings.get().get(EMAIL_SMTP_READ_TIMEOUT, "30000"));
+        return properties;
+    }
+
+    private Authenticator initAuthenticator() {
+        return new Authenticator() {
+            @Override
+            public PasswordAuthentication getPasswordAuthentication() {
+                return new PasswordAuthentication(AppSettings.get().get("smtp.user"), AppSettings.get().get("smtp.pwd"));
+            }
+        };
+    }
+}
@@ -0,0 +1,77 @@
+package com.kline.communication.model;
+
+/**
+ * A delivery status reported by the sms gateway or the bounce processing, for the message it
+ * accepted under {@code providerMessageId}. {@code recipient} tells the numbers or addresses of a
+ * multi-recipient message apart, it may be left out otherwise.
+ */
+public class DeliveryReceipt {
+    private String providerMessageId;
+    private String recipient;
+    private String status;
+    private String description;
+
+    public DeliveryReceipt() {
+    }
+
+    public DeliveryReceipt(String providerMessageId, String recipient, String status, String description) {
+        this.providerMessageId = providerMessageId;
+        this.recipient = recipient;
+        this.status = status;
+        this.description = description;
+    }
+
+    /** A Message-ID header without its angle brackets, as stored and as matched. */
+    public static String normalizeMessageId(String messageId) {
+        if (messageId == null) {
+            return null;
+        }
+        String id = messageId.trim();
+        if (id.startsWith("<") && id.endsWith(">")) {
+            id = id.substring(1, id.length() - 1);
+        }
+        return id.isEmpty() ? null : id;
+    }
+
+    public String getProviderMessageId() {
+        return providerMessageId;
+    }
+
+    public void setProviderMessageId(String providerMessageId) {
+        this.providerMessageId = providerMessageId;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public void setRecipient(String recipient) {
+        this.recipient = recipient;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryReceipt{" +
+                "providerMessageId='" + providerMessageId + '\'' +
+                ", recipient='" + recipient + '\'' +
+                ", status='" + status + '\'' +
+                ", description='" + description + '\'' +
+                '}';
+    }
+}
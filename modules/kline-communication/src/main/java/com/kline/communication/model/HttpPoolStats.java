@@ -0,0 +1,44 @@
+package com.kline.communication.model;
+
+public class HttpPoolStats {
+    private int leased;
+    private int available;
+    private int pending;
+    private int max;
+
+    public HttpPoolStats() {
+    }
+
+    public HttpPoolStats(int leased, int available, int pending, int max) {
+        this.leased = leased;
+        this.available = available;
+        this.pending = pending;
+        this.max = max;
+    }
+
+    public int getLeased() {
+        return leased;
+    }
+
+    public int getAvailable() {
+        return available;
+    }
+
+    public int getPending() {
+        return pending;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpPoolStats{" +
+                "leased=" + leased +
+                ", available=" + available +
+                ", pending=" + pending +
+                ", max=" + max +
+                '}';
+    }
+}
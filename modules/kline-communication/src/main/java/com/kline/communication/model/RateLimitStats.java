@@ -0,0 +1,58 @@
+package com.kline.communication.model;
+
+public class RateLimitStats {
+    private String name;
+    private int ratePerSecond;
+    private int burst;
+    private long granted;
+    private long delayed;
+    private long rejected;
+
+    public RateLimitStats() {
+    }
+
+    public RateLimitStats(String name, int ratePerSecond, int burst, long granted, long delayed, long rejected) {
+        this.name = name;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.granted = granted;
+        this.delayed = delayed;
+        this.rejected = rejected;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public long getGranted() {
+        return granted;
+    }
+
+    public long getDelayed() {
+        return delayed;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitStats{" +
+                "name='" + name + '\'' +
+                ", ratePerSecond=" + ratePerSecond +
+                ", burst=" + burst +
+                ", granted=" + granted +
+                ", delayed=" + delayed +
+                ", rejected=" + rejected +
+                '}';
+    }
+}
@@ -0,0 +1,90 @@
+package com.kline.communication.model;
+
+import java.util.Map;
+
+public class SmsGatewayStats {
+    private String breakerState;
+    private int active;
+    private int maxConcurrent;
+    private long calls;
+    private long failures;
+    private long rejectedByBulkhead;
+    private long rejectedByBreaker;
+    private double avgLatencyMs;
+    private long maxLatencyMs;
+    private Map<String, Long> latencyHistogram;
+
+    public SmsGatewayStats() {
+    }
+
+    public SmsGatewayStats(String breakerState, int active, int maxConcurrent, long calls, long failures,
+                           long rejectedByBulkhead, long rejectedByBreaker, double avgLatencyMs, long maxLatencyMs,
+                           Map<String, Long> latencyHistogram) {
+        this.breakerState = breakerState;
+        this.active = active;
+        this.maxConcurrent = maxConcurrent;
+        this.calls = calls;
+        this.failures = failures;
+        this.rejectedByBulkhead = rejectedByBulkhead;
+        this.rejectedByBreaker = rejectedByBreaker;
+        this.avgLatencyMs = avgLatencyMs;
+        this.maxLatencyMs = maxLatencyMs;
+        this.latencyHistogram = latencyHistogram;
+    }
+
+    public String getBreakerState() {
+        return breakerState;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getRejectedByBulkhead() {
+        return rejectedByBulkhead;
+    }
+
+    public long getRejectedByBreaker() {
+        return rejectedByBreaker;
+    }
+
+    public double getAvgLatencyMs() {
+        return avgLatencyMs;
+    }
+
+    public long getMaxLatencyMs() {
+        return maxLatencyMs;
+    }
+
+    public Map<String, Long> getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    @Override
+    public String toString() {
+        return "SmsGatewayStats{" +
+                "breakerState='" + breakerState + '\'' +
+                ", active=" + active +
+                ", maxConcurrent=" + maxConcurrent +
+                ", calls=" + calls +
+                ", failures=" + failures +
+                ", rejectedByBulkhead=" + rejectedByBulkhead +
+                ", rejectedByBreaker=" + rejectedByBreaker +
+                ", avgLatencyMs=" + avgLatencyMs +
+                ", maxLatencyMs=" + maxLatencyMs +
+                ", latencyHistogram=" + latencyHistogram +
+                '}';
+    }
+}
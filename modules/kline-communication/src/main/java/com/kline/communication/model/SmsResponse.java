@@ -3,6 +3,7 @@ package com.kline.communication.model;
 public class SmsResponse {
     private String resultCode;
     private String resultDesc;
+    private String messageId;
 
     public String getResultCode() {
         return resultCode;
@@ -20,11 +21,20 @@ public class SmsResponse {
         this.resultDesc = resultDesc;
     }
 
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
     @Override
     public String toString() {
         return "SmsResponse{" +
                 "resultCode='" + resultCode + '\'' +
                 ", resultDesc='" + resultDesc + '\'' +
+                ", messageId='" + messageId + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,80 @@
+package com.kline.communication.model;
+
+public class SmtpPoolStats {
+    private String key;
+    private int active;
+    private int idle;
+    private long created;
+    private long broken;
+    private long evicted;
+    private long borrowed;
+    private double avgBorrowWaitMs;
+    private double maxBorrowWaitMs;
+
+    public SmtpPoolStats() {
+    }
+
+    public SmtpPoolStats(String key, int active, int idle, long created, long broken, long evicted,
+                         long borrowed, double avgBorrowWaitMs, double maxBorrowWaitMs) {
+        this.key = key;
+        this.active = active;
+        this.idle = idle;
+        this.created = created;
+        this.broken = broken;
+        this.evicted = evicted;
+        this.borrowed = borrowed;
+        this.avgBorrowWaitMs = avgBorrowWaitMs;
+        this.maxBorrowWaitMs = maxBorrowWaitMs;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getBroken() {
+        return broken;
+    }
+
+    public long getEvicted() {
+        return evicted;
+    }
+
+    public long getBorrowed() {
+        return borrowed;
+    }
+
+    public double getAvgBorrowWaitMs() {
+        return avgBorrowWaitMs;
+    }
+
+    public double getMaxBorrowWaitMs() {
+        return maxBorrowWaitMs;
+    }
+
+    @Override
+    public String toString() {
+        return "SmtpPoolStats{" +
+                "key='" + key + '\'' +
+                ", active=" + active +
+                ", idle=" + idle +
+                ", created=" + created +
+                ", broken=" + broken +
+                ", evicted=" + evicted +
+                ", borrowed=" + borrowed +
+                ", avgBorrowWaitMs=" + avgBorrowWaitMs +
+                ", maxBorrowWaitMs=" + maxBorrowWaitMs +
+                '}';
+    }
+}
@@ -0,0 +1,62 @@
+package com.kline.communication.model;
+
+import java.time.LocalDate;
+
+public class TransactionExportFilter {
+    private LocalDate fromDate;
+    private LocalDate toDate;
+    private String type;
+    private String status;
+    private String owner;
+
+    public LocalDate getFromDate() {
+        return fromDate;
+    }
+
+    public void setFromDate(LocalDate fromDate) {
+        this.fromDate = fromDate;
+    }
+
+    public LocalDate getToDate() {
+        return toDate;
+    }
+
+    public void setToDate(LocalDate toDate) {
+        this.toDate = toDate;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionExportFilter{" +
+                "fromDate=" + fromDate +
+                ", toDate=" + toDate +
+                ", type='" + type + '\'' +
+                ", status='" + status + '\'' +
+                ", owner='" + owner + '\'' +
+                '}';
+    }
+}
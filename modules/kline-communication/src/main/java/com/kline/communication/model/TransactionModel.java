@@ -8,6 +8,7 @@ public class TransactionModel {
     private KlineEmailTransaction emailTransaction;
     private KlineTransaction klineTransaction;
     private KlineSmsTransaction smsTransaction;
+    private String providerMessageId;
 
     public TransactionModel() {
     }
@@ -45,4 +46,13 @@ public class TransactionModel {
     public void setSmsTransaction(KlineSmsTransaction smsTransaction) {
         this.smsTransaction = smsTransaction;
     }
+
+    /** Set once the message was handed over, recorded with the next status change. */
+    public String getProviderMessageId() {
+        return providerMessageId;
+    }
+
+    public void setProviderMessageId(String providerMessageId) {
+        this.providerMessageId = providerMessageId;
+    }
 }
@@ -0,0 +1,85 @@
+package com.kline.communication.module;
+
+import com.axelor.event.Observes;
+import com.axelor.events.ShutdownEvent;
+import com.axelor.events.StartupEvent;
+import com.google.inject.Inject;
+import com.kline.communication.gateway.SmsHttpClient;
+import com.kline.communication.jdbc.TranDateTimeBackfill;
+import com.kline.communication.jdbc.TransactionArchiver;
+import com.kline.communication.jdbc.TransactionJournal;
+import com.kline.communication.mail.SmtpTransportPool;
+import com.kline.communication.service.AttachmentStoreService;
+import com.kline.communication.service.DeliveryReceiptService;
+import com.kline.communication.service.EmailCampaignService;
+import com.kline.communication.service.EmailQueueService;
+import com.kline.communication.service.RetryService;
+import com.kline.communication.service.SmsDispatchService;
+import com.kline.communication.service.TransactionExportService;
+
+public class CommunicationLifecycle {
+
+    @Inject
+    private EmailQueueService emailQueueService;
+
+    @Inject
+    private SmtpTransportPool smtpTransportPool;
+
+    @Inject
+    private TransactionJournal transactionJournal;
+
+    @Inject
+    private TranDateTimeBackfill tranDateTimeBackfill;
+
+    @Inject
+    private TransactionArchiver transactionArchiver;
+
+    @Inject
+    private AttachmentStoreService attachmentStoreService;
+
+    @Inject
+    private RetryService retryService;
+
+    @Inject
+    private SmsDispatchService smsDispatchService;
+
+    @Inject
+    private SmsHttpClient smsHttpClient;
+
+    @Inject
+    private DeliveryReceiptService deliveryReceiptService;
+
+    @Inject
+    private EmailCampaignService emailCampaignService;
+
+    @Inject
+    private TransactionExportService transactionExportService;
+
+    public void onStartup(@Observes StartupEvent event) {
+        transactionJournal.recover();
+        tranDateTimeBackfill.start();
+        transactionArchiver.start();
+        emailQueueService.start();
+        attachmentStoreService.start();
+        retryService.start();
+        smsDispatchService.start();
+        deliveryReceiptService.start();
+        emailCampaignService.startResumer();
+        transactionExportService.start();
+    }
+
+    public void onShutdown(@Observes ShutdownEvent event) {
+        emailCampaignService.stopResumer();
+        transactionExportService.stop();
+        tranDateTimeBackfill.stop();
+        transactionArchiver.stop();
+        attachmentStoreService.stop();
+        emailQueueService.stop();
+        smsDispatchService.stop();
+        retryService.stop();
+        deliveryReceiptService.stop();
+        smtpTransportPool.close();
+        smsHttpClient.close();
+        transactionJournal.stop();
+    }
+}
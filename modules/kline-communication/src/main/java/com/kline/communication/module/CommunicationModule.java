@@ -1,15 +1,48 @@
 package com.kline.communication.module;
 
 import com.axelor.app.AxelorModule;
+import com.kline.communication.DeliveryReceiptResource;
+import com.kline.communication.service.AttachmentStoreService;
+import com.kline.communication.service.ContentBodyService;
+import com.kline.communication.service.DeliveryReceiptService;
+import com.kline.communication.service.EmailCampaignService;
+import com.kline.communication.service.EmailQueueService;
 import com.kline.communication.service.EmailService;
+import com.kline.communication.service.RetryService;
+import com.kline.communication.service.SmsBulkService;
+import com.kline.communication.service.SmsDispatchService;
 import com.kline.communication.service.SmsService;
+import com.kline.communication.service.SmsTemplateService;
+import com.kline.communication.service.TransactionExportService;
+import com.kline.communication.service.impl.AttachmentStoreServiceImpl;
+import com.kline.communication.service.impl.ContentBodyServiceImpl;
+import com.kline.communication.service.impl.DeliveryReceiptServiceImpl;
+import com.kline.communication.service.impl.EmailCampaignServiceImpl;
+import com.kline.communication.service.impl.EmailQueueServiceImpl;
 import com.kline.communication.service.impl.EmailServiceImpl;
+import com.kline.communication.service.impl.RetryServiceImpl;
+import com.kline.communication.service.impl.SmsBulkServiceImpl;
+import com.kline.communication.service.impl.SmsDispatchServiceImpl;
 import com.kline.communication.service.impl.SmsServiceImpl;
+import com.kline.communication.service.impl.SmsTemplateServiceImpl;
+import com.kline.communication.service.impl.TransactionExportServiceImpl;
 
 public class CommunicationModule extends AxelorModule {
     @Override
     protected void configure() {
         bind(EmailService.class).to(EmailServiceImpl.class);
         bind(SmsService.class).to(SmsServiceImpl.class);
+        bind(SmsBulkService.class).to(SmsBulkServiceImpl.class);
+        bind(SmsDispatchService.class).to(SmsDispatchServiceImpl.class);
+        bind(SmsTemplateService.class).to(SmsTemplateServiceImpl.class);
+        bind(EmailQueueService.class).to(EmailQueueServiceImpl.class);
+        bind(EmailCampaignService.class).to(EmailCampaignServiceImpl.class);
+        bind(AttachmentStoreService.class).to(AttachmentStoreServiceImpl.class);
+        bind(ContentBodyService.class).to(ContentBodyServiceImpl.class);
+        bind(DeliveryReceiptService.class).to(DeliveryReceiptServiceImpl.class);
+        bind(RetryService.class).to(RetryServiceImpl.class);
+        bind(TransactionExportService.class).to(TransactionExportServiceImpl.class);
+        bind(CommunicationLifecycle.class);
+        bind(DeliveryReceiptResource.class);
     }
 }
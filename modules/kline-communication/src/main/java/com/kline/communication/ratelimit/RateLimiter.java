@@ -0,0 +1,154 @@
+package com.kline.communication.ratelimit;
+
+import com.axelor.app.AppSettings;
+import com.google.inject.Singleton;
+import com.kline.communication.exception.KLineException;
+import com.kline.communication.model.RateLimitStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+import static com.kline.communication.constant.CommunicationConstant.ERROR.SEND_RATE_LIMIT_EXCEEDED;
+
+/**
+ * Send quotas shared by every path that talks to the sms gateway or the smtp relay.
+ *
+ * A send takes one token per recipient from the global bucket, from the bucket of its channel and
+ * from the bucket of its owner for that channel, so a gateway request for 100 numbers costs 100
+ * tokens; a rate of 0 disables a bucket. When a bucket is empty
+ * {@link #acquire} waits for the tokens up to {@code ratelimit.max-wait} milliseconds, beyond that
+ * nothing is taken and the send fails with {@code SEND_RATE_LIMIT_EXCEEDED}, a transient failure.
+ *
+ * A bulk sms job is held to its owner's bulk quota ({@code ratelimit.owner.bulk-sms.*}) instead of
+ * the owner's interactive one, so a large list is paced by the channel rather than by a quota meant
+ * for people sending one sms at a time.
+ */
+@Singleton
+public class RateLimiter {
+
+    private final long maxWaitMillis = AppSettings.get().getInt(RATELIMIT_MAX_WAIT, 2000);
+    private final TokenBucket global = bucket("global", RATELIMIT_GLOBAL_RATE, RATELIMIT_GLOBAL_BURST);
+    private final TokenBucket sms = bucket(TYPE_SMS, RATELIMIT_SMS_RATE, RATELIMIT_SMS_BURST);
+    private final TokenBucket email = bucket(TYPE_EMAIL, RATELIMIT_EMAIL_RATE, RATELIMIT_EMAIL_BURST);
+    private final ConcurrentMap<String, TokenBucket> owners = new ConcurrentHashMap<>();
+
+    public void acquire(String channel, String owner) throws KLineException {
+        acquire(channel, owner, 1);
+    }
+
+    public void acquire(String channel, String owner, int permits) throws KLineException {
+        long wait = reserve(channel, owner, permits, TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+        if (wait < 0) {
+            throw new KLineException(SEND_RATE_LIMIT_EXCEEDED);
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KLineException(SEND_RATE_LIMIT_EXCEEDED, e);
+        }
+    }
+
+    /** For background senders, waits for the tokens however long it takes. */
+    public void await(String channel, String owner) throws InterruptedException {
+        await(channel, owner, 1);
+    }
+
+    /**
+     * Same for a batch of recipients, which may need more tokens than a bucket holds and so could
+     * never be granted within {@code ratelimit.max-wait}.
+     */
+    public void await(String channel, String owner, int permits) throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(reserve(channel, owner, false, permits, Long.MAX_VALUE));
+    }
+
+    /** Same as {@link #await(String, String, int)} for a bulk sms job, against the owner's bulk quota. */
+    public void awaitBulkSms(String owner, int permits) throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(reserve(TYPE_SMS, owner, true, permits, Long.MAX_VALUE));
+    }
+
+    private long reserve(String channel, String owner, int permits, long maxWaitNanos) {
+        return reserve(channel, owner, false, permits, maxWaitNanos);
+    }
+
+    private long reserve(String channel, String owner, boolean bulk, int permits, long maxWaitNanos) {
+        List<TokenBucket> buckets = bucketsFor(channel, owner, bulk);
+        long wait = 0;
+        for (int i = 0; i < buckets.size(); i++) {
+            long reserved = buckets.get(i).reserve(permits, maxWaitNanos);
+            if (reserved < 0) {
+                for (int j = 0; j < i; j++) {
+                    buckets.get(j).refund(permits);
+                }
+                return -1;
+            }
+            wait = Math.max(wait, reserved);
+        }
+        return wait;
+    }
+
+    public List<RateLimitStats> getStats() {
+        List<RateLimitStats> stats = new ArrayList<>();
+        for (TokenBucket bucket : new TokenBucket[]{global, sms, email}) {
+            if (bucket != null) {
+                stats.add(toStats(bucket));
+            }
+        }
+        for (TokenBucket bucket : owners.values()) {
+            stats.add(toStats(bucket));
+        }
+        return stats;
+    }
+
+    private List<TokenBucket> bucketsFor(String channel, String owner, boolean bulk) {
+        List<TokenBucket> buckets = new ArrayList<>(3);
+        if (global != null) {
+            buckets.add(global);
+        }
+        TokenBucket channelBucket = TYPE_SMS.equals(channel) ? sms : email;
+        if (channelBucket != null) {
+            buckets.add(channelBucket);
+        }
+        TokenBucket ownerBucket = bulk ? bulkSmsOwnerBucket(owner) : ownerBucket(channel, owner);
+        if (ownerBucket != null) {
+            buckets.add(ownerBucket);
+        }
+        return buckets;
+    }
+
+    private TokenBucket ownerBucket(String channel, String owner) {
+        if (owner == null) {
+            return null;
+        }
+        boolean isSms = TYPE_SMS.equals(channel);
+        int rate = AppSettings.get().getInt(isSms ? RATELIMIT_OWNER_SMS_RATE : RATELIMIT_OWNER_EMAIL_RATE, 0);
+        if (rate <= 0) {
+            return null;
+        }
+        return owners.computeIfAbsent(channel + ":" + owner, name -> new TokenBucket(name, rate,
+                AppSettings.get().getInt(isSms ? RATELIMIT_OWNER_SMS_BURST : RATELIMIT_OWNER_EMAIL_BURST, rate)));
+    }
+
+    private TokenBucket bulkSmsOwnerBucket(String owner) {
+        int rate = AppSettings.get().getInt(RATELIMIT_OWNER_BULK_SMS_RATE, 0);
+        if (owner == null || rate <= 0) {
+            return null;
+        }
+        return owners.computeIfAbsent("bulk-" + TYPE_SMS + ":" + owner, name -> new TokenBucket(name, rate,
+                AppSettings.get().getInt(RATELIMIT_OWNER_BULK_SMS_BURST, rate)));
+    }
+
+    private static TokenBucket bucket(String name, String rateKey, String burstKey) {
+        int rate = AppSettings.get().getInt(rateKey, 0);
+        return rate <= 0 ? null : new TokenBucket(name, rate, AppSettings.get().getInt(burstKey, rate));
+    }
+
+    private static RateLimitStats toStats(TokenBucket bucket) {
+        return new RateLimitStats(bucket.getName(), bucket.getRatePerSecond(), bucket.getBurst(),
+                bucket.getGranted(), bucket.getDelayed(), bucket.getRejected());
+    }
+}
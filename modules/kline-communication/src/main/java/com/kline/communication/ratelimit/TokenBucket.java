@@ -0,0 +1,92 @@
+package com.kline.communication.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket refilled at {@code ratePerSecond} and holding up to {@code burst} tokens.
+ *
+ * The state is the single time at which the bucket will be full again (generic cell rate
+ * algorithm): taking n tokens pushes it n intervals forward and is allowed as long as it does not
+ * go more than {@code burst} intervals past now, so a reservation is one compare-and-set.
+ */
+public final class TokenBucket {
+
+    private final String name;
+    private final int ratePerSecond;
+    private final int burst;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public TokenBucket(String name, int ratePerSecond, int burst) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("rate must be positive: " + ratePerSecond);
+        }
+        this.name = name;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = Math.max(burst, 1);
+        this.intervalNanos = Math.max(TimeUnit.SECONDS.toNanos(1) / ratePerSecond, 1);
+        this.burstNanos = this.burst * intervalNanos;
+    }
+
+    /**
+     * Takes {@code permits} tokens, possibly ahead of time.
+     *
+     * @return how long to wait before using them, or {@code -1} if that would be longer than
+     *     {@code maxWaitNanos}; nothing is taken in that case
+     */
+    public long reserve(int permits, long maxWaitNanos) {
+        long cost = permits * intervalNanos;
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + cost;
+            long wait = Math.max(next - burstNanos - now, 0);
+            if (wait > maxWaitNanos) {
+                rejected.incrementAndGet();
+                return -1;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                granted.addAndGet(permits);
+                if (wait > 0) {
+                    delayed.incrementAndGet();
+                }
+                return wait;
+            }
+        }
+    }
+
+    /** Gives back tokens reserved by {@link #reserve} that will not be used. */
+    public void refund(int permits) {
+        fullAt.addAndGet(-permits * intervalNanos);
+        granted.addAndGet(-permits);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public long getGranted() {
+        return granted.get();
+    }
+
+    public long getDelayed() {
+        return delayed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,51 @@
+package com.kline.communication.retry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Items waiting for a point in time, grouped in buckets of {@code bucketMillis}.
+ *
+ * Polling only looks at the buckets that are already due, so the cost does not depend on how many
+ * items wait further in the future. Items of a bucket come out in insertion order, at most one
+ * bucket width late.
+ */
+public class DueQueue<T> {
+
+    private final long bucketMillis;
+    private final TreeMap<Long, ArrayDeque<T>> buckets = new TreeMap<>();
+    private int size;
+
+    public DueQueue(long bucketMillis) {
+        this.bucketMillis = Math.max(bucketMillis, 1);
+    }
+
+    public synchronized void add(T item, long dueAtMillis) {
+        buckets.computeIfAbsent(dueAtMillis / bucketMillis, k -> new ArrayDeque<>()).add(item);
+        size++;
+    }
+
+    public synchronized List<T> pollDue(long nowMillis, int max) {
+        List<T> due = new ArrayList<>();
+        long current = nowMillis / bucketMillis;
+        Map.Entry<Long, ArrayDeque<T>> first;
+        while (due.size() < max && (first = buckets.firstEntry()) != null && first.getKey() <= current) {
+            ArrayDeque<T> bucket = first.getValue();
+            while (due.size() < max && !bucket.isEmpty()) {
+                due.add(bucket.poll());
+            }
+            if (bucket.isEmpty()) {
+                buckets.remove(first.getKey());
+            }
+        }
+        size -= due.size();
+        return due;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
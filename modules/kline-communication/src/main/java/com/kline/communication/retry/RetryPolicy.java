@@ -0,0 +1,108 @@
+package com.kline.communication.retry;
+
+import com.axelor.app.AppSettings;
+import com.kline.communication.exception.KLineException;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.AddressException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+
+/**
+ * Decides whether a failed send is worth another attempt and when.
+ *
+ * Connection, timeout, smtp 4xx, sms gateway busy/unavailable and rate limited failures are
+ * transient; a 5xx reply, an invalid address or a missing attachment will fail the same way again.
+ * The delay doubles per attempt from
+ * {@code retry.base-delay} up to {@code retry.max-delay} and is randomized over its upper half so
+ * that everything that failed during an outage does not come back at the same second.
+ */
+public final class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public static RetryPolicy fromSettings() {
+        return new RetryPolicy(
+                AppSettings.get().getInt(RETRY_MAX_ATTEMPTS, 5),
+                AppSettings.get().getInt(RETRY_BASE_DELAY, 30) * 1000L,
+                AppSettings.get().getInt(RETRY_MAX_DELAY, 3600) * 1000L);
+    }
+
+    /** {@code attempts} is the number of attempts already made, the first send included. */
+    public boolean canRetry(int attempts) {
+        return attempts < maxAttempts;
+    }
+
+    public long nextDelayMillis(int attempts) {
+        int shift = Math.min(Math.max(attempts - 1, 0), 30);
+        long delay = Math.min(maxDelayMillis, baseDelayMillis << shift);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    public static boolean isTransient(Throwable error) {
+        boolean ioFailure = false;
+        boolean rejected = false;
+        for (Throwable t = error; t != null; t = next(t)) {
+            int code = replyCode(t);
+            if (code >= 400 && code < 500) {
+                // one deferred recipient is enough, the rejected ones fail again quickly
+                return true;
+            }
+            if (code >= 500) {
+                rejected = true;
+            }
+            if (t instanceof KLineException && isTemporarilyRejected(((KLineException) t).getError())) {
+                return true;
+            }
+            if (t instanceof AddressException || t instanceof NoSuchFileException || t instanceof FileNotFoundException) {
+                return false;
+            }
+            if (t instanceof MessagingException || t instanceof IOException) {
+                ioFailure = true;
+            }
+        }
+        return ioFailure && !rejected && !isAttachmentTooLarge(error);
+    }
+
+    private static int replyCode(Throwable t) {
+        if (t instanceof SMTPSendFailedException) {
+            return ((SMTPSendFailedException) t).getReturnCode();
+        }
+        if (t instanceof SMTPAddressFailedException) {
+            return ((SMTPAddressFailedException) t).getReturnCode();
+        }
+        return 0;
+    }
+
+    private static boolean isTemporarilyRejected(ERROR error) {
+        return error == ERROR.SMS_GATEWAY_IS_BUSY || error == ERROR.SMS_GATEWAY_IS_UNAVAILABLE
+                || error == ERROR.SEND_RATE_LIMIT_EXCEEDED;
+    }
+
+    private static boolean isAttachmentTooLarge(Throwable error) {
+        return error instanceof MessagingException
+                && ERROR.EMAIL_ATTACHMENT_IS_TOO_LARGE.getMessage().equals(error.getMessage());
+    }
+
+    private static Throwable next(Throwable t) {
+        if (t instanceof MessagingException && ((MessagingException) t).getNextException() != null) {
+            return ((MessagingException) t).getNextException();
+        }
+        return t.getCause() == t ? null : t.getCause();
+    }
+}
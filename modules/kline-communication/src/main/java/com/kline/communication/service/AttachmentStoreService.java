@@ -0,0 +1,18 @@
+package com.kline.communication.service;
+
+import com.axelor.meta.db.MetaFile;
+import com.kline.communication.db.KlineAttachmentBlob;
+
+import java.io.IOException;
+
+public interface AttachmentStoreService {
+    void start();
+
+    void stop();
+
+    KlineAttachmentBlob store(MetaFile metaFile) throws IOException;
+
+    void release(KlineAttachmentBlob blob);
+
+    int reclaim();
+}
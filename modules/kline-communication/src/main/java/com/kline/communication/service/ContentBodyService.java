@@ -0,0 +1,9 @@
+package com.kline.communication.service;
+
+import com.kline.communication.db.KlineContentBody;
+
+public interface ContentBodyService {
+    KlineContentBody store(String content);
+
+    String load(KlineContentBody body);
+}
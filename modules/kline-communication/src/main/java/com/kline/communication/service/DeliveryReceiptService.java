@@ -0,0 +1,17 @@
+package com.kline.communication.service;
+
+import com.kline.communication.model.DeliveryReceipt;
+
+import java.util.List;
+
+public interface DeliveryReceiptService {
+    void start();
+
+    void stop();
+
+    /**
+     * Queues the receipts of one channel ({@code TYPE_SMS} or {@code TYPE_EMAIL}), false when the
+     * queue is full and the caller should send them again later.
+     */
+    boolean submit(String type, List<DeliveryReceipt> receipts);
+}
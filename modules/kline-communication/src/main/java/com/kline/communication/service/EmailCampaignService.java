@@ -0,0 +1,16 @@
+package com.kline.communication.service;
+
+import com.kline.communication.db.KlineEmailCampaign;
+import com.kline.communication.exception.KLineException;
+
+public interface EmailCampaignService {
+    void validateCampaign(KlineEmailCampaign campaign) throws KLineException;
+
+    void start(KlineEmailCampaign campaign) throws KLineException;
+
+    void startResumer();
+
+    void stopResumer();
+
+    int resumeStale();
+}
@@ -0,0 +1,11 @@
+package com.kline.communication.service;
+
+public interface EmailQueueService {
+    void start();
+
+    void stop();
+
+    void enqueue(Long emailTranId);
+
+    void recoverPending();
+}
@@ -0,0 +1,17 @@
+package com.kline.communication.service;
+
+import com.kline.communication.model.TransactionModel;
+
+public interface RetryService {
+    void start();
+
+    void stop();
+
+    void onFailure(TransactionModel transactionModel, Throwable error);
+
+    /**
+     * Leases a pending or due transaction for {@code retry.pending-timeout} seconds before it is sent,
+     * false when another node holds it. Writing the outcome through the journal ends the lease.
+     */
+    boolean claim(Long id);
+}
@@ -0,0 +1,12 @@
+package com.kline.communication.service;
+
+import com.kline.communication.db.KlineSmsTemplate;
+import com.kline.communication.exception.KLineException;
+
+import java.nio.file.Path;
+
+public interface SmsBulkService {
+    void validateBulkRequest(String content, Path recipientFile, String recipients) throws KLineException;
+
+    void start(String content, KlineSmsTemplate smsTemplate, Path recipientFile, String recipients) throws KLineException;
+}
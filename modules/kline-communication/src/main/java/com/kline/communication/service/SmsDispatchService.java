@@ -0,0 +1,15 @@
+package com.kline.communication.service;
+
+import com.kline.communication.model.SmsRequest;
+import com.kline.communication.model.SmsResponse;
+import com.kline.communication.model.TransactionModel;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface SmsDispatchService {
+    void start();
+
+    void stop();
+
+    CompletableFuture<SmsResponse> dispatch(SmsRequest req, TransactionModel transactionModel);
+}
@@ -3,15 +3,24 @@ package com.kline.communication.service;
 import com.axelor.rpc.ActionRequest;
 import com.axelor.rpc.ActionResponse;
 import com.kline.communication.exception.KLineException;
+import com.kline.communication.model.HttpPoolStats;
+import com.kline.communication.model.SmsGatewayStats;
 import com.kline.communication.model.SmsRequest;
 import com.kline.communication.model.SmsResponse;
 import com.kline.communication.model.TransactionModel;
 
 public interface SmsService {
     SmsRequest validateRequest(ActionRequest request) throws KLineException;
-    SmsResponse sendSms(SmsRequest req) throws KLineException;
+    SmsResponse sendSms(SmsRequest req, String owner) throws KLineException;
+    /**
+     * Waits for the rate limit tokens of every number instead of failing after {@code ratelimit.max-wait},
+     * the owner's bulk sms quota applies instead of the interactive one.
+     */
+    SmsResponse sendBulkSms(SmsRequest req, String owner) throws KLineException, InterruptedException;
     TransactionModel initTransaction(SmsRequest req);
     void updateTransaction(TransactionModel transactionModel, String status, String statusDesc);
     void validateResult(SmsResponse smsResponse, TransactionModel transactionModel) throws KLineException;
     void generateEmailValue(ActionRequest request, ActionResponse response);
+    SmsGatewayStats getGatewayStats();
+    HttpPoolStats getHttpPoolStats();
 }
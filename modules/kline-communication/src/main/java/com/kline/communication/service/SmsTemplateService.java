@@ -0,0 +1,10 @@
+package com.kline.communication.service;
+
+import com.kline.communication.db.KlineSmsTemplate;
+import com.kline.communication.utils.PlaceholderTemplate;
+
+public interface SmsTemplateService {
+    PlaceholderTemplate getTemplate(KlineSmsTemplate smsTemplate);
+
+    PlaceholderTemplate resolve(KlineSmsTemplate smsTemplate, String content);
+}
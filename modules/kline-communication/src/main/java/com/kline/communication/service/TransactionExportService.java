@@ -0,0 +1,17 @@
+package com.kline.communication.service;
+
+import com.axelor.meta.db.MetaFile;
+import com.kline.communication.exception.KLineException;
+import com.kline.communication.model.TransactionExportFilter;
+
+public interface TransactionExportService {
+    void start();
+
+    void stop();
+
+    String submit(TransactionExportFilter filter) throws KLineException;
+
+    MetaFile findFile(String jobId) throws KLineException;
+
+    int removeExpired();
+}
@@ -0,0 +1,239 @@
+package com.kline.communication.service.impl;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.axelor.inject.Beans;
+import com.axelor.meta.MetaFiles;
+import com.axelor.meta.db.MetaFile;
+import com.axelor.meta.db.repo.MetaFileRepository;
+import com.google.common.hash.Hashing;
+import com.google.inject.Singleton;
+import com.kline.communication.db.KlineAttachmentBlob;
+import com.kline.communication.service.AttachmentStoreService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.kline.communication.constant.CommunicationConstant.EMAIL_ATTACHMENT_RECLAIM_BATCH;
+import static com.kline.communication.constant.CommunicationConstant.EMAIL_ATTACHMENT_RECLAIM_INTERVAL;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Content addressed store for email attachments.
+ *
+ * Uploaded files are keyed by their sha256, the first upload of a content becomes the stored
+ * {@link KlineAttachmentBlob} and later identical uploads only add a reference; they are deleted
+ * unless another record points to them. Two first uploads of the same content race on the unique
+ * sha256, the loser reuses the winner's blob. Blobs without references are removed in batches by
+ * the reclaimer.
+ */
+@Singleton
+public class AttachmentStoreServiceImpl implements AttachmentStoreService {
+
+    private static final String FIND_BY_SHA256 =
+            "SELECT self FROM KlineAttachmentBlob self WHERE self.sha256 = :sha256";
+    private static final String FIND_UNREFERENCED =
+            "SELECT self FROM KlineAttachmentBlob self WHERE self.refCount <= 0"
+                    + " AND NOT EXISTS (SELECT a.id FROM KlineEmailAttachment a WHERE a.blob = self)"
+                    + " ORDER BY self.id";
+    private static final String REFERENCE =
+            "UPDATE KlineAttachmentBlob self SET self.refCount = self.refCount + 1, self.version = self.version + 1"
+                    + " WHERE self.sha256 = :sha256";
+    private static final String[] META_FILE_REFERENCES = {
+            "SELECT COUNT(self.id) FROM KlineAttachmentBlob self WHERE self.metaFile.id = :id",
+            "SELECT COUNT(self.id) FROM KlineEmailAttachment self WHERE self.metaFile.id = :id OR self.metaFileId = :id",
+            "SELECT COUNT(self.id) FROM KlineEmailAttachmentTransaction self WHERE self.metaFile.id = :id",
+            "SELECT COUNT(self.id) FROM KlineEmailCampaign self WHERE self.recipientFile.id = :id",
+            "SELECT COUNT(self.id) FROM Communication self WHERE self.smsRecipientFile.id = :id",
+            "SELECT COUNT(self.id) FROM DMSFile self WHERE self.metaFile.id = :id"
+    };
+    private static final String RELEASE =
+            "UPDATE KlineAttachmentBlob self SET self.refCount = self.refCount - 1, self.version = self.version + 1"
+                    + " WHERE self.id = :id AND self.refCount > 0";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private ScheduledExecutorService reclaimer;
+
+    @Override
+    public synchronized void start() {
+        if (reclaimer != null) {
+            return;
+        }
+        int interval = AppSettings.get().getInt(EMAIL_ATTACHMENT_RECLAIM_INTERVAL, 300);
+        reclaimer = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("kline-attachment-reclaimer"));
+        reclaimer.scheduleWithFixedDelay(this::reclaimQuietly, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (reclaimer == null) {
+            return;
+        }
+        reclaimer.shutdownNow();
+        reclaimer = null;
+    }
+
+    /**
+     * Returns the blob holding the content of the uploaded file with one more reference. When the
+     * content is already stored, the uploaded copy is removed if nothing else points to it.
+     */
+    @Override
+    public KlineAttachmentBlob store(MetaFile metaFile) throws IOException {
+        Path path = MetaFiles.getPath(metaFile);
+        String sha256 = com.google.common.io.Files.asByteSource(path.toFile()).hash(Hashing.sha256()).toString();
+        long fileSize = Files.size(path);
+
+        KlineAttachmentBlob blob = reference(sha256);
+        if (blob == null) {
+            try {
+                blob = insert(metaFile, sha256, fileSize);
+            } catch (PersistenceException e) {
+                // stored by a concurrent upload of the same content in the meantime
+                JPA.clear();
+                logger.debug("Attachment {} was stored concurrently, reusing it", sha256);
+                blob = reference(sha256);
+                if (blob == null) {
+                    throw e;
+                }
+            }
+        }
+        if (!Objects.equals(blob.getMetaFile().getId(), metaFile.getId())) {
+            removeUnreferenced(metaFile);
+        }
+        logger.debug("Attachment {} stored as {} with {} reference(s)", metaFile.getId(), sha256, blob.getRefCount());
+        return blob;
+    }
+
+    /** Adds a reference to the blob of this content, null when it is not stored yet. */
+    private KlineAttachmentBlob reference(String sha256) {
+        List<KlineAttachmentBlob> result = new ArrayList<>(1);
+        JPA.runInTransaction(() -> {
+            if (JPA.em().createQuery(REFERENCE).setParameter("sha256", sha256).executeUpdate() == 0) {
+                return;
+            }
+            result.addAll(JPA.em().createQuery(FIND_BY_SHA256, KlineAttachmentBlob.class)
+                    .setParameter("sha256", sha256)
+                    .getResultList());
+        });
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    private KlineAttachmentBlob insert(MetaFile metaFile, String sha256, long fileSize) {
+        List<KlineAttachmentBlob> result = new ArrayList<>(1);
+        JPA.runInTransaction(() -> {
+            KlineAttachmentBlob blob = new KlineAttachmentBlob();
+            blob.setSha256(sha256);
+            blob.setMetaFile(Beans.get(MetaFileRepository.class).find(metaFile.getId()));
+            blob.setFileSize(fileSize);
+            blob.setRefCount(1);
+            JPA.em().persist(blob);
+            // the unique sha256 is checked here rather than at commit
+            JPA.em().flush();
+            result.add(blob);
+        });
+        return result.get(0);
+    }
+
+    @Override
+    public void release(KlineAttachmentBlob blob) {
+        if (blob == null || blob.getId() == null) {
+            return;
+        }
+        JPA.runInTransaction(() -> JPA.em().createQuery(RELEASE).setParameter("id", blob.getId()).executeUpdate());
+    }
+
+    /** Removes unreferenced blobs, one batch per transaction. Returns the number removed. */
+    @Override
+    public int reclaim() {
+        int batchSize = AppSettings.get().getInt(EMAIL_ATTACHMENT_RECLAIM_BATCH, 500);
+        int total = 0;
+        int[] removed = new int[1];
+        do {
+            List<Path> paths = new ArrayList<>();
+            JPA.runInTransaction(() -> {
+                List<KlineAttachmentBlob> blobs = JPA.em().createQuery(FIND_UNREFERENCED, KlineAttachmentBlob.class)
+                        .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                        .setMaxResults(batchSize)
+                        .getResultList();
+                removed[0] = blobs.size();
+                MetaFileRepository metaFileRepository = Beans.get(MetaFileRepository.class);
+                for (KlineAttachmentBlob blob : blobs) {
+                    MetaFile metaFile = blob.getMetaFile();
+                    JPA.em().remove(blob);
+                    if (metaFile != null) {
+                        paths.add(MetaFiles.getPath(metaFile));
+                        metaFileRepository.remove(metaFile);
+                    }
+                }
+            });
+            // files are only deleted once their rows are gone
+            for (Path path : paths) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.error("Exception occurred while remove file {}", path, e);
+                }
+            }
+            total += removed[0];
+            JPA.clear();
+        } while (removed[0] >= batchSize);
+        if (total > 0) {
+            logger.info("Reclaimed {} unreferenced attachment(s)", total);
+        }
+        return total;
+    }
+
+    private void reclaimQuietly() {
+        try {
+            reclaim();
+        } catch (Exception e) {
+            logger.error("Exception occurred while reclaim attachments", e);
+        }
+    }
+
+    /** Removes a duplicate upload, unless some record still points to the file. */
+    private void removeUnreferenced(MetaFile metaFile) {
+        Path path = MetaFiles.getPath(metaFile);
+        boolean[] removed = new boolean[1];
+        try {
+            JPA.runInTransaction(() -> {
+                if (isReferenced(metaFile.getId())) {
+                    return;
+                }
+                MetaFileRepository metaFileRepository = Beans.get(MetaFileRepository.class);
+                MetaFile found = metaFileRepository.find(metaFile.getId());
+                if (found != null) {
+                    metaFileRepository.remove(found);
+                    removed[0] = true;
+                }
+            });
+            // the file is only deleted once its row is gone
+            if (removed[0]) {
+                Files.deleteIfExists(path);
+            }
+        } catch (Exception e) {
+            logger.error("Exception occurred while remove file {}", path, e);
+        }
+    }
+
+    private boolean isReferenced(Long metaFileId) {
+        for (String query : META_FILE_REFERENCES) {
+            if (JPA.em().createQuery(query, Long.class).setParameter("id", metaFileId).getSingleResult() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,162 @@
+package com.kline.communication.service.impl;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.google.common.hash.Hashing;
+import com.google.inject.Singleton;
+import com.kline.communication.db.KlineContentBody;
+import com.kline.communication.service.ContentBodyService;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.kline.communication.constant.CommunicationConstant.EMAIL_BODY_CACHE_SIZE;
+
+/**
+ * Content addressed store for email bodies.
+ *
+ * A body is keyed by the sha256 of its text and deflated once (fastest level, html shrinks well
+ * enough with it), every transaction sending the same body points to the same
+ * {@link KlineContentBody}. Bodies are read lazily by id and the last {@code email.body.cache-size}
+ * inflated ones are kept in memory.
+ */
+@Singleton
+public class ContentBodyServiceImpl implements ContentBodyService {
+
+    private static final String CODEC_DEFLATE = "deflate";
+
+    private static final String INSERT =
+            "INSERT INTO communication_kline_content_body (id, version, sha256, codec, raw_size, data)"
+                    + " VALUES (nextval('communication_kline_content_body_seq'), 0, ?, ?, ?, ?)"
+                    + " ON CONFLICT (sha256) DO NOTHING";
+    private static final String FIND_ID =
+            "SELECT id FROM communication_kline_content_body WHERE sha256 = ?";
+    private static final String LOAD =
+            "SELECT codec, raw_size, data FROM communication_kline_content_body WHERE id = ?";
+
+    private final Map<Long, String> cache;
+
+    public ContentBodyServiceImpl() {
+        int cacheSize = AppSettings.get().getInt(EMAIL_BODY_CACHE_SIZE, 128);
+        cache = new LinkedHashMap<Long, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /** The shared body for {@code content}, inserted when no transaction used it before. */
+    @Override
+    public KlineContentBody store(String content) {
+        if (content == null) {
+            return null;
+        }
+        byte[] raw = content.getBytes(StandardCharsets.UTF_8);
+        String sha256 = Hashing.sha256().hashBytes(raw).toString();
+        AtomicLong id = new AtomicLong();
+        // on conflict: a concurrent or earlier insert of the same body wins, its id is used
+        JPA.jdbcWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(INSERT)) {
+                ps.setString(1, sha256);
+                ps.setString(2, CODEC_DEFLATE);
+                ps.setInt(3, raw.length);
+                ps.setBytes(4, deflate(raw));
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = connection.prepareStatement(FIND_ID)) {
+                ps.setString(1, sha256);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    id.set(rs.getLong(1));
+                }
+            }
+        });
+        synchronized (cache) {
+            cache.put(id.get(), content);
+        }
+        return JPA.em().getReference(KlineContentBody.class, id.get());
+    }
+
+    @Override
+    public String load(KlineContentBody body) {
+        if (body == null || body.getId() == null) {
+            return null;
+        }
+        Long id = body.getId();
+        synchronized (cache) {
+            String content = cache.get(id);
+            if (content != null) {
+                return content;
+            }
+        }
+        AtomicReference<String> content = new AtomicReference<>();
+        JPA.jdbcWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(LOAD)) {
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        byte[] data = rs.getBytes(3);
+                        byte[] raw = CODEC_DEFLATE.equals(rs.getString(1)) ? inflate(data, rs.getInt(2)) : data;
+                        content.set(new String(raw, StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        });
+        if (content.get() != null) {
+            synchronized (cache) {
+                cache.put(id, content.get());
+            }
+        }
+        return content.get();
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int rawSize) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] raw = new byte[rawSize];
+            int length = 0;
+            while (length < rawSize && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, rawSize - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != rawSize) {
+                throw new IllegalStateException("Corrupted email body, " + length + " of " + rawSize + " bytes");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted email body", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
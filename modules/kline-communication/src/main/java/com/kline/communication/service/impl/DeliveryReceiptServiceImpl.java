@@ -0,0 +1,359 @@
+package com.kline.communication.service.impl;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.google.inject.Singleton;
+import com.kline.communication.model.DeliveryReceipt;
+import com.kline.communication.service.DeliveryReceiptService;
+import com.kline.communication.sms.MobileNoSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Applies delivery receipts to {@code KlineTransaction} in micro-batches.
+ *
+ * Callbacks only queue the receipt ({@code receipt.queue-capacity}) and return. A single writer
+ * drains up to {@code receipt.batch-size} receipts every {@code receipt.flush-interval} ms, keeps
+ * the most advanced status per message and recipient, and writes them as one JDBC batch sorted by
+ * message id, so that callbacks never wait on a row lock and batches always lock in the same order.
+ *
+ * A receipt applied among the last {@code receipt.dedup-size} ones is ignored, and a status never
+ * replaces a more advanced one (a late "delivered" does not undo a "read"). A receipt that matches
+ * nothing yet, typically because it overtook the journal write of the message id, is tried again
+ * for {@code receipt.match-window} seconds, at most {@code receipt.unmatched-capacity} of them. One
+ * whose transaction exists but already has this status or a more advanced one is dropped. Only
+ * receipts that reached their transaction are remembered, one dropped unmatched can be sent again.
+ * The update bumps the row version and {@code updated_on}, as the journal does, so that a form
+ * opened before it cannot be saved over the new status.
+ */
+@Singleton
+public class DeliveryReceiptServiceImpl implements DeliveryReceiptService {
+
+    private static final String UPDATE =
+            "UPDATE communication_kline_transaction SET status = ?, status_desc = ?,"
+                    + " version = version + 1, updated_on = now()"
+                    + " WHERE provider_message_id = ? AND type = ?"
+                    + " AND (CAST(? AS varchar) IS NULL OR mobile_no = ?"
+                    + " OR ? = ANY(string_to_array(replace(lower(email), ' ', ''), ',')))"
+                    + " AND NOT (status = ANY(?))";
+    private static final String EXISTS =
+            "SELECT 1 FROM communication_kline_transaction WHERE provider_message_id = ? AND type = ?"
+                    + " AND (CAST(? AS varchar) IS NULL OR mobile_no = ?"
+                    + " OR ? = ANY(string_to_array(replace(lower(email), ' ', ''), ',')))"
+                    + " LIMIT 1";
+
+    /** Statuses a receipt must not overwrite, the receipt's own included. */
+    private static final Map<String, String[]> KEEP = new HashMap<>();
+    private static final Map<String, Integer> RANK = new HashMap<>();
+    /** Count marking a receipt whose transaction exists but was not changed. */
+    private static final int EXISTING = -1;
+
+    static {
+        KEEP.put(STATUS_FAILED, new String[]{STATUS_FAILED, STATUS_DELIVERED, STATUS_BOUNCED, STATUS_READ});
+        KEEP.put(STATUS_DELIVERED, new String[]{STATUS_DELIVERED, STATUS_BOUNCED, STATUS_READ});
+        KEEP.put(STATUS_BOUNCED, new String[]{STATUS_BOUNCED, STATUS_READ});
+        KEEP.put(STATUS_READ, new String[]{STATUS_READ});
+        RANK.put(STATUS_FAILED, 0);
+        RANK.put(STATUS_DELIVERED, 1);
+        RANK.put(STATUS_BOUNCED, 2);
+        RANK.put(STATUS_READ, 3);
+    }
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final BlockingQueue<Pending> queue =
+            new ArrayBlockingQueue<>(AppSettings.get().getInt(RECEIPT_QUEUE_CAPACITY, 100000));
+    /** Receipts that matched no row yet, only touched by the writer. */
+    private final Queue<Pending> unmatched = new ArrayDeque<>();
+    private final Map<String, Boolean> recent;
+    private ScheduledExecutorService writer;
+
+    public DeliveryReceiptServiceImpl() {
+        int dedupSize = AppSettings.get().getInt(RECEIPT_DEDUP_SIZE, 100000);
+        recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > dedupSize;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void start() {
+        if (writer != null) {
+            return;
+        }
+        int interval = AppSettings.get().getInt(RECEIPT_FLUSH_INTERVAL, 200);
+        writer = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("kline-receipt-writer"));
+        writer.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+        flushQuietly();
+        if (!queue.isEmpty() || !unmatched.isEmpty()) {
+            logger.warn("{} delivery receipt(s) not applied at shutdown", queue.size() + unmatched.size());
+        }
+    }
+
+    @Override
+    public boolean submit(String type, List<DeliveryReceipt> receipts) {
+        List<Pending> accepted = new ArrayList<>(receipts.size());
+        for (DeliveryReceipt receipt : receipts) {
+            Pending pending = Pending.of(type, receipt);
+            if (pending == null) {
+                logger.warn("Ignored invalid {} delivery receipt {}", type, receipt);
+                continue;
+            }
+            synchronized (recent) {
+                if (recent.containsKey(pending.key())) {
+                    continue;
+                }
+            }
+            accepted.add(pending);
+        }
+        // all or nothing, the sender retries the whole callback
+        if (queue.remainingCapacity() < accepted.size()) {
+            return false;
+        }
+        for (Pending pending : accepted) {
+            if (!queue.offer(pending)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void flushQuietly() {
+        try {
+            int batchSize = AppSettings.get().getInt(RECEIPT_BATCH_SIZE, 500);
+            while (flush(batchSize) >= batchSize) {
+                // keep draining while full batches are waiting
+            }
+        } catch (Exception e) {
+            logger.error("Exception occurred while apply delivery receipts", e);
+        }
+    }
+
+    private int flush(int batchSize) {
+        List<Pending> drained = new ArrayList<>(batchSize);
+        long retryBefore = System.currentTimeMillis() - AppSettings.get().getInt(RECEIPT_FLUSH_INTERVAL, 200);
+        while (drained.size() < batchSize && !unmatched.isEmpty() && unmatched.peek().lastTriedAt < retryBefore) {
+            drained.add(unmatched.poll());
+        }
+        queue.drainTo(drained, batchSize - drained.size());
+        if (drained.isEmpty()) {
+            return 0;
+        }
+        // the most advanced status per message and recipient
+        Map<String, Pending> latest = new HashMap<>();
+        for (Pending pending : drained) {
+            latest.merge(pending.target(), pending, (a, b) -> RANK.get(b.status) >= RANK.get(a.status) ? b : a);
+        }
+        List<Pending> batch = new ArrayList<>(latest.values());
+        batch.sort(Comparator.comparing(Pending::target));
+        try {
+            int[] counts = new int[batch.size()];
+            JPA.runInTransaction(() -> JPA.jdbcWork(connection -> {
+                write(connection, batch, counts);
+                markExisting(connection, batch, counts);
+            }));
+            markApplied(drained, batch, counts);
+            requeueUnmatched(batch, counts);
+        } catch (RuntimeException e) {
+            logger.error("Exception occurred while apply {} delivery receipt(s), kept for retry", batch.size(), e);
+            requeueUnmatched(batch, new int[batch.size()]);
+        }
+        return drained.size();
+    }
+
+    private void write(Connection connection, List<Pending> batch, int[] counts) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(UPDATE)) {
+            for (Pending pending : batch) {
+                ps.setString(1, pending.status);
+                ps.setString(2, pending.description);
+                ps.setString(3, pending.providerMessageId);
+                ps.setString(4, pending.type);
+                if (pending.recipient == null) {
+                    ps.setNull(5, Types.VARCHAR);
+                    ps.setNull(6, Types.VARCHAR);
+                    ps.setNull(7, Types.VARCHAR);
+                } else {
+                    ps.setString(5, pending.recipient);
+                    ps.setString(6, pending.recipient);
+                    ps.setString(7, pending.recipient);
+                }
+                ps.setArray(8, connection.createArrayOf("varchar", KEEP.get(pending.status)));
+                ps.addBatch();
+            }
+            int[] result = ps.executeBatch();
+            System.arraycopy(result, 0, counts, 0, Math.min(result.length, counts.length));
+        }
+    }
+
+    /** A receipt that changed nothing although its transaction exists is stale, not early. */
+    private void markExisting(Connection connection, List<Pending> batch, int[] counts) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(EXISTS)) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (counts[i] != 0) {
+                    continue;
+                }
+                Pending pending = batch.get(i);
+                ps.setString(1, pending.providerMessageId);
+                ps.setString(2, pending.type);
+                if (pending.recipient == null) {
+                    ps.setNull(3, Types.VARCHAR);
+                    ps.setNull(4, Types.VARCHAR);
+                    ps.setNull(5, Types.VARCHAR);
+                } else {
+                    ps.setString(3, pending.recipient);
+                    ps.setString(4, pending.recipient);
+                    ps.setString(5, pending.recipient);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        counts[i] = EXISTING;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Remembers the drained receipts whose transaction was found, duplicates merged away included. */
+    private void markApplied(List<Pending> drained, List<Pending> batch, int[] counts) {
+        Set<String> found = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (counts[i] != 0) {
+                found.add(batch.get(i).target());
+            }
+        }
+        synchronized (recent) {
+            for (Pending pending : drained) {
+                if (found.contains(pending.target())) {
+                    recent.put(pending.key(), Boolean.TRUE);
+                }
+            }
+        }
+    }
+
+    private void requeueUnmatched(List<Pending> batch, int[] counts) {
+        long expiredBefore = System.currentTimeMillis() - AppSettings.get().getInt(RECEIPT_MATCH_WINDOW, 60) * 1000L;
+        int capacity = AppSettings.get().getInt(RECEIPT_UNMATCHED_CAPACITY, 10000);
+        int dropped = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            if (counts[i] != 0) {
+                continue;
+            }
+            if (pending.receivedAt < expiredBefore || unmatched.size() >= capacity) {
+                dropped++;
+                continue;
+            }
+            pending.lastTriedAt = System.currentTimeMillis();
+            unmatched.add(pending);
+        }
+        if (dropped > 0) {
+            logger.debug("{} delivery receipt(s) matched no transaction in time, dropped", dropped);
+        }
+    }
+
+    private static final class Pending {
+        private final String type;
+        private final String providerMessageId;
+        private final String recipient;
+        private final String status;
+        private final String description;
+        private final long receivedAt = System.currentTimeMillis();
+        private long lastTriedAt;
+
+        private Pending(String type, String providerMessageId, String recipient, String status, String description) {
+            this.type = type;
+            this.providerMessageId = providerMessageId;
+            this.recipient = recipient;
+            this.status = status;
+            this.description = description;
+        }
+
+        private static Pending of(String type, DeliveryReceipt receipt) {
+            String providerMessageId = DeliveryReceipt.normalizeMessageId(receipt.getProviderMessageId());
+            String status = toStatus(receipt.getStatus());
+            if (providerMessageId == null || status == null) {
+                return null;
+            }
+            String recipient = null;
+            if (!StringUtils.isEmpty(receipt.getRecipient())) {
+                recipient = TYPE_SMS.equals(type)
+                        ? MobileNoSource.normalize(receipt.getRecipient())
+                        : receipt.getRecipient().trim().toLowerCase(Locale.ROOT);
+            }
+            String description = StringUtils.isEmpty(receipt.getDescription()) ? status : receipt.getDescription();
+            return new Pending(type, providerMessageId, recipient, status, description);
+        }
+
+        private static String toStatus(String status) {
+            if (status == null) {
+                return null;
+            }
+            switch (status.trim().toLowerCase(Locale.ROOT)) {
+                case "delivered":
+                    return STATUS_DELIVERED;
+                case "bounced":
+                case "bounce":
+                    return STATUS_BOUNCED;
+                case "read":
+                case "opened":
+                    return STATUS_READ;
+                case "failed":
+                case "undelivered":
+                case "rejected":
+                    return STATUS_FAILED;
+                default:
+                    return null;
+            }
+        }
+
+        private String target() {
+            return type + '|' + providerMessageId + '|' + (recipient == null ? "" : recipient);
+        }
+
+        private String key() {
+            return target() + '|' + status;
+        }
+    }
+}
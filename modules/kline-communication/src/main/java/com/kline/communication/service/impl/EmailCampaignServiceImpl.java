@@ -0,0 +1,716 @@
+package com.kline.communication.service.impl;
+
+import com.axelor.app.AppSettings;
+import com.axelor.apps.tool.EmailTool;
+import com.axelor.auth.AuthUtils;
+import com.axelor.db.JPA;
+import com.axelor.inject.Beans;
+import com.axelor.meta.MetaFiles;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.kline.communication.campaign.CsvRecipientSource;
+import com.kline.communication.campaign.QueryRecipientSource;
+import com.kline.communication.campaign.RecipientSource;
+import com.kline.communication.db.KlineEmailCampaign;
+import com.kline.communication.db.KlineEmailTemplate;
+import com.kline.communication.db.KlineEmailTransaction;
+import com.kline.communication.db.KlineTransaction;
+import com.kline.communication.db.repo.KlineEmailCampaignRepository;
+import com.kline.communication.db.repo.KlineEmailTransactionRepository;
+import com.kline.communication.exception.KLineException;
+import com.kline.communication.jdbc.TransactionBatchWriter;
+import com.kline.communication.mail.SmtpTransportPool;
+import com.kline.communication.mail.SmtpTransportPool.PooledTransport;
+import com.kline.communication.model.DeliveryReceipt;
+import com.kline.communication.ratelimit.RateLimiter;
+import com.kline.communication.ratelimit.TokenBucket;
+import com.kline.communication.service.ContentBodyService;
+import com.kline.communication.service.EmailCampaignService;
+import com.kline.communication.utils.PlaceholderTemplate;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+import static com.kline.communication.constant.CommunicationConstant.ERROR.*;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Sends a {@link KlineEmailTemplate} to every recipient of a csv file or an email address query.
+ *
+ * Recipients are streamed into a small bounded queue drained by sender threads that each keep one
+ * pooled smtp connection for the whole run. Results are written to {@link KlineTransaction} in
+ * JDBC batches; all of them point to a single {@link KlineEmailTransaction} holding the template.
+ *
+ * A run refreshes the campaign's {@code heartbeatOn} while it sends. A running campaign whose
+ * heartbeat is older than {@code campaign.stale-after} seconds (the node restarted or died) is taken
+ * over by the first node to claim it and resumed, skipping the recipients that already have a
+ * result; only the results not saved yet when the run stopped are sent again.
+ */
+@Singleton
+public class EmailCampaignServiceImpl implements EmailCampaignService {
+
+    private static final Map<String, String> END_OF_RECIPIENTS = new HashMap<>();
+    private static final long HEARTBEAT_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    private static final int RESUME_INTERVAL = 60;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private SmtpTransportPool smtpTransportPool;
+
+    @Inject
+    private TransactionBatchWriter transactionBatchWriter;
+
+    @Inject
+    private RateLimiter rateLimiter;
+
+    @Inject
+    private ContentBodyService contentBodyService;
+
+    private final ExecutorService runner = Executors.newFixedThreadPool(
+            AppSettings.get().getInt(CAMPAIGN_MAX_RUNNING, 2), namedThreadFactory("kline-campaign"));
+    private ScheduledExecutorService resumer;
+
+    @Override
+    public void validateCampaign(KlineEmailCampaign campaign) throws KLineException {
+        if (!CAMPAIGN_STATUS_DRAFT.equals(campaign.getStatus())) {
+            throw new KLineException(CAMPAIGN_IS_ALREADY_STARTED);
+        }
+        if (campaign.getKlineEmailTemplate() == null) {
+            throw new KLineException(CAMPAIGN_TEMPLATE_IS_REQUIRED);
+        }
+        if (CAMPAIGN_SOURCE_QUERY.equals(campaign.getRecipientSource())
+                ? StringUtils.isEmpty(campaign.getRecipientQuery())
+                : campaign.getRecipientFile() == null) {
+            throw new KLineException(CAMPAIGN_RECIPIENT_IS_REQUIRED);
+        }
+        if (CAMPAIGN_SOURCE_QUERY.equals(campaign.getRecipientSource())
+                && !QueryRecipientSource.isValidFilter(campaign.getRecipientQuery())) {
+            throw new KLineException(INVALID_RECIPIENT_QUERY);
+        }
+        if (StringUtils.isEmpty(AuthUtils.getUser().getEmail())) {
+            throw new KLineException(PLEASE_SET_EMAIL_ADDRESS_IN_YOUR_PROFILE);
+        }
+    }
+
+    @Override
+    public void start(KlineEmailCampaign campaign) throws KLineException {
+        validateCampaign(campaign);
+        String from = AuthUtils.getUser().getEmail();
+        String owner = AuthUtils.getUser().getName();
+        String runnerId = UUID.randomUUID().toString();
+        AtomicBoolean claimed = new AtomicBoolean();
+        JPA.runInTransaction(() -> {
+            // only one start wins, the status is checked and changed in the same statement
+            LocalDateTime now = LocalDateTime.now();
+            int updated = JPA.em()
+                    .createQuery("UPDATE KlineEmailCampaign self SET self.status = :running, self.owner = :owner,"
+                            + " self.startedOn = :now, self.runnerId = :runnerId, self.heartbeatOn = :now,"
+                            + " self.version = self.version + 1 WHERE self.id = :id AND self.status = :draft")
+                    .setParameter("running", CAMPAIGN_STATUS_RUNNING)
+                    .setParameter("owner", owner)
+                    .setParameter("now", now)
+                    .setParameter("runnerId", runnerId)
+                    .setParameter("id", campaign.getId())
+                    .setParameter("draft", CAMPAIGN_STATUS_DRAFT)
+                    .executeUpdate();
+            if (updated == 0) {
+                return;
+            }
+            claimed.set(true);
+
+            KlineEmailTemplate template = campaign.getKlineEmailTemplate();
+            KlineEmailTransaction emailTransaction = new KlineEmailTransaction();
+            emailTransaction.setDateTime(now);
+            emailTransaction.setEmailFrom(from);
+            emailTransaction.setEmailTo(campaign.getName());
+            emailTransaction.setEmailSubject(template.getSubject());
+            emailTransaction.setBody(contentBodyService.store(template.getBody()));
+            emailTransaction.setOwner(owner);
+            // not pending, the email queue must not pick the campaign itself up
+            emailTransaction.setStatus(CAMPAIGN_STATUS_RUNNING);
+            emailTransaction = Beans.get(KlineEmailTransactionRepository.class).save(emailTransaction);
+
+            JPA.em().createQuery("UPDATE KlineEmailCampaign self SET self.emailTranId = :emailTranId WHERE self.id = :id")
+                    .setParameter("emailTranId", String.valueOf(emailTransaction.getId()))
+                    .setParameter("id", campaign.getId())
+                    .executeUpdate();
+        });
+        if (!claimed.get()) {
+            throw new KLineException(CAMPAIGN_IS_ALREADY_STARTED);
+        }
+        Long campaignId = campaign.getId();
+        runner.execute(() -> run(campaignId, runnerId, false));
+    }
+
+    @Override
+    public synchronized void startResumer() {
+        if (resumer != null) {
+            return;
+        }
+        resumer = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("kline-campaign-resume"));
+        resumer.scheduleWithFixedDelay(this::resumeQuietly, RESUME_INTERVAL, RESUME_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void stopResumer() {
+        if (resumer != null) {
+            resumer.shutdownNow();
+            resumer = null;
+        }
+    }
+
+    /** Claims and resumes the running campaigns nobody has been sending for a while. */
+    @Override
+    public int resumeStale() {
+        LocalDateTime staleBefore = LocalDateTime.now().minusSeconds(AppSettings.get().getInt(CAMPAIGN_STALE_AFTER, 300));
+        List<Long> ids = JPA.em()
+                .createQuery("SELECT self.id FROM KlineEmailCampaign self WHERE self.status = :running"
+                        + " AND (self.heartbeatOn IS NULL OR self.heartbeatOn < :staleBefore)", Long.class)
+                .setParameter("running", CAMPAIGN_STATUS_RUNNING)
+                .setParameter("staleBefore", staleBefore)
+                .getResultList();
+        int resumed = 0;
+        for (Long campaignId : ids) {
+            String runnerId = UUID.randomUUID().toString();
+            AtomicInteger updated = new AtomicInteger();
+            // another node may claim it at the same time, the heartbeat condition lets one of them win
+            JPA.runInTransaction(() -> updated.set(JPA.em()
+                    .createQuery("UPDATE KlineEmailCampaign self SET self.runnerId = :runnerId,"
+                            + " self.heartbeatOn = :now, self.version = self.version + 1"
+                            + " WHERE self.id = :id AND self.status = :running"
+                            + " AND (self.heartbeatOn IS NULL OR self.heartbeatOn < :staleBefore)")
+                    .setParameter("runnerId", runnerId)
+                    .setParameter("now", LocalDateTime.now())
+                    .setParameter("id", campaignId)
+                    .setParameter("running", CAMPAIGN_STATUS_RUNNING)
+                    .setParameter("staleBefore", staleBefore)
+                    .executeUpdate()));
+            if (updated.get() == 1) {
+                logger.info("Resuming campaign {}", campaignId);
+                runner.execute(() -> run(campaignId, runnerId, true));
+                resumed++;
+            }
+        }
+        return resumed;
+    }
+
+    private void resumeQuietly() {
+        try {
+            resumeStale();
+        } catch (Exception e) {
+            logger.error("Exception occurred while resume campaigns", e);
+        } finally {
+            JPA.clear();
+        }
+    }
+
+    private void run(Long campaignId, String runnerId, boolean resumed) {
+        KlineEmailCampaign campaign = Beans.get(KlineEmailCampaignRepository.class).find(campaignId);
+        if (campaign == null || !runnerId.equals(campaign.getRunnerId())) {
+            // waited for a free runner too long, another node took the campaign over
+            logger.info("Campaign {} is run by another node", campaignId);
+            JPA.clear();
+            return;
+        }
+        String from = Beans.get(KlineEmailTransactionRepository.class)
+                .find(Long.valueOf(campaign.getEmailTranId())).getEmailFrom();
+        CampaignRun run = new CampaignRun(campaign, from, campaign.getOwner(), runnerId);
+        if (resumed) {
+            run.sent.set(campaign.getSentCount() == null ? 0 : campaign.getSentCount());
+            run.failed.set(campaign.getFailedCount() == null ? 0 : campaign.getFailedCount());
+        }
+        int senders = AppSettings.get().getInt(CAMPAIGN_SENDERS, 4);
+        int batchSize = AppSettings.get().getInt(CAMPAIGN_BATCH_SIZE, 500);
+        BlockingQueue<Map<String, String>> recipients = new ArrayBlockingQueue<>(senders * 100);
+        ExecutorService senderPool = Executors.newFixedThreadPool(senders, namedThreadFactory("kline-campaign-sender"));
+        for (int i = 0; i < senders; i++) {
+            senderPool.execute(() -> send(run, recipients));
+        }
+        logger.info("Campaign {} {} with {} sender(s)", campaignId, resumed ? "resumed" : "started", senders);
+
+        try (RecipientSource source = openSource(campaign)) {
+            JPA.clear();
+            Iterator<Map<String, String>> pending = resumed ? new Unsent(source, campaignId) : source;
+            while (!run.lost && pending.hasNext()) {
+                Map<String, String> values = pending.next();
+                while (!recipients.offer(values, 1, TimeUnit.SECONDS) && !run.lost) {
+                    flushIfDue(run, batchSize);
+                }
+                flushIfDue(run, batchSize);
+            }
+        } catch (Exception e) {
+            logger.error("Exception occurred while reading campaign {} recipients", campaignId, e);
+        } finally {
+            try {
+                if (run.lost) {
+                    // the new runner sends them
+                    recipients.clear();
+                }
+                for (int i = 0; i < senders; i++) {
+                    recipients.put(END_OF_RECIPIENTS);
+                }
+                senderPool.shutdown();
+                while (!senderPool.awaitTermination(HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    flushIfDue(run, batchSize);
+                }
+            } catch (InterruptedException e) {
+                senderPool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            flush(run);
+            if (run.results.isEmpty()) {
+                finish(run);
+            } else {
+                logger.error("Campaign {} stopped with {} result(s) not saved, it is resumed once stale",
+                        campaignId, run.results.size());
+            }
+            JPA.clear();
+        }
+    }
+
+    private RecipientSource openSource(KlineEmailCampaign campaign) throws IOException {
+        if (CAMPAIGN_SOURCE_QUERY.equals(campaign.getRecipientSource())) {
+            return new QueryRecipientSource(campaign.getRecipientQuery(),
+                    AppSettings.get().getInt(CAMPAIGN_QUERY_PAGE_SIZE, 1000));
+        }
+        char separator = AppSettings.get().get(CAMPAIGN_CSV_SEPARATOR, ",").charAt(0);
+        return new CsvRecipientSource(MetaFiles.getPath(campaign.getRecipientFile()), separator);
+    }
+
+    private void send(CampaignRun run, BlockingQueue<Map<String, String>> recipients) {
+        int maxRcpt = AppSettings.get().getInt(EMAIL_SMTP_MAX_RCPT, 50);
+        if (run.sameContent && maxRcpt > 1) {
+            sendEnvelopes(run, recipients, maxRcpt);
+        } else {
+            sendEach(run, recipients);
+        }
+    }
+
+    private void sendEach(CampaignRun run, BlockingQueue<Map<String, String>> recipients) {
+        PooledTransport transport = null;
+        try {
+            Map<String, String> values;
+            while ((values = recipients.take()) != END_OF_RECIPIENTS) {
+                String email = values.get(RecipientSource.EMAIL);
+                try {
+                    MimeMessage msg = run.initMessage(smtpTransportPool, values);
+                    run.pace();
+                    rateLimiter.await(TYPE_EMAIL, run.owner);
+                    if (transport == null) {
+                        transport = smtpTransportPool.borrow();
+                    }
+                    transport.getTransport().sendMessage(msg, msg.getAllRecipients());
+                    run.addResult(email, STATUS_SUCCESS, SEND_EMAIL_SUCCESSFULLY, msg.getMessageID());
+                } catch (SendFailedException e) {
+                    run.addResult(email, STATUS_FAILED, e.getMessage());
+                    if (transport != null && !transport.getTransport().isConnected()) {
+                        smtpTransportPool.release(transport, true);
+                        transport = null;
+                    }
+                } catch (AddressException e) {
+                    run.addResult(email, STATUS_FAILED, e.getMessage());
+                } catch (MessagingException | RuntimeException e) {
+                    run.addResult(email, STATUS_FAILED, e.getMessage());
+                    if (transport != null) {
+                        smtpTransportPool.release(transport, true);
+                        transport = null;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (transport != null) {
+                smtpTransportPool.release(transport, false);
+            }
+        }
+    }
+
+    /**
+     * Every recipient gets the same message, so up to {@code email.smtp.max-rcpt} of them share one
+     * envelope: one MAIL FROM, one RCPT TO each and a single DATA transfer.
+     */
+    private void sendEnvelopes(CampaignRun run, BlockingQueue<Map<String, String>> recipients, int maxRcpt) {
+        PooledTransport transport = null;
+        List<Map<String, String>> batch = new ArrayList<>(maxRcpt);
+        try {
+            SMTPMessage msg = run.initSharedMessage(smtpTransportPool);
+            boolean end = false;
+            while (!end) {
+                Map<String, String> values = recipients.take();
+                if (values == END_OF_RECIPIENTS) {
+                    break;
+                }
+                batch.clear();
+                batch.add(values);
+                // only take what is already queued, a half full envelope is better than waiting
+                while (batch.size() < maxRcpt && (values = recipients.poll()) != null) {
+                    if (values == END_OF_RECIPIENTS) {
+                        end = true;
+                        break;
+                    }
+                    batch.add(values);
+                }
+                transport = sendEnvelope(run, msg, batch, transport);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (MessagingException e) {
+            logger.error("Exception occurred while preparing campaign {} message", run.campaign.getId(), e);
+            drainAsFailed(run, recipients, e.getMessage());
+        } finally {
+            if (transport != null) {
+                smtpTransportPool.release(transport, false);
+            }
+        }
+    }
+
+    private PooledTransport sendEnvelope(CampaignRun run, SMTPMessage msg, List<Map<String, String>> batch,
+                                         PooledTransport transport) throws InterruptedException {
+        // normalized address -> recipients as read from the source, duplicates share the outcome
+        Map<String, List<String>> emails = new LinkedHashMap<>();
+        for (Map<String, String> values : batch) {
+            String email = values.get(RecipientSource.EMAIL);
+            String address = EmailTool.normalizeEmailAddress(email);
+            if (address == null) {
+                run.addResult(email, STATUS_FAILED, "Invalid email address");
+                continue;
+            }
+            emails.computeIfAbsent(address, k -> new ArrayList<>(1)).add(email);
+        }
+        if (emails.isEmpty()) {
+            return transport;
+        }
+        Address[] envelope = new Address[emails.size()];
+        int i = 0;
+        for (String address : emails.keySet()) {
+            InternetAddress internetAddress = new InternetAddress();
+            internetAddress.setAddress(address);
+            envelope[i++] = internetAddress;
+            run.pace();
+        }
+        // the shared quotas count recipients, as for a personalized campaign
+        rateLimiter.await(TYPE_EMAIL, run.owner, emails.size());
+        try {
+            if (transport == null) {
+                transport = smtpTransportPool.borrow();
+            }
+            transport.getTransport().sendMessage(msg, envelope);
+            for (List<String> originals : emails.values()) {
+                for (String email : originals) {
+                    run.addResult(email, STATUS_SUCCESS, SEND_EMAIL_SUCCESSFULLY, msg.getMessageID());
+                }
+            }
+        } catch (SendFailedException e) {
+            // with send partial the message went to the valid addresses, the others are listed per address
+            Set<String> sent = toAddressSet(e.getValidSentAddresses());
+            Map<String, String> reasons = toFailureReasons(e);
+            for (Map.Entry<String, List<String>> entry : emails.entrySet()) {
+                boolean success = sent.contains(entry.getKey());
+                String statusDesc = success ? SEND_EMAIL_SUCCESSFULLY : reasons.getOrDefault(entry.getKey(), e.getMessage());
+                for (String email : entry.getValue()) {
+                    run.addResult(email, success ? STATUS_SUCCESS : STATUS_FAILED, statusDesc,
+                            success ? msg.getMessageID() : null);
+                }
+            }
+            if (transport != null && !transport.getTransport().isConnected()) {
+                smtpTransportPool.release(transport, true);
+                transport = null;
+            }
+        } catch (MessagingException | RuntimeException e) {
+            for (List<String> originals : emails.values()) {
+                for (String email : originals) {
+                    run.addResult(email, STATUS_FAILED, e.getMessage());
+                }
+            }
+            if (transport != null) {
+                smtpTransportPool.release(transport, true);
+                transport = null;
+            }
+        }
+        return transport;
+    }
+
+    private void drainAsFailed(CampaignRun run, BlockingQueue<Map<String, String>> recipients, String statusDesc) {
+        try {
+            Map<String, String> values;
+            while ((values = recipients.take()) != END_OF_RECIPIENTS) {
+                run.addResult(values.get(RecipientSource.EMAIL), STATUS_FAILED, statusDesc);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Set<String> toAddressSet(Address[] addresses) {
+        Set<String> result = new HashSet<>();
+        if (addresses != null) {
+            for (Address address : addresses) {
+                result.add(((InternetAddress) address).getAddress());
+            }
+        }
+        return result;
+    }
+
+    /** The server reply of every rejected RCPT TO, chained by JavaMail as next exceptions. */
+    private static Map<String, String> toFailureReasons(MessagingException e) {
+        Map<String, String> reasons = new HashMap<>();
+        Exception next = e.getNextException();
+        while (next instanceof MessagingException) {
+            if (next instanceof SMTPAddressFailedException) {
+                SMTPAddressFailedException failed = (SMTPAddressFailedException) next;
+                reasons.put(failed.getAddress().getAddress(), failed.getMessage());
+            }
+            next = ((MessagingException) next).getNextException();
+        }
+        return reasons;
+    }
+
+    private void flushIfDue(CampaignRun run, int batchSize) {
+        if (run.results.size() >= batchSize || System.currentTimeMillis() - run.lastFlush >= HEARTBEAT_INTERVAL) {
+            flush(run);
+        }
+    }
+
+    /**
+     * Saves the results, then counts them and refreshes the heartbeat, a run whose campaign was taken
+     * over stops. Results that could not be saved go back to the run for the next flush.
+     */
+    private void flush(CampaignRun run) {
+        run.lastFlush = System.currentTimeMillis();
+        List<KlineTransaction> batch = new ArrayList<>();
+        KlineTransaction transaction;
+        while ((transaction = run.results.poll()) != null) {
+            batch.add(transaction);
+        }
+        try {
+            transactionBatchWriter.insertTransactions(batch);
+        } catch (Exception e) {
+            logger.error("Exception occurred while saving campaign {} results, kept for the next flush",
+                    run.campaign.getId(), e);
+            run.results.addAll(batch);
+            return;
+        }
+        for (KlineTransaction saved : batch) {
+            (STATUS_SUCCESS.equals(saved.getStatus()) ? run.sent : run.failed).incrementAndGet();
+        }
+        try {
+            AtomicInteger updated = new AtomicInteger();
+            JPA.runInTransaction(() -> updated.set(JPA.em()
+                    .createQuery("UPDATE KlineEmailCampaign self SET self.sentCount = :sent,"
+                            + " self.failedCount = :failed, self.heartbeatOn = :now"
+                            + " WHERE self.id = :id AND self.runnerId = :runnerId")
+                    .setParameter("sent", run.sent.get())
+                    .setParameter("failed", run.failed.get())
+                    .setParameter("now", LocalDateTime.now())
+                    .setParameter("id", run.campaign.getId())
+                    .setParameter("runnerId", run.runnerId)
+                    .executeUpdate()));
+            if (updated.get() == 0 && !run.lost) {
+                logger.warn("Campaign {} was taken over by another node, this run stops", run.campaign.getId());
+                run.lost = true;
+            }
+        } catch (Exception e) {
+            logger.error("Exception occurred while updating campaign {} heartbeat", run.campaign.getId(), e);
+        }
+    }
+
+    private void finish(CampaignRun run) {
+        if (run.lost) {
+            return;
+        }
+        JPA.runInTransaction(() -> {
+            KlineEmailCampaign campaign = Beans.get(KlineEmailCampaignRepository.class).find(run.campaign.getId());
+            campaign.setStatus(CAMPAIGN_STATUS_DONE);
+            campaign.setFinishedOn(LocalDateTime.now());
+            campaign.setSentCount(run.sent.get());
+            campaign.setFailedCount(run.failed.get());
+
+            KlineEmailTransaction emailTransaction = Beans.get(KlineEmailTransactionRepository.class)
+                    .find(Long.valueOf(campaign.getEmailTranId()));
+            emailTransaction.setStatus(run.sent.get() > 0 ? STATUS_SUCCESS : STATUS_FAILED);
+        });
+        logger.info("Campaign {} finished, sent: {}, failed: {}", run.campaign.getId(), run.sent.get(), run.failed.get());
+    }
+
+    /** The recipients of a resumed campaign without a result yet, checked a chunk at a time. */
+    private static final class Unsent implements Iterator<Map<String, String>> {
+        private static final int CHUNK_SIZE = 500;
+        private final RecipientSource source;
+        private final Long campaignId;
+        private final Deque<Map<String, String>> pending = new ArrayDeque<>();
+
+        private Unsent(RecipientSource source, Long campaignId) {
+            this.source = source;
+            this.campaignId = campaignId;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending.isEmpty() && source.hasNext()) {
+                List<Map<String, String>> chunk = new ArrayList<>(CHUNK_SIZE);
+                Set<String> emails = new HashSet<>();
+                while (chunk.size() < CHUNK_SIZE && source.hasNext()) {
+                    Map<String, String> values = source.next();
+                    chunk.add(values);
+                    if (values.get(RecipientSource.EMAIL) != null) {
+                        emails.add(values.get(RecipientSource.EMAIL));
+                    }
+                }
+                Set<String> done = emails.isEmpty() ? Collections.emptySet() : new HashSet<>(JPA.em()
+                        .createQuery("SELECT self.email FROM KlineTransaction self"
+                                + " WHERE self.campaign.id = :id AND self.email IN :emails", String.class)
+                        .setParameter("id", campaignId)
+                        .setParameter("emails", emails)
+                        .getResultList());
+                JPA.clear();
+                for (Map<String, String> values : chunk) {
+                    if (!done.contains(values.get(RecipientSource.EMAIL))) {
+                        pending.add(values);
+                    }
+                }
+            }
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public Map<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pending.poll();
+        }
+    }
+
+    private static class CampaignRun {
+        private final KlineEmailCampaign campaign;
+        private final String from;
+        private final String owner;
+        private final String runnerId;
+        private final String emailTranId;
+        private final PlaceholderTemplate subject;
+        private final PlaceholderTemplate body;
+        private final TokenBucket pacer;
+        private final boolean sameContent;
+        private final Queue<KlineTransaction> results = new ConcurrentLinkedQueue<>();
+        // results saved so far
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile long lastFlush = System.currentTimeMillis();
+        private volatile boolean lost;
+
+        private CampaignRun(KlineEmailCampaign campaign, String from, String owner, String runnerId) {
+            this.campaign = campaign;
+            this.from = from;
+            this.owner = owner;
+            this.runnerId = runnerId;
+            this.emailTranId = campaign.getEmailTranId();
+            this.subject = PlaceholderTemplate.compile(campaign.getKlineEmailTemplate().getSubject());
+            // the body is html, csv values are inserted escaped
+            this.body = PlaceholderTemplate.compileHtml(campaign.getKlineEmailTemplate().getBody());
+            int rateLimit = campaign.getRateLimit() == null ? 0 : campaign.getRateLimit();
+            // no burst, sends are spaced evenly
+            this.pacer = rateLimit <= 0 ? null : new TokenBucket("campaign:" + campaign.getId(), rateLimit, 1);
+            this.sameContent = !subject.hasPlaceholders() && !body.hasPlaceholders();
+        }
+
+        private MimeMessage initMessage(SmtpTransportPool pool, Map<String, String> values) throws MessagingException {
+            MimeMessage msg = new MimeMessage(pool.getSession());
+            msg.setFrom(new InternetAddress(from));
+            String address = EmailTool.normalizeEmailAddress(values.get(RecipientSource.EMAIL));
+            if (address == null) {
+                throw new AddressException("Invalid email address", values.get(RecipientSource.EMAIL));
+            }
+            InternetAddress to = new InternetAddress();
+            to.setAddress(address);
+            msg.setRecipient(Message.RecipientType.TO, to);
+            msg.setSubject(subject.render(values), "UTF-8");
+            msg.setContent(body.render(values), TEXT_HTML + "; charset=UTF-8");
+            msg.setSentDate(new Date());
+            msg.saveChanges();
+            return msg;
+        }
+
+        private SMTPMessage initSharedMessage(SmtpTransportPool pool) throws MessagingException {
+            SMTPMessage msg = new SMTPMessage(pool.getSession());
+            msg.setFrom(new InternetAddress(from));
+            // recipients are only in the envelope so they do not see each other
+            msg.setHeader("To", "undisclosed-recipients:;");
+            msg.setSubject(subject.render(Collections.emptyMap()), "UTF-8");
+            msg.setContent(body.render(Collections.emptyMap()), TEXT_HTML + "; charset=UTF-8");
+            msg.setSentDate(new Date());
+            msg.setSendPartial(true);
+            msg.saveChanges();
+            return msg;
+        }
+
+        /** Waits for the campaign's own emails per second. */
+        private void pace() throws InterruptedException {
+            if (pacer != null) {
+                TimeUnit.NANOSECONDS.sleep(pacer.reserve(1, Long.MAX_VALUE));
+            }
+        }
+
+        private void addResult(String email, String status, String statusDesc) {
+            addResult(email, status, statusDesc, null);
+        }
+
+        /** The shared message of an envelope has one Message-ID, bounces tell the recipient apart. */
+        private void addResult(String email, String status, String statusDesc, String messageId) {
+            LocalDateTime now = LocalDateTime.now();
+            KlineTransaction transaction = new KlineTransaction();
+            transaction.setType(TYPE_EMAIL);
+            transaction.setEmail(email);
+            transaction.setStatus(status);
+            transaction.setStatusDesc(statusDesc);
+            transaction.setTranDate(now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+            transaction.setTranTime(now.format(DateTimeFormatter.ofPattern("HH:mm:ss")));
+            transaction.setTranDateTime(now);
+            transaction.setEmailTranId(emailTranId);
+            transaction.setOwner(owner);
+            transaction.setCampaign(campaign);
+            transaction.setProviderMessageId(DeliveryReceipt.normalizeMessageId(messageId));
+            results.add(transaction);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.kline.communication.service.impl;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.axelor.inject.Beans;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.kline.communication.db.KlineEmailTransaction;
+import com.kline.communication.db.repo.KlineEmailTransactionRepository;
+import com.kline.communication.jdbc.TransactionJournal;
+import com.kline.communication.model.TransactionModel;
+import com.kline.communication.service.EmailQueueService;
+import com.kline.communication.service.EmailService;
+import com.kline.communication.service.RetryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Outbound email queue backed by the PENDING {@link KlineEmailTransaction} rows.
+ *
+ * The request thread only persists the transaction and enqueues its id; a bounded worker pool
+ * does the SMTP work. Rows that could not be queued (pool full, node restarted) are still PENDING
+ * in the database and are picked up again by the periodic sweep.
+ *
+ * Every node sweeps the same table, so a worker first claims the row by moving it from Pending to
+ * Sending in one conditional update and only sends when it won. A Sending row whose node was lost
+ * is made Pending again after {@code email.queue.sending-timeout}.
+ */
+@Singleton
+public class EmailQueueServiceImpl implements EmailQueueService {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private EmailService emailService;
+
+    @Inject
+    private TransactionJournal transactionJournal;
+
+    @Inject
+    private RetryService retryService;
+
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    private volatile ThreadPoolExecutor executor;
+
+    private ScheduledExecutorService sweeper;
+
+    @Override
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        int workers = AppSettings.get().getInt(EMAIL_QUEUE_WORKERS, 4);
+        int capacity = AppSettings.get().getInt(EMAIL_QUEUE_CAPACITY, 1000);
+        int sweepInterval = AppSettings.get().getInt(EMAIL_QUEUE_SWEEP_INTERVAL, 60);
+        logger.info("Starting email queue with {} workers, capacity {}", workers, capacity);
+
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity), namedThreadFactory("kline-email-worker"));
+        sweeper = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("kline-email-sweeper"));
+        sweeper.scheduleWithFixedDelay(this::recoverPending, 0, sweepInterval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        sweeper.shutdownNow();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                // whatever is left is still PENDING in db and is recovered on next start
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        sweeper = null;
+    }
+
+    @Override
+    public void enqueue(Long emailTranId) {
+        if (emailTranId == null || executor == null || !inFlight.add(emailTranId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> process(emailTranId));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(emailTranId);
+            logger.warn("Email queue is full, transaction {} stays pending until next sweep", emailTranId);
+        }
+    }
+
+    @Override
+    public void recoverPending() {
+        try {
+            releaseTimedOut();
+            int batch = AppSettings.get().getInt(EMAIL_QUEUE_SWEEP_BATCH, 500);
+            List<Map> pending = Beans.get(KlineEmailTransactionRepository.class).all()
+                    .filter("self.status = ?1", STATUS_PENDING)
+                    .order("id")
+                    .select("id")
+                    .fetch(batch, 0);
+            if (!pending.isEmpty()) {
+                logger.info("Recovering {} pending email transaction(s)", pending.size());
+            }
+            for (Map row : pending) {
+                Long emailTranId = (Long) row.get("id");
+                // the result is already known, it is only waiting in the journal to be written
+                if (transactionJournal.findByEmailTranId(emailTranId) == null) {
+                    enqueue(emailTranId);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Exception occurred while recover pending email", e);
+        } finally {
+            JPA.clear();
+        }
+    }
+
+    private void releaseTimedOut() {
+        LocalDateTime before = LocalDateTime.now().minusSeconds(AppSettings.get().getInt(EMAIL_QUEUE_SENDING_TIMEOUT, 600));
+        AtomicInteger released = new AtomicInteger();
+        JPA.runInTransaction(() -> released.set(JPA.em()
+                .createQuery("UPDATE KlineEmailTransaction self SET self.status = :pending, self.claimedOn = NULL,"
+                        + " self.version = self.version + 1"
+                        + " WHERE self.status = :sending AND (self.claimedOn IS NULL OR self.claimedOn < :before)")
+                .setParameter("pending", STATUS_PENDING)
+                .setParameter("sending", STATUS_SENDING)
+                .setParameter("before", before)
+                .executeUpdate()));
+        if (released.get() > 0) {
+            logger.warn("{} email transaction(s) were left sending, they are pending again", released.get());
+        }
+    }
+
+    /** Moves the row from Pending to Sending, false when another worker or node got it first. */
+    private boolean claim(Long emailTranId) {
+        AtomicInteger claimed = new AtomicInteger();
+        JPA.runInTransaction(() -> claimed.set(JPA.em()
+                .createQuery("UPDATE KlineEmailTransaction self SET self.status = :sending, self.claimedOn = :now,"
+                        + " self.version = self.version + 1 WHERE self.id = :id AND self.status = :pending")
+                .setParameter("sending", STATUS_SENDING)
+                .setParameter("now", LocalDateTime.now())
+                .setParameter("id", emailTranId)
+                .setParameter("pending", STATUS_PENDING)
+                .executeUpdate()));
+        return claimed.get() == 1;
+    }
+
+    private void process(Long emailTranId) {
+        TransactionModel transactionModel = null;
+        try {
+            if (transactionJournal.findByEmailTranId(emailTranId) != null || !claim(emailTranId)) {
+                return;
+            }
+            transactionModel = emailService.findTransaction(emailTranId);
+            if (transactionModel == null) {
+                return;
+            }
+            transactionModel.setProviderMessageId(emailService.sendEmail(transactionModel.getEmailTransaction()));
+            emailService.updateTransaction(transactionModel, STATUS_SUCCESS, SEND_EMAIL_SUCCESSFULLY);
+        } catch (Exception e) {
+            logger.error("exception occurred while sending email transaction {}", emailTranId, e);
+            retryService.onFailure(transactionModel, e);
+        } finally {
+            inFlight.remove(emailTranId);
+            JPA.clear();
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.kline.communication.service.impl;
 
 import com.axelor.app.AppSettings;
 import com.axelor.apps.message.db.EmailAddress;
+import com.axelor.apps.tool.EmailTool;
+import com.axelor.apps.tool.file.FileChannelDataSource;
 import com.axelor.auth.AuthUtils;
 import com.axelor.auth.db.User;
 import com.axelor.inject.Beans;
@@ -10,34 +12,46 @@ import com.axelor.meta.db.MetaFile;
 import com.axelor.meta.db.repo.MetaFileRepository;
 import com.axelor.rpc.ActionRequest;
 import com.axelor.rpc.ActionResponse;
+import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
+import com.kline.communication.db.KlineAttachmentBlob;
 import com.kline.communication.db.KlineEmailAttachment;
 import com.kline.communication.db.KlineEmailAttachmentTransaction;
 import com.kline.communication.db.KlineEmailTransaction;
+import com.kline.communication.db.KlineEmailTransactionArchive;
 import com.kline.communication.db.KlineTransaction;
+import com.kline.communication.db.repo.KlineEmailAttachmentRepository;
+import com.kline.communication.db.repo.KlineEmailTransactionArchiveRepository;
 import com.kline.communication.db.repo.KlineEmailTransactionRepository;
 import com.kline.communication.db.repo.KlineTransactionRepository;
 import com.kline.communication.exception.KLineException;
+import com.kline.communication.jdbc.TransactionJournal;
+import com.kline.communication.mail.SmtpTransportPool;
+import com.kline.communication.model.DeliveryReceipt;
 import com.kline.communication.model.EmailRequest;
+import com.kline.communication.model.SmtpPoolStats;
 import com.kline.communication.model.TransactionModel;
+import com.kline.communication.ratelimit.RateLimiter;
+import com.kline.communication.service.AttachmentStoreService;
+import com.kline.communication.service.ContentBodyService;
 import com.kline.communication.service.EmailService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
+import javax.activation.DataHandler;
 import javax.mail.*;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.regex.Pattern;
 
 import static com.kline.communication.constant.CommunicationConstant.*;
 import static com.kline.communication.constant.CommunicationConstant.ERROR.*;
@@ -47,8 +61,26 @@ public class EmailServiceImpl implements EmailService {
 
     private Logger logger = LoggerFactory.getLogger(getClass());
 
+    @Inject
+    private SmtpTransportPool smtpTransportPool;
+
+    @Inject
+    private TransactionJournal transactionJournal;
+
+    @Inject
+    private AttachmentStoreService attachmentStoreService;
+
+    @Inject
+    private RateLimiter rateLimiter;
+
+    @Inject
+    private ContentBodyService contentBodyService;
+
     @Override
     public EmailRequest validateRequest(ActionRequest request) throws KLineException, AddressException {
+        if (StringUtils.isEmpty(AuthUtils.getUser().getEmail())) {
+            throw new KLineException(PLEASE_SET_EMAIL_ADDRESS_IN_YOUR_PROFILE);
+        }
         EmailRequest req = new EmailRequest(request);
         if (req.getTo() == null) {
             throw new KLineException(EMAIL_TO_IS_REQUIRED);
@@ -62,110 +94,155 @@ public class EmailServiceImpl implements EmailService {
         req.setEmailTo(validateEmailFormat(req.getTo(), INVALID_EMAIL_TO));
         req.setEmailCc(validateEmailFormat(req.getToCC(), INVALID_EMAIL_CC));
         req.setEmailBcc(validateEmailFormat(req.getToBCC(), INVALID_EMAIL_BCC));
+        validateAttachmentSize(req);
         return req;
     }
 
     @Override
-    public void initEmailFrom(Message msg) throws MessagingException, KLineException {
-        User user = AuthUtils.getUser();
-        if (StringUtils.isEmpty(user.getEmail())) {
-            throw new KLineException(PLEASE_SET_EMAIL_ADDRESS_IN_YOUR_PROFILE);
-        }
-        logger.info("Email From : {}", user.getEmail());
-        msg.setFrom(new InternetAddress(user.getEmail()));
+    public Session initEmailSession(){
+        return smtpTransportPool.getSession();
     }
 
     @Override
-    public Session initEmailSession(){
-        Properties properties = initProperties();
-        Authenticator auth = initAuthenticator();
-        return Session.getInstance(properties, auth);
+    public List<SmtpPoolStats> getSmtpPoolStats() {
+        return smtpTransportPool.getStats();
     }
 
     @Override
-    public void initEmailTo(EmailRequest request, Message msg) throws MessagingException {
-        logger.info("email to : {}", request.getTo());
-        //msg.setRecipients(Message.RecipientType.TO, new InternetAddress[]{new InternetAddress(request.getTo())});
-        msg.setRecipients(Message.RecipientType.TO, initInternetAddress(request.getEmailTo()));
-        if (request.getToCC() != null) {
-            logger.info("email CC : {}", request.getToCC());
-            msg.addRecipients(Message.RecipientType.CC, initInternetAddress(request.getEmailCc()));
-        }
-        if (request.getToBCC() != null) {
-            logger.info("email BCC : {}", request.getToBCC());
-            msg.addRecipients(Message.RecipientType.BCC, initInternetAddress(request.getEmailBcc()));
-        }
+    public String sendEmail(KlineEmailTransaction emailTransaction) throws MessagingException, IOException, KLineException {
+        rateLimiter.acquire(TYPE_EMAIL, emailTransaction.getOwner());
+        MimeMessage msg = new MimeMessage(initEmailSession());
+        Multipart multipart = new MimeMultipart();
+        initEmailFrom(emailTransaction, msg);
+        initEmailTo(emailTransaction, msg);
+        initEmailSubject(emailTransaction, msg);
+        initEmailContent(emailTransaction, multipart);
+        initEmailAttachment(emailTransaction, multipart);
+        msg.setContent(multipart);
+
+        // sends the e-mail over a pooled connection
+        smtpTransportPool.send(msg);
+        return DeliveryReceipt.normalizeMessageId(msg.getMessageID());
     }
 
-    @Override
-    public void initEmailContent(EmailRequest req, Multipart multipart) throws MessagingException {
+    private void initEmailFrom(KlineEmailTransaction emailTransaction, Message msg) throws MessagingException {
+        logger.info("Email From : {}", emailTransaction.getEmailFrom());
+        msg.setFrom(new InternetAddress(emailTransaction.getEmailFrom()));
+    }
+
+    private void initEmailTo(KlineEmailTransaction emailTransaction, Message msg) throws MessagingException {
+        logger.info("email to : {}", emailTransaction.getEmailTo());
+        msg.setRecipients(Message.RecipientType.TO, parseEmailView(emailTransaction.getEmailTo()));
+        msg.addRecipients(Message.RecipientType.CC, parseEmailView(emailTransaction.getEmailCc()));
+        msg.addRecipients(Message.RecipientType.BCC, parseEmailView(emailTransaction.getEmailBcc()));
+    }
+
+    private void initEmailContent(KlineEmailTransaction emailTransaction, Multipart multipart) throws MessagingException {
         MimeBodyPart bodyPart = new MimeBodyPart();
-        bodyPart.setContent(req.getContent(), TEXT_HTML);
+        bodyPart.setContent(getEmailBody(emailTransaction), TEXT_HTML);
         multipart.addBodyPart(bodyPart);
     }
 
-    @Override
-    public void initEmailSubject(EmailRequest req, Message msg) throws MessagingException {
-        logger.info("email Subject : {}", req.getSubject());
-        msg.setSubject(req.getSubject());
+    private void initEmailSubject(KlineEmailTransaction emailTransaction, Message msg) throws MessagingException {
+        logger.info("email Subject : {}", emailTransaction.getEmailSubject());
+        msg.setSubject(emailTransaction.getEmailSubject());
         msg.setSentDate(new Date());
     }
 
-    @Override
-    public void initEmailAttachment(EmailRequest req, Multipart multipart, ActionRequest request) throws IOException, MessagingException {
-        if(!CollectionUtils.isEmpty(req.getAttachments()) && req.isAttachment()){
-            req.setContainAttachment(true);
-            logger.info("this request contain attach file...");
-            //The framework cannot save meta, then go this way to sending email with attachment
-            List<KlineEmailAttachment> reqAttach = (List<KlineEmailAttachment>) request.getContext().get("klineEmailAttachment");
-            for (KlineEmailAttachment e : reqAttach) {
+    private void initEmailAttachment(KlineEmailTransaction emailTransaction, Multipart multipart) throws IOException, MessagingException {
+        if (!CollectionUtils.isEmpty(emailTransaction.getKlineEmailAttachment())) {
+            MetaFileRepository metaFileRepository = Beans.get(MetaFileRepository.class);
+            long maxSize = getAttachmentMaxSize();
+            long totalSize = 0;
+            for (KlineEmailAttachment e : emailTransaction.getKlineEmailAttachment()) {
+                MetaFile metaFile = metaFileRepository.find(e.getMetaFileId());
+                FileChannelDataSource dataSource = new FileChannelDataSource(MetaFiles.getPath(metaFile), metaFile.getFileName(), metaFile.getFileType());
+                totalSize += dataSource.size();
+                if (maxSize > 0 && totalSize > maxSize) {
+                    throw new MessagingException(EMAIL_ATTACHMENT_IS_TOO_LARGE.getMessage());
+                }
                 MimeBodyPart attachPart = new MimeBodyPart();
-                attachPart.attachFile(MetaFiles.getPath(e.getMetaFile()).toString());
+                attachPart.setDataHandler(new DataHandler(dataSource));
+                attachPart.setFileName(dataSource.getName());
+                // set up front, otherwise JavaMail reads the whole file once to pick an encoding
+                attachPart.setHeader("Content-Transfer-Encoding", "base64");
                 multipart.addBodyPart(attachPart);
             }
         }
     }
 
-    private  List<KlineEmailAttachment> initMetaFileId(EmailRequest req){
-        if(!CollectionUtils.isEmpty(req.getAttachments()) && req.isAttachment()) {
-            List<KlineEmailAttachment> attachments = new ArrayList<>();
-            for (KlineEmailAttachment e : req.getAttachments()) {
-                saveAttachmentTransaction(e.getMetaFile(), attachments);
+    private void validateAttachmentSize(EmailRequest req) throws KLineException {
+        long maxSize = getAttachmentMaxSize();
+        if (maxSize <= 0 || !req.isAttachment() || CollectionUtils.isEmpty(req.getAttachments())) {
+            return;
+        }
+        long totalSize = 0;
+        for (KlineEmailAttachment e : req.getAttachments()) {
+            if (e.getMetaFile() == null) {
+                continue;
+            }
+            try {
+                totalSize += Files.size(MetaFiles.getPath(e.getMetaFile()));
+            } catch (IOException err) {
+                logger.error("Exception occurred while reading attachment size", err);
+            }
+            if (totalSize > maxSize) {
+                throw new KLineException(EMAIL_ATTACHMENT_IS_TOO_LARGE);
             }
-            return attachments;
         }
-        return Collections.emptyList();
     }
 
-    @Transactional
-    public void saveAttachmentTransaction(MetaFile metaFile, List<KlineEmailAttachment> attachments){
+    private long getAttachmentMaxSize() {
+        return AppSettings.get().getInt(EMAIL_ATTACHMENT_MAX_SIZE, 25) * 1024L * 1024L;
+    }
+
+    /**
+     * Stores the uploaded attachments, outside the transaction of {@link #initTransaction} so a
+     * concurrent upload of the same content cannot roll it back. When one of them cannot be stored
+     * the ones already stored are released and the request fails.
+     */
+    @Override
+    public void storeAttachments(EmailRequest req) throws KLineException {
+        if (CollectionUtils.isEmpty(req.getAttachments()) || !req.isAttachment()) {
+            req.setAttachments(Collections.emptyList());
+            return;
+        }
+        logger.info("this request contain attach file...");
+        List<KlineEmailAttachment> attachments = new ArrayList<>();
         try {
-            KlineEmailAttachment mock = new KlineEmailAttachment();
-            mock.setMetaFileId(metaFile.getId());
-            attachments.add(mock);
+            for (KlineEmailAttachment e : req.getAttachments()) {
+                attachments.add(saveAttachmentTransaction(e.getMetaFile()));
+            }
         } catch (Exception e) {
             logger.error("Exception while save attachment transaction", e);
+            req.setAttachments(attachments);
+            req.setContainAttachment(true);
+            removeAttachFileOnSystem(req);
+            throw new KLineException(EXCEPTION_OCCURRED_WHILE_SAVING_ATTACHMENT);
         }
+        req.setAttachments(attachments);
+        req.setContainAttachment(true);
+    }
+
+    private KlineEmailAttachment saveAttachmentTransaction(MetaFile metaFile) throws IOException {
+        // identical files are stored once, the attachment points to the shared blob
+        KlineAttachmentBlob blob = attachmentStoreService.store(metaFile);
+        KlineEmailAttachment mock = new KlineEmailAttachment();
+        mock.setMetaFileId(blob.getMetaFile().getId());
+        mock.setBlob(blob);
+        return mock;
     }
 
+    /** Gives back the references taken by {@link #storeAttachments} when the email is not saved. */
     @Override
-    @Transactional
     public void removeAttachFileOnSystem(EmailRequest req) {
         if (req.isContainAttachment()) {
             for (KlineEmailAttachment e : req.getAttachments()) {
-                logger.info("File is {}", e.getMetaFile().getId());
-                String file = MetaFiles.getPath(e.getMetaFile()).toString();
                 try {
-                    Path path = Paths.get(file);
-                    boolean isRemoved = Files.deleteIfExists(path);
-                    logger.info("Removed file status | {} | on {}", isRemoved, file);
-
-                    //remove from db
-                    MetaFileRepository metaFileRepository = Beans.get(MetaFileRepository.class);
-                    MetaFile metaFile = metaFileRepository.find(e.getMetaFile().getId());
-                    metaFileRepository.remove(metaFile);
+                    // the file itself is removed by the reclaimer once nothing references it
+                    attachmentStoreService.release(e.getBlob());
                 } catch (Exception err) {
-                    logger.error("Exception occurred while remove file ", err);
+                    logger.error("Exception occurred while release attachment ", err);
                 }
             }
         }
@@ -186,18 +263,22 @@ public class EmailServiceImpl implements EmailService {
     }
 
     @Override
-    @Transactional
+    public TransactionModel findTransaction(Long emailTranId) {
+        KlineEmailTransaction emailTransaction = Beans.get(KlineEmailTransactionRepository.class).find(emailTranId);
+        if (emailTransaction == null) {
+            return null;
+        }
+        KlineTransaction klineTransaction = Beans.get(KlineTransactionRepository.class).all()
+                .filter("self.emailTranId = ?1", String.valueOf(emailTranId))
+                .fetchOne();
+        return new TransactionModel(emailTransaction, klineTransaction);
+    }
+
+    @Override
     public void updateTransaction(TransactionModel transactionModel, String status, String statusDesc) {
         if(transactionModel == null) return;
         try {
-            KlineEmailTransaction emailTransaction = transactionModel.getEmailTransaction();
-            emailTransaction.setStatus(status);
-            Beans.get(KlineEmailTransactionRepository.class).save(emailTransaction);
-
-            KlineTransaction klineTransaction = transactionModel.getKlineTransaction();
-            klineTransaction.setStatus(status);
-            klineTransaction.setStatusDesc(statusDesc);
-            Beans.get(KlineTransactionRepository.class).save(klineTransaction);
+            transactionJournal.record(transactionModel, status, statusDesc);
         } catch (Exception e) {
             logger.error("Exception occurred while updateTransaction", e);
             throw e;
@@ -210,16 +291,55 @@ public class EmailServiceImpl implements EmailService {
         String emailTranId = com.kline.communication.utils.StringUtils.toString(request.getContext().get("emailTranId"));
         KlineEmailTransactionRepository emailTransactionRepository = Beans.get(KlineEmailTransactionRepository.class);
         KlineEmailTransaction emailTransaction = emailTransactionRepository.find(Long.parseLong(emailTranId));
+        if (emailTransaction == null) {
+            generateArchivedEmailValue(Long.parseLong(emailTranId), response);
+            return;
+        }
 
         response.setValue("emailFrom", defaultIfNull(emailTransaction.getEmailFrom()));
         response.setValue("emailTo", emailTransaction.getEmailTo());
         response.setValue("emailCc", emailTransaction.getEmailCc());
         response.setValue("emailBcc", emailTransaction.getEmailBcc());
         response.setValue("emailSubject", defaultIfNull(emailTransaction.getEmailSubject()));
-        response.setValue("emailBody", defaultIfNull(emailTransaction.getEmailBody()));
+        response.setValue("emailBody", defaultIfNull(getEmailBody(emailTransaction)));
         response.setValue("emailAttachmentTransaction", initMetaFile(emailTransaction));
     }
 
+    /** Same values from {@link KlineEmailTransactionArchive} once the archiver moved the row. */
+    private void generateArchivedEmailValue(Long emailTranId, ActionResponse response) {
+        KlineEmailTransactionArchive archive = Beans.get(KlineEmailTransactionArchiveRepository.class).find(emailTranId);
+        if (archive == null) {
+            return;
+        }
+        response.setValue("emailFrom", defaultIfNull(archive.getEmailFrom()));
+        response.setValue("emailTo", archive.getEmailTo());
+        response.setValue("emailCc", archive.getEmailCc());
+        response.setValue("emailBcc", archive.getEmailBcc());
+        response.setValue("emailSubject", defaultIfNull(archive.getEmailSubject()));
+        response.setValue("emailBody", defaultIfNull(archive.getBody() != null
+                ? contentBodyService.load(archive.getBody()) : archive.getEmailBody()));
+        List<KlineEmailAttachmentTransaction> metaFiles = new ArrayList<>();
+        if (!StringUtils.isEmpty(archive.getAttachmentIds())) {
+            KlineEmailAttachmentRepository attachmentRepository = Beans.get(KlineEmailAttachmentRepository.class);
+            for (String id : archive.getAttachmentIds().split(",")) {
+                KlineEmailAttachment attachment = attachmentRepository.find(Long.valueOf(id));
+                if (attachment != null) {
+                    KlineEmailAttachmentTransaction mock = new KlineEmailAttachmentTransaction();
+                    mock.setMetaFile(Beans.get(MetaFileRepository.class).find(attachment.getMetaFileId()));
+                    metaFiles.add(mock);
+                }
+            }
+        }
+        response.setValue("emailAttachmentTransaction", metaFiles);
+    }
+
+    private String getEmailBody(KlineEmailTransaction emailTransaction) {
+        if (emailTransaction.getBody() != null) {
+            return contentBodyService.load(emailTransaction.getBody());
+        }
+        return emailTransaction.getEmailBody();
+    }
+
     @Transactional
     public List<KlineEmailAttachmentTransaction> initMetaFile(KlineEmailTransaction emailTransaction){
         if (!CollectionUtils.isEmpty(emailTransaction.getKlineEmailAttachment())) {
@@ -243,6 +363,7 @@ public class EmailServiceImpl implements EmailService {
         transaction.setStatus(STATUS_PENDING);
         transaction.setTranDate(now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
         transaction.setTranTime(now.format(DateTimeFormatter.ofPattern("HH:mm:ss")));
+        transaction.setTranDateTime(now);
         transaction.setEmailTranId(String.valueOf(tranId));
         transaction.setOwner(user.getName());
         KlineTransactionRepository klineTransactionRepository = Beans.get(KlineTransactionRepository.class);
@@ -251,14 +372,13 @@ public class EmailServiceImpl implements EmailService {
 
     private KlineEmailTransaction initKlineEmailTransaction(EmailRequest emailRequest, LocalDateTime now){
         KlineEmailTransaction emailTransaction = new KlineEmailTransaction();
-        emailRequest.setAttachments(initMetaFileId(emailRequest));
         emailTransaction.setEmailFrom(AuthUtils.getUser().getEmail());
         emailTransaction.setDateTime(now);
         emailTransaction.setEmailTo(generateEmailView(emailRequest.getEmailTo()));
         emailTransaction.setEmailCc(generateEmailView(emailRequest.getEmailCc()));
         emailTransaction.setEmailBcc(generateEmailView(emailRequest.getEmailBcc()));
         emailTransaction.setEmailSubject(emailRequest.getSubject());
-        emailTransaction.setEmailBody(emailRequest.getContent());
+        emailTransaction.setBody(contentBodyService.store(emailRequest.getContent()));
         emailTransaction.setKlineEmailAttachment(emailRequest.getAttachments());
         emailTransaction.setStatus(STATUS_PENDING);
         KlineEmailTransactionRepository emailTransactionRepository = Beans.get(KlineEmailTransactionRepository.class);
@@ -269,63 +389,43 @@ public class EmailServiceImpl implements EmailService {
         if (CollectionUtils.isEmpty(emailTo)) {
             return " - ";
         }
-        StringBuilder result = new StringBuilder();
+        StringBuilder result = new StringBuilder(emailTo.size() * 32);
         for (InternetAddress internetAddress : emailTo) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
             result.append(internetAddress.getAddress());
-            result.append(", ");
         }
-        return result.toString().substring(0, result.toString().length() - 2);
-    }
-
-    private Properties initProperties() {
-        Properties properties = new Properties();
-        properties.put("mail.smtp.host", AppSettings.get().get("smtp.host"));
-        properties.put("mail.smtp.port", AppSettings.get().get("smtp.port"));
-        properties.put("mail.smtp.auth", true);
-        properties.put("mail.user", AppSettings.get().get("smtp.user"));
-        properties.put("mail.password", AppSettings.get().get("smtp.pwd"));
-        properties.put("mail.smtp.ssl.trust", "*");
-        return properties;
-    }
-
-    private Authenticator initAuthenticator() {
-        return new Authenticator() {
-            @Override
-            public PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(AppSettings.get().get("smtp.user"), AppSettings.get().get("smtp.pwd"));
-            }
-        };
+        return result.toString();
     }
 
     private String defaultIfNull(String input) {
         return StringUtils.isEmpty(input) ? " - " : input;
     }
 
-    private List<InternetAddress> validateEmailFormat(Set<EmailAddress> emailAddresses, ERROR error) throws KLineException, AddressException {
-        List<InternetAddress> addresses = new ArrayList<>();
-
-        if (emailAddresses != null) {
-            for (EmailAddress e : emailAddresses) {
-                if (e.getAddress() != null) {
-                    if (!Pattern.matches(EMAIL_PATTERN, e.getAddress())) {
-                        throw new KLineException(error);
-                    } else {
-                        addresses.add(new InternetAddress(e.getAddress()));
-                    }
+    private List<InternetAddress> validateEmailFormat(Set<EmailAddress> emailAddresses, ERROR error) throws KLineException {
+        if (emailAddresses == null || emailAddresses.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<InternetAddress> addresses = new ArrayList<>(emailAddresses.size());
+        for (EmailAddress e : emailAddresses) {
+            if (e.getAddress() != null) {
+                if (!EmailTool.isValidEmailAddress(e.getAddress())) {
+                    throw new KLineException(error);
                 }
+                // already validated, no need to parse it again
+                InternetAddress address = new InternetAddress();
+                address.setAddress(e.getAddress());
+                addresses.add(address);
             }
         }
         return addresses;
     }
 
-    private InternetAddress[] initInternetAddress(List<InternetAddress> addresses) {
-        if(!CollectionUtils.isEmpty(addresses)){
-            InternetAddress[] internetAddresses = new InternetAddress[addresses.size()];
-            for (int i = 0; i < addresses.size(); i++) {
-                internetAddresses[i] = addresses.get(i);
-            }
-            return internetAddresses;
+    private InternetAddress[] parseEmailView(String emailView) throws AddressException {
+        if (StringUtils.isEmpty(emailView) || " - ".equals(emailView)) {
+            return new InternetAddress[]{};
         }
-        return new InternetAddress[]{};
+        return InternetAddress.parse(emailView);
     }
 }
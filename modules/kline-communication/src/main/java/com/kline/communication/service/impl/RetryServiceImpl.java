@@ -0,0 +1,307 @@
+package com.kline.communication.service.impl;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.axelor.inject.Beans;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.kline.communication.db.KlineEmailTransaction;
+import com.kline.communication.db.KlineSmsTransaction;
+import com.kline.communication.db.KlineTransaction;
+import com.kline.communication.db.repo.KlineEmailTransactionRepository;
+import com.kline.communication.db.repo.KlineSmsTransactionRepository;
+import com.kline.communication.db.repo.KlineTransactionRepository;
+import com.kline.communication.jdbc.TransactionJournal;
+import com.kline.communication.model.SmsRequest;
+import com.kline.communication.model.SmsResponse;
+import com.kline.communication.model.TransactionModel;
+import com.kline.communication.retry.DueQueue;
+import com.kline.communication.retry.RetryPolicy;
+import com.kline.communication.service.EmailService;
+import com.kline.communication.service.RetryService;
+import com.kline.communication.service.SmsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Retries email and sms transactions that failed for a transient reason.
+ *
+ * A failure is recorded with its attempt count and, while {@link RetryPolicy} allows it, a
+ * {@code nextRetryAt}. Planned retries wait in a {@link DueQueue}, the table is only read once at
+ * startup (rows with a {@code nextRetryAt}) and for sms transactions left pending longer than
+ * {@code retry.pending-timeout}; pending emails are already recovered by the email queue.
+ * Campaign rows are not retried, their per-recipient values are not kept.
+ *
+ * Every node loads and recovers from the same table, so an attempt first claims the row: its
+ * {@code nextRetryAt} is moved to the end of a lease of {@code retry.pending-timeout} in one
+ * conditional update, and only the node whose update changed the row sends. A lease left by a lost
+ * node is overdue once it ends and is recovered like a timed out pending sms.
+ */
+@Singleton
+public class RetryServiceImpl implements RetryService {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private EmailService emailService;
+
+    @Inject
+    private SmsService smsService;
+
+    @Inject
+    private TransactionJournal transactionJournal;
+
+    private final RetryPolicy policy = RetryPolicy.fromSettings();
+
+    private final DueQueue<Retry> dueQueue =
+            new DueQueue<>(AppSettings.get().getInt(RETRY_BUCKET, 5) * 1000L);
+
+    private final Set<Long> scheduled = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService ticker;
+
+    private ExecutorService workers;
+
+    @Override
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        long bucket = AppSettings.get().getInt(RETRY_BUCKET, 5) * 1000L;
+        int pendingTimeout = AppSettings.get().getInt(RETRY_PENDING_TIMEOUT, 600);
+        workers = Executors.newFixedThreadPool(AppSettings.get().getInt(RETRY_WORKERS, 2),
+                namedThreadFactory("kline-retry-worker"));
+        ticker = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("kline-retry-ticker"));
+        ticker.execute(this::loadScheduled);
+        ticker.scheduleWithFixedDelay(this::dispatchDue, bucket, bucket, TimeUnit.MILLISECONDS);
+        ticker.scheduleWithFixedDelay(this::recoverTimedOut, pendingTimeout, pendingTimeout, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (ticker == null) {
+            return;
+        }
+        ticker.shutdownNow();
+        workers.shutdown();
+        try {
+            // planned retries keep their nextRetryAt and are loaded again on next start
+            workers.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        ticker = null;
+        workers = null;
+    }
+
+    @Override
+    public void onFailure(TransactionModel transactionModel, Throwable error) {
+        if (transactionModel == null || transactionModel.getKlineTransaction() == null) {
+            return;
+        }
+        KlineTransaction klineTransaction = transactionModel.getKlineTransaction();
+        TransactionJournal.Entry entry = transactionJournal.find(klineTransaction.getId());
+        int attempts = entry != null && entry.getAttempts() != null ? entry.getAttempts() : klineTransaction.getAttempts();
+        onFailure(transactionModel, error, attempts + 1);
+    }
+
+    private void onFailure(TransactionModel transactionModel, Throwable error, int attempts) {
+        Long id = transactionModel.getKlineTransaction().getId();
+        String statusDesc = error.getMessage();
+        if (transactionModel.getKlineTransaction().getCampaign() == null
+                && RetryPolicy.isTransient(error) && policy.canRetry(attempts)) {
+            LocalDateTime nextRetryAt = LocalDateTime.now().plusNanos(
+                    TimeUnit.MILLISECONDS.toNanos(policy.nextDelayMillis(attempts)));
+            transactionJournal.record(transactionModel, STATUS_FAILED, statusDesc, attempts, nextRetryAt);
+            schedule(id, attempts, nextRetryAt);
+            logger.info("Transaction {} failed ({} attempt(s)), retry at {}", id, attempts, nextRetryAt);
+        } else {
+            transactionJournal.record(transactionModel, STATUS_FAILED, statusDesc, attempts, null);
+            logger.info("Transaction {} failed ({} attempt(s)), no retry", id, attempts);
+        }
+    }
+
+    private void schedule(Long id, int attempts, LocalDateTime dueAt) {
+        if (scheduled.add(id)) {
+            dueQueue.add(new Retry(id, attempts), dueAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+    }
+
+    private void dispatchDue() {
+        try {
+            for (Retry retry : dueQueue.pollDue(System.currentTimeMillis(), 500)) {
+                try {
+                    workers.execute(() -> retry(retry));
+                } catch (RejectedExecutionException e) {
+                    scheduled.remove(retry.id);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Exception occurred while dispatch retries", e);
+        }
+    }
+
+    /**
+     * Takes the lease on a due retry or a timed out pending row, false when another node holds it
+     * or the row changed meanwhile. Due is widened by one bucket, the queue may hand items out early.
+     */
+    @Override
+    public boolean claim(Long id) {
+        LocalDateTime now = LocalDateTime.now();
+        AtomicInteger claimed = new AtomicInteger();
+        JPA.runInTransaction(() -> claimed.set(JPA.em()
+                .createQuery("UPDATE KlineTransaction self SET self.nextRetryAt = :leaseUntil,"
+                        + " self.version = self.version + 1 WHERE self.id = :id"
+                        + " AND (self.nextRetryAt <= :due OR (self.nextRetryAt IS NULL AND self.status = :pending))")
+                .setParameter("leaseUntil", now.plusSeconds(AppSettings.get().getInt(RETRY_PENDING_TIMEOUT, 600)))
+                .setParameter("id", id)
+                .setParameter("due", now.plusSeconds(AppSettings.get().getInt(RETRY_BUCKET, 5)))
+                .setParameter("pending", STATUS_PENDING)
+                .executeUpdate()));
+        return claimed.get() == 1;
+    }
+
+    private void releaseClaim(Long id) {
+        JPA.runInTransaction(() -> JPA.em()
+                .createQuery("UPDATE KlineTransaction self SET self.nextRetryAt = NULL, self.version = self.version + 1"
+                        + " WHERE self.id = :id")
+                .setParameter("id", id)
+                .executeUpdate());
+    }
+
+    private void retry(Retry retry) {
+        scheduled.remove(retry.id);
+        TransactionModel transactionModel = null;
+        try {
+            TransactionJournal.Entry entry = transactionJournal.find(retry.id);
+            if (entry != null && entry.getNextRetryAt() == null) {
+                // a final result is already known here, it is only waiting to be written
+                return;
+            }
+            if (!claim(retry.id)) {
+                logger.debug("Transaction {} is retried by another node", retry.id);
+                return;
+            }
+            KlineTransaction klineTransaction = Beans.get(KlineTransactionRepository.class).find(retry.id);
+            if (klineTransaction == null || isDone(klineTransaction)) {
+                releaseClaim(retry.id);
+                return;
+            }
+            if (TYPE_EMAIL.equals(klineTransaction.getType())) {
+                KlineEmailTransaction emailTransaction = Beans.get(KlineEmailTransactionRepository.class)
+                        .find(Long.valueOf(klineTransaction.getEmailTranId()));
+                transactionModel = new TransactionModel(emailTransaction, klineTransaction);
+                transactionModel.setProviderMessageId(emailService.sendEmail(emailTransaction));
+                transactionJournal.record(transactionModel, STATUS_SUCCESS, SEND_EMAIL_SUCCESSFULLY, retry.attempts + 1, null);
+            } else {
+                KlineSmsTransaction smsTransaction = Beans.get(KlineSmsTransactionRepository.class)
+                        .find(Long.valueOf(klineTransaction.getSmsTranId()));
+                transactionModel = new TransactionModel(smsTransaction, klineTransaction);
+                SmsResponse smsResponse = smsService.sendSms(
+                        new SmsRequest(new String[]{smsTransaction.getSmsTo()}, smsTransaction.getMessage()),
+                        klineTransaction.getOwner());
+                // the gateway answered, a rejection will not change on the next attempt
+                boolean success = SMS_SUCCESS_RESPONSE.equals(smsResponse.getResultCode());
+                transactionModel.setProviderMessageId(smsResponse.getMessageId());
+                transactionJournal.record(transactionModel, success ? STATUS_SUCCESS : STATUS_FAILED,
+                        success ? SEND_SMS_SUCCESSFULLY : smsResponse.getResultDesc(), retry.attempts + 1, null);
+            }
+        } catch (Exception e) {
+            logger.error("Exception occurred while retry transaction {}", retry.id, e);
+            if (transactionModel != null) {
+                onFailure(transactionModel, e, retry.attempts + 1);
+            }
+        } finally {
+            JPA.clear();
+        }
+    }
+
+    private boolean isDone(KlineTransaction klineTransaction) {
+        TransactionJournal.Entry entry = transactionJournal.find(klineTransaction.getId());
+        String status = entry != null ? entry.getStatus() : klineTransaction.getStatus();
+        return STATUS_SUCCESS.equals(status);
+    }
+
+    private void loadScheduled() {
+        int batch = AppSettings.get().getInt(RETRY_LOAD_BATCH, 500);
+        long lastId = 0;
+        int loaded = 0;
+        try {
+            List<Map> rows;
+            do {
+                rows = Beans.get(KlineTransactionRepository.class).all()
+                        .filter("self.nextRetryAt IS NOT NULL AND self.id > ?1", lastId)
+                        .order("id")
+                        .select("id", "attempts", "nextRetryAt")
+                        .fetch(batch, 0);
+                for (Map row : rows) {
+                    lastId = (Long) row.get("id");
+                    Integer attempts = (Integer) row.get("attempts");
+                    schedule(lastId, attempts == null ? 0 : attempts, (LocalDateTime) row.get("nextRetryAt"));
+                }
+                loaded += rows.size();
+                JPA.clear();
+            } while (rows.size() == batch);
+            logger.info("Loaded {} planned retry(s)", loaded);
+        } catch (Exception e) {
+            logger.error("Exception occurred while load planned retries", e);
+        }
+    }
+
+    /**
+     * A pending sms this old was lost by the dispatch pool (restart, shutdown timeout), a retry this
+     * overdue was planned or leased by a node that is gone. They are claimed before being sent.
+     */
+    private void recoverTimedOut() {
+        try {
+            int batch = AppSettings.get().getInt(RETRY_LOAD_BATCH, 500);
+            LocalDateTime before = LocalDateTime.now().minusSeconds(AppSettings.get().getInt(RETRY_PENDING_TIMEOUT, 600));
+            List<Map> rows = Beans.get(KlineTransactionRepository.class).all()
+                    .filter("(self.type = ?1 AND self.status = ?2 AND self.nextRetryAt IS NULL AND self.createdOn < ?3)"
+                                    + " OR self.nextRetryAt < ?3",
+                            TYPE_SMS, STATUS_PENDING, before)
+                    .order("id")
+                    .select("id", "attempts")
+                    .fetch(batch, 0);
+            LocalDateTime now = LocalDateTime.now();
+            for (Map row : rows) {
+                Long id = (Long) row.get("id");
+                if (transactionJournal.find(id) == null) {
+                    Integer attempts = (Integer) row.get("attempts");
+                    schedule(id, attempts == null ? 0 : attempts, now);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Exception occurred while recover timed out transactions", e);
+        } finally {
+            JPA.clear();
+        }
+    }
+
+    private static final class Retry {
+        private final Long id;
+        private final int attempts;
+
+        private Retry(Long id, int attempts) {
+            this.id = id;
+            this.attempts = attempts;
+        }
+    }
+}
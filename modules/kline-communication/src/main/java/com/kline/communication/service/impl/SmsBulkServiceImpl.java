@@ -0,0 +1,336 @@
+package com.kline.communication.service.impl;
+
+import com.axelor.app.AppSettings;
+import com.axelor.auth.AuthUtils;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.kline.communication.campaign.CsvRecipientSource;
+import com.kline.communication.campaign.RecipientSource;
+import com.kline.communication.db.KlineSmsTemplate;
+import com.kline.communication.db.KlineSmsTransaction;
+import com.kline.communication.db.KlineTransaction;
+import com.kline.communication.exception.KLineException;
+import com.kline.communication.jdbc.TransactionBatchWriter;
+import com.kline.communication.jdbc.TransactionJournal;
+import com.kline.communication.model.SmsRequest;
+import com.kline.communication.model.SmsResponse;
+import com.kline.communication.model.TransactionModel;
+import com.kline.communication.service.RetryService;
+import com.kline.communication.service.SmsBulkService;
+import com.kline.communication.service.SmsService;
+import com.kline.communication.service.SmsTemplateService;
+import com.kline.communication.sms.MobileNoSource;
+import com.kline.communication.sms.SmsSegments;
+import com.kline.communication.utils.PlaceholderTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+import static com.kline.communication.constant.CommunicationConstant.ERROR.*;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Sends an sms to a list of mobile numbers typed in the form or read from an uploaded file.
+ *
+ * Numbers are validated, de-duplicated and, when every recipient gets the same text, grouped into
+ * gateway requests of {@code sms.bulk.batch-size}. A text with {@code ${placeholders}} is rendered
+ * per recipient from the columns of a csv file with a header row ({@code mobileNo} column) and sent
+ * one number per request. {@code sms.bulk.senders} threads post the requests concurrently through
+ * {@link SmsService#sendBulkSms} so the gateway bulkhead and breaker still apply, each request
+ * waiting for one rate limit token per number.
+ *
+ * Every number gets one {@link KlineSmsTransaction} and one {@link KlineTransaction}, with the
+ * number of segments billed for the text, inserted as Pending in JDBC batches of
+ * {@code sms.bulk.insert-batch} before any of them is sent; a run lost half way leaves them Pending
+ * for the retry service to recover. The gateway answers once per request, that result is recorded
+ * for every number of the batch through the {@link TransactionJournal}, and a failed request is
+ * handed to the {@link RetryService} which plans the retries of each number.
+ */
+@Singleton
+public class SmsBulkServiceImpl implements SmsBulkService {
+
+    private static final Batch END_OF_BATCHES = new Batch(new String[0], null, null, new TransactionModel[0]);
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private SmsService smsService;
+
+    @Inject
+    private SmsTemplateService smsTemplateService;
+
+    @Inject
+    private TransactionBatchWriter transactionBatchWriter;
+
+    @Inject
+    private TransactionJournal transactionJournal;
+
+    @Inject
+    private RetryService retryService;
+
+    private final ExecutorService runner = Executors.newFixedThreadPool(
+            AppSettings.get().getInt(SMS_BULK_MAX_RUNNING, 2), namedThreadFactory("kline-sms-bulk"));
+
+    @Override
+    public void validateBulkRequest(String content, Path recipientFile, String recipients) throws KLineException {
+        if (StringUtils.isEmpty(content)) {
+            throw new KLineException(SMS_CONTENT_IS_REQUIRED);
+        }
+        if (recipientFile == null && StringUtils.isEmpty(recipients)) {
+            throw new KLineException(SMS_MOBILE_NO_IS_REQUIRED);
+        }
+    }
+
+    @Override
+    public void start(String content, KlineSmsTemplate smsTemplate, Path recipientFile, String recipients)
+            throws KLineException {
+        validateBulkRequest(content, recipientFile, recipients);
+        BulkRun run = new BulkRun(smsTemplateService.resolve(smsTemplate, content), AuthUtils.getUser().getName());
+        runner.execute(() -> run(run, recipientFile, recipients));
+    }
+
+    private void run(BulkRun run, Path recipientFile, String recipients) {
+        int senders = AppSettings.get().getInt(SMS_BULK_SENDERS, 4);
+        int batchSize = run.shared == null ? 1 : Math.max(AppSettings.get().getInt(SMS_BULK_BATCH_SIZE, 100), 1);
+        int insertBatch = AppSettings.get().getInt(SMS_BULK_INSERT_BATCH, 500);
+        BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(senders * 2);
+        ExecutorService senderPool = Executors.newFixedThreadPool(senders, namedThreadFactory("kline-sms-bulk-sender"));
+        for (int i = 0; i < senders; i++) {
+            senderPool.execute(() -> send(run, batches));
+        }
+        logger.info("Bulk sms started with {} sender(s), {} number(s) per request", senders, batchSize);
+
+        try (RecipientSource source = openSource(run, recipientFile, recipients)) {
+            // a 10 digit number fits in a long, much smaller than keeping the strings
+            Set<Long> seen = new HashSet<>();
+            List<String> batch = new ArrayList<>(batchSize);
+            Group group = new Group();
+            StringBuilder text = new StringBuilder();
+            while (source.hasNext()) {
+                Map<String, String> values = source.next();
+                String mobileNo = MobileNoSource.normalize(values.get(RecipientSource.MOBILE_NO));
+                if (!MobileNoSource.isValidMobileNo(mobileNo)) {
+                    group.rows.add(run.newTransaction(values.get(RecipientSource.MOBILE_NO), run.shared, null,
+                            STATUS_FAILED, INVALID_MOBILE_NO.getMessage()));
+                    run.failed.incrementAndGet();
+                } else if (!seen.add(Long.parseLong(mobileNo))) {
+                    continue;
+                } else if (run.shared == null) {
+                    text.setLength(0);
+                    run.template.appendTo(text, values);
+                    group.add(run, new String[]{mobileNo}, text.toString(), SmsSegments.of(text));
+                } else {
+                    batch.add(mobileNo);
+                    if (batch.size() == batchSize) {
+                        group.add(run, batch.toArray(new String[0]), run.shared, run.sharedSegments);
+                        batch.clear();
+                    }
+                }
+                if (group.rows.size() >= insertBatch) {
+                    persistAndQueue(group, batches);
+                    group = new Group();
+                }
+            }
+            if (!batch.isEmpty()) {
+                group.add(run, batch.toArray(new String[0]), run.shared, run.sharedSegments);
+            }
+            persistAndQueue(group, batches);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // nothing that was not saved has been sent
+            logger.error("Exception occurred while reading or saving bulk sms recipients, the run stops", e);
+        } finally {
+            try {
+                for (int i = 0; i < senders; i++) {
+                    batches.put(END_OF_BATCHES);
+                }
+                senderPool.shutdown();
+                senderPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                senderPool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            logger.info("Bulk sms finished, sent: {} ({} segment(s)), failed: {}",
+                    run.sent.get(), run.segments.get(), run.failed.get());
+        }
+    }
+
+    /** Saves the rows of the group as they are before queueing any of its requests. */
+    private void persistAndQueue(Group group, BlockingQueue<Batch> batches) throws InterruptedException {
+        List<KlineSmsTransaction> smsTransactions = new ArrayList<>(group.rows.size());
+        List<KlineTransaction> transactions = new ArrayList<>(group.rows.size());
+        for (TransactionModel row : group.rows) {
+            smsTransactions.add(row.getSmsTransaction());
+            transactions.add(row.getKlineTransaction());
+        }
+        transactionBatchWriter.insertSmsTransactions(smsTransactions, transactions);
+        for (Batch batch : group.batches) {
+            batches.put(batch);
+        }
+    }
+
+    /** Placeholders need the columns of a csv file, otherwise any list of numbers will do. */
+    private RecipientSource openSource(BulkRun run, Path recipientFile, String recipients) throws IOException {
+        if (recipientFile != null && run.shared == null) {
+            char separator = AppSettings.get().get(CAMPAIGN_CSV_SEPARATOR, ",").charAt(0);
+            return new CsvRecipientSource(recipientFile, separator, RecipientSource.MOBILE_NO);
+        }
+        return new NumberListSource(recipientFile != null
+                ? new MobileNoSource(Files.newBufferedReader(recipientFile, StandardCharsets.UTF_8))
+                : new MobileNoSource(new StringReader(recipients)));
+    }
+
+    private void send(BulkRun run, BlockingQueue<Batch> batches) {
+        try {
+            Batch batch;
+            while ((batch = batches.take()) != END_OF_BATCHES) {
+                sendBatch(run, batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Sent once, the retries of a failed request are planned per number by the retry service. */
+    private void sendBatch(BulkRun run, Batch batch) throws InterruptedException {
+        try {
+            SmsResponse smsResponse = smsService.sendBulkSms(new SmsRequest(batch.mobileNo, batch.content), run.owner);
+            boolean success = SMS_SUCCESS_RESPONSE.equals(smsResponse.getResultCode());
+            for (TransactionModel row : batch.rows) {
+                row.setProviderMessageId(smsResponse.getMessageId());
+                transactionJournal.record(row, success ? STATUS_SUCCESS : STATUS_FAILED,
+                        success ? SEND_SMS_SUCCESSFULLY : smsResponse.getResultDesc(), 1, null);
+            }
+            if (success) {
+                run.sent.addAndGet(batch.rows.length);
+                run.segments.addAndGet((long) batch.segments.getSegments() * batch.rows.length);
+            } else {
+                run.failed.addAndGet(batch.rows.length);
+            }
+        } catch (KLineException | RuntimeException e) {
+            logger.error("Exception occurred while sending bulk sms batch of {} number(s)", batch.mobileNo.length, e);
+            for (TransactionModel row : batch.rows) {
+                retryService.onFailure(row, e);
+            }
+            run.failed.addAndGet(batch.rows.length);
+        }
+    }
+
+    /** The requests of up to {@code sms.bulk.insert-batch} rows, saved together. */
+    private static class Group {
+        private final List<TransactionModel> rows = new ArrayList<>();
+        private final List<Batch> batches = new ArrayList<>();
+
+        private void add(BulkRun run, String[] mobileNo, String content, SmsSegments segments) {
+            TransactionModel[] batchRows = new TransactionModel[mobileNo.length];
+            for (int i = 0; i < mobileNo.length; i++) {
+                batchRows[i] = run.newTransaction(mobileNo[i], content, segments, STATUS_PENDING, null);
+                rows.add(batchRows[i]);
+            }
+            batches.add(new Batch(mobileNo, content, segments, batchRows));
+        }
+    }
+
+    private static class Batch {
+        private final String[] mobileNo;
+        private final String content;
+        private final SmsSegments segments;
+        private final TransactionModel[] rows;
+
+        private Batch(String[] mobileNo, String content, SmsSegments segments, TransactionModel[] rows) {
+            this.mobileNo = mobileNo;
+            this.content = content;
+            this.segments = segments;
+            this.rows = rows;
+        }
+    }
+
+    private static class BulkRun {
+        private final PlaceholderTemplate template;
+        /** The text of every recipient, {@code null} when it is personalized. */
+        private final String shared;
+        private final SmsSegments sharedSegments;
+        private final String owner;
+        private final LocalDateTime startedOn = LocalDateTime.now();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong segments = new AtomicLong();
+
+        private BulkRun(PlaceholderTemplate template, String owner) {
+            this.template = template;
+            this.shared = template.hasPlaceholders() ? null : template.render(Collections.emptyMap());
+            this.sharedSegments = shared == null ? null : SmsSegments.of(shared);
+            this.owner = owner;
+        }
+
+        private TransactionModel newTransaction(String mobileNo, String content, SmsSegments smsSegments,
+                                                String status, String statusDesc) {
+            LocalDateTime now = LocalDateTime.now();
+            KlineSmsTransaction smsTransaction = new KlineSmsTransaction();
+            smsTransaction.setDateTime(startedOn);
+            smsTransaction.setMessage(content);
+            smsTransaction.setOwner(owner);
+            smsTransaction.setStatus(status);
+            smsTransaction.setSmsTo(mobileNo);
+            smsTransaction.setSegments(smsSegments == null ? 0 : smsSegments.getSegments());
+
+            KlineTransaction transaction = new KlineTransaction();
+            transaction.setType(TYPE_SMS);
+            transaction.setMobileNo(mobileNo);
+            transaction.setStatus(status);
+            transaction.setStatusDesc(statusDesc);
+            transaction.setTranDate(now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+            transaction.setTranTime(now.format(DateTimeFormatter.ofPattern("HH:mm:ss")));
+            transaction.setTranDateTime(now);
+            transaction.setOwner(owner);
+            transaction.setAttempts(0);
+            return new TransactionModel(smsTransaction, transaction);
+        }
+    }
+
+    /** A plain list of numbers as recipients without any other value. */
+    private static class NumberListSource implements RecipientSource {
+        private final MobileNoSource numbers;
+
+        private NumberListSource(MobileNoSource numbers) {
+            this.numbers = numbers;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return numbers.hasNext();
+        }
+
+        @Override
+        public Map<String, String> next() {
+            return Collections.singletonMap(MOBILE_NO, numbers.next());
+        }
+
+        @Override
+        public void close() throws IOException {
+            numbers.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.kline.communication.service.impl;
+
+import com.axelor.app.AppSettings;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.kline.communication.exception.KLineException;
+import com.kline.communication.model.SmsRequest;
+import com.kline.communication.model.SmsResponse;
+import com.kline.communication.model.TransactionModel;
+import com.kline.communication.service.RetryService;
+import com.kline.communication.service.SmsDispatchService;
+import com.kline.communication.service.SmsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+import static com.kline.communication.constant.CommunicationConstant.ERROR.SMS_GATEWAY_IS_BUSY;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Sends sms off the request thread.
+ *
+ * The controller only persists the PENDING transaction and hands it over; the gateway call runs on
+ * a bounded pool and its outcome is applied by the completion stage, a failure goes to the
+ * {@link RetryService}. When the pool is full the dispatch fails as {@code SMS_GATEWAY_IS_BUSY}, a
+ * transient failure, so the sms is retried later instead of being lost.
+ *
+ * A worker claims the transaction through {@link RetryService#claim} before calling the gateway, so
+ * the retry service does not recover an sms that is still queued or being sent; the outcome written
+ * by the journal clears the lease. An sms recovered while it waited in the queue is skipped.
+ */
+@Singleton
+public class SmsDispatchServiceImpl implements SmsDispatchService {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private SmsService smsService;
+
+    @Inject
+    private RetryService retryService;
+
+    private volatile ThreadPoolExecutor executor;
+
+    @Override
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        int workers = AppSettings.get().getInt(SMS_DISPATCH_WORKERS, 8);
+        int capacity = AppSettings.get().getInt(SMS_DISPATCH_CAPACITY, 1000);
+        logger.info("Starting sms dispatch with {} workers, capacity {}", workers, capacity);
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity), namedThreadFactory("kline-sms-dispatch"));
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                // left pending in db, recovered by the retry service after retry.pending-timeout
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    @Override
+    public CompletableFuture<SmsResponse> dispatch(SmsRequest req, TransactionModel transactionModel) {
+        ThreadPoolExecutor current = executor;
+        CompletableFuture<SmsResponse> future;
+        try {
+            if (current == null) {
+                throw new RejectedExecutionException("sms dispatch is not started");
+            }
+            Long id = transactionModel.getKlineTransaction().getId();
+            future = CompletableFuture.supplyAsync(() -> {
+                if (!retryService.claim(id)) {
+                    logger.debug("Sms transaction {} is sent by the retry service", id);
+                    return null;
+                }
+                try {
+                    return smsService.sendSms(req, transactionModel.getKlineTransaction().getOwner());
+                } catch (KLineException e) {
+                    throw new CompletionException(e);
+                }
+            }, current);
+        } catch (RejectedExecutionException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(new KLineException(SMS_GATEWAY_IS_BUSY, e));
+        }
+        // only the journal is touched here, safe on the request thread when the pool rejected the sms
+        return future.whenComplete((smsResponse, error) -> {
+            if (error == null && smsResponse == null) {
+                return;
+            }
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                logger.error("Exception occurred while sending sms transaction {}",
+                        transactionModel.getKlineTransaction().getId(), cause);
+                retryService.onFailure(transactionModel, cause);
+            } else if (SMS_SUCCESS_RESPONSE.equals(smsResponse.getResultCode())) {
+                transactionModel.setProviderMessageId(smsResponse.getMessageId());
+                smsService.updateTransaction(transactionModel, STATUS_SUCCESS, SEND_SMS_SUCCESSFULLY);
+            } else {
+                logger.info("sms response : {}", smsResponse);
+                smsService.updateTransaction(transactionModel, STATUS_FAILED, smsResponse.getResultDesc());
+            }
+        });
+    }
+}
@@ -5,29 +5,39 @@ import com.axelor.auth.AuthUtils;
 import com.axelor.inject.Beans;
 import com.axelor.rpc.ActionRequest;
 import com.axelor.rpc.ActionResponse;
-import com.google.gson.Gson;
+import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
+import com.kline.communication.campaign.RecipientSource;
+import com.kline.communication.db.KlineSmsTemplate;
 import com.kline.communication.db.KlineSmsTransaction;
+import com.kline.communication.db.KlineSmsTransactionArchive;
 import com.kline.communication.db.KlineTransaction;
+import com.kline.communication.db.repo.KlineSmsTransactionArchiveRepository;
 import com.kline.communication.db.repo.KlineSmsTransactionRepository;
 import com.kline.communication.db.repo.KlineTransactionRepository;
 import com.kline.communication.exception.KLineException;
+import com.kline.communication.gateway.SmsGateway;
+import com.kline.communication.gateway.SmsHttpClient;
+import com.kline.communication.jdbc.TransactionJournal;
+import com.kline.communication.model.HttpPoolStats;
+import com.kline.communication.model.SmsGatewayStats;
 import com.kline.communication.model.SmsRequest;
 import com.kline.communication.model.SmsResponse;
 import com.kline.communication.model.TransactionModel;
+import com.kline.communication.ratelimit.RateLimiter;
 import com.kline.communication.service.SmsService;
+import com.kline.communication.service.SmsTemplateService;
+import com.kline.communication.sms.SmsSegments;
+import com.kline.communication.utils.PlaceholderTemplate;
 import com.kline.communication.utils.StringUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import static com.kline.communication.constant.CommunicationConstant.ERROR.*;
 import static com.kline.communication.constant.CommunicationConstant.*;
@@ -36,6 +46,21 @@ public class SmsServiceImpl implements SmsService {
 
     private Logger logger = LoggerFactory.getLogger(getClass());
 
+    @Inject
+    private TransactionJournal transactionJournal;
+
+    @Inject
+    private SmsGateway smsGateway;
+
+    @Inject
+    private SmsHttpClient smsHttpClient;
+
+    @Inject
+    private RateLimiter rateLimiter;
+
+    @Inject
+    private SmsTemplateService smsTemplateService;
+
     @Override
     public SmsRequest validateRequest(ActionRequest request) throws KLineException {
         String smsContent = StringUtils.toString(request.getContext().get("smsContent"));
@@ -50,27 +75,46 @@ public class SmsServiceImpl implements SmsService {
             throw new KLineException(INVALID_MOBILE_NO);
         }
         String[] mobileNo = {smsTo};
-        return new SmsRequest(mobileNo, smsContent);
+        // a single send only knows the number, any other placeholder would go out empty
+        KlineSmsTemplate smsTemplate = (KlineSmsTemplate) request.getContext().get("klineSmsTemplate");
+        PlaceholderTemplate template = smsTemplateService.resolve(smsTemplate, smsContent);
+        for (String name : template.getNames()) {
+            if (!RecipientSource.MOBILE_NO.equals(name)) {
+                throw new KLineException(SMS_CONTENT_HAS_UNKNOWN_PLACEHOLDER);
+            }
+        }
+        String content = template.render(Collections.singletonMap(RecipientSource.MOBILE_NO, smsTo));
+        return new SmsRequest(mobileNo, content);
     }
 
     @Override
-    public SmsResponse sendSms(SmsRequest req) throws KLineException {
-        try {
-            HttpClient client = HttpClientBuilder.create().build();
-            HttpPost post = new HttpPost(AppSettings.get().get("sms.url"));
-            StringEntity entity = new StringEntity(new Gson().toJson(req));
-            post.setEntity(entity);
-            post.setHeader("Content-Type", "application/json");
-            post.setHeader("requestor", "CRM");
-            post.setHeader("transactionId", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddhhmmss")));
-            post.setHeader("transactionDateTime", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss")));
-            HttpResponse response = client.execute(post);
-            System.out.println(response);
-            return new Gson().fromJson(EntityUtils.toString(response.getEntity(), "UTF-8"), SmsResponse.class);
-        } catch (Exception e) {
-            logger.error("Exception while send sms : ", e);
-            throw new KLineException(EXCEPTION_OCCURRED_WHILE_SENDING_SMS, e);
-        }
+    public SmsResponse sendSms(SmsRequest req, String owner) throws KLineException {
+        rateLimiter.acquire(TYPE_SMS, owner, req.getMobileNo().length);
+        return post(req);
+    }
+
+    @Override
+    public SmsResponse sendBulkSms(SmsRequest req, String owner) throws KLineException, InterruptedException {
+        rateLimiter.awaitBulkSms(owner, req.getMobileNo().length);
+        return post(req);
+    }
+
+    private SmsResponse post(SmsRequest req) throws KLineException {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("requestor", "CRM");
+        headers.put("transactionId", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddhhmmss")));
+        headers.put("transactionDateTime", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss")));
+        return smsGateway.execute(() -> smsHttpClient.postJson(AppSettings.get().get("sms.url"), headers, req, SmsResponse.class));
+    }
+
+    @Override
+    public SmsGatewayStats getGatewayStats() {
+        return smsGateway.getStats();
+    }
+
+    @Override
+    public HttpPoolStats getHttpPoolStats() {
+        return smsHttpClient.getStats();
     }
 
     @Override
@@ -83,18 +127,10 @@ public class SmsServiceImpl implements SmsService {
     }
 
     @Override
-    @Transactional
     public void updateTransaction(TransactionModel transactionModel, String status, String statusDesc) {
         if(transactionModel == null) return;
         try {
-            KlineSmsTransaction smsTransaction = transactionModel.getSmsTransaction();
-            smsTransaction.setStatus(status);
-            Beans.get(KlineSmsTransactionRepository.class).save(smsTransaction);
-
-            KlineTransaction klineTransaction = transactionModel.getKlineTransaction();
-            klineTransaction.setStatus(status);
-            klineTransaction.setStatusDesc(statusDesc);
-            Beans.get(KlineTransactionRepository.class).save(klineTransaction);
+            transactionJournal.record(transactionModel, status, statusDesc);
         } catch (Exception e) {
             logger.error("Exception occurred while updateTransaction :", e);
         }
@@ -102,6 +138,9 @@ public class SmsServiceImpl implements SmsService {
 
     @Override
     public void validateResult(SmsResponse smsResponse, TransactionModel transactionModel) throws KLineException {
+        if (transactionModel != null) {
+            transactionModel.setProviderMessageId(smsResponse.getMessageId());
+        }
         //case success
         if (SMS_SUCCESS_RESPONSE.equals(smsResponse.getResultCode())) {
             updateTransaction(transactionModel, STATUS_SUCCESS, SEND_SMS_SUCCESSFULLY);
@@ -116,6 +155,15 @@ public class SmsServiceImpl implements SmsService {
         String smsTranId = com.kline.communication.utils.StringUtils.toString(request.getContext().get("smsTranId"));
         KlineSmsTransactionRepository smsTransactionRepository = Beans.get(KlineSmsTransactionRepository.class);
         KlineSmsTransaction smsTransaction = smsTransactionRepository.find(Long.parseLong(smsTranId));
+        if (smsTransaction == null) {
+            // moved by the archiver
+            KlineSmsTransactionArchive archive = Beans.get(KlineSmsTransactionArchiveRepository.class).find(Long.parseLong(smsTranId));
+            if (archive != null) {
+                response.setValue("smsTo", defaultIfNull(archive.getSmsTo()));
+                response.setValue("smsMessage", defaultIfNull(archive.getMessage()));
+            }
+            return;
+        }
         response.setValue("smsTo", defaultIfNull(smsTransaction.getSmsTo()));
         response.setValue("smsMessage", defaultIfNull(smsTransaction.getMessage()));
     }
@@ -127,6 +175,7 @@ public class SmsServiceImpl implements SmsService {
         transaction.setStatus(STATUS_PENDING);
         transaction.setTranDate(now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
         transaction.setTranTime(now.format(DateTimeFormatter.ofPattern("HH:mm:ss")));
+        transaction.setTranDateTime(now);
         transaction.setSmsTranId(String.valueOf(tranId));
         transaction.setOwner(AuthUtils.getUser().getName());
         KlineTransactionRepository klineTransactionRepository = Beans.get(KlineTransactionRepository.class);
@@ -138,6 +187,7 @@ public class SmsServiceImpl implements SmsService {
         smsTransaction.setOwner(AuthUtils.getUser().getName());
         smsTransaction.setMessage(smsRequest.getContent());
         smsTransaction.setSmsTo(smsRequest.getMobileNo()[0]);
+        smsTransaction.setSegments(SmsSegments.of(smsRequest.getContent()).getSegments());
         smsTransaction.setDateTime(now);
         return Beans.get(KlineSmsTransactionRepository.class).save(smsTransaction);
     }
@@ -0,0 +1,52 @@
+package com.kline.communication.service.impl;
+
+import com.google.inject.Singleton;
+import com.kline.communication.db.KlineSmsTemplate;
+import com.kline.communication.service.SmsTemplateService;
+import com.kline.communication.utils.PlaceholderTemplate;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compiled {@link KlineSmsTemplate} contents, cached by template id and version so that an edited
+ * template is compiled again on its next use and an unchanged one never is.
+ */
+@Singleton
+public class SmsTemplateServiceImpl implements SmsTemplateService {
+
+    private final ConcurrentMap<Long, Compiled> templates = new ConcurrentHashMap<>();
+
+    @Override
+    public PlaceholderTemplate getTemplate(KlineSmsTemplate smsTemplate) {
+        if (smsTemplate.getId() == null) {
+            return PlaceholderTemplate.compile(smsTemplate.getContent());
+        }
+        Compiled compiled = templates.get(smsTemplate.getId());
+        if (compiled == null || !Objects.equals(compiled.version, smsTemplate.getVersion())) {
+            compiled = new Compiled(smsTemplate.getVersion(), PlaceholderTemplate.compile(smsTemplate.getContent()));
+            templates.put(smsTemplate.getId(), compiled);
+        }
+        return compiled.template;
+    }
+
+    /** The template when {@code content} is still its text, otherwise {@code content} as edited in the form. */
+    @Override
+    public PlaceholderTemplate resolve(KlineSmsTemplate smsTemplate, String content) {
+        if (smsTemplate != null && Objects.equals(smsTemplate.getContent(), content)) {
+            return getTemplate(smsTemplate);
+        }
+        return PlaceholderTemplate.compile(content);
+    }
+
+    private static final class Compiled {
+        private final Integer version;
+        private final PlaceholderTemplate template;
+
+        private Compiled(Integer version, PlaceholderTemplate template) {
+            this.version = version;
+            this.template = template;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.kline.communication.service.impl;
+
+import com.axelor.app.AppSettings;
+import com.axelor.auth.AuthUtils;
+import com.axelor.auth.db.User;
+import com.axelor.db.JPA;
+import com.axelor.inject.Beans;
+import com.axelor.meta.MetaFiles;
+import com.axelor.meta.db.MetaFile;
+import com.axelor.meta.db.repo.MetaFileRepository;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.kline.communication.exception.KLineException;
+import com.kline.communication.jdbc.TransactionExporter;
+import com.kline.communication.model.TransactionExportFilter;
+import com.kline.communication.service.TransactionExportService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.kline.communication.constant.CommunicationConstant.*;
+import static com.kline.communication.constant.CommunicationConstant.ERROR.*;
+import static com.kline.communication.utils.ThreadUtils.namedThreadFactory;
+
+/**
+ * Runs transaction history exports in the background.
+ *
+ * A request only queues the export ({@code export.workers} threads, {@code export.queue-capacity}
+ * waiting) and returns a job id; the user downloads the csv with that id once it is written. Users
+ * other than administrators only export their own transactions, and only the user who asked for an
+ * export can download it. Export files are marked by their description and removed
+ * {@code export.keep-minutes} after they were written, leftovers of a restart included.
+ */
+@Singleton
+public class TransactionExportServiceImpl implements TransactionExportService {
+
+    private static final String EXPORT_DESCRIPTION = "kline-transaction-export";
+    private static final String FIND_EXPIRED =
+            "SELECT self FROM MetaFile self WHERE self.description = :description AND self.createdOn < :before";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Inject
+    private TransactionExporter transactionExporter;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private volatile ThreadPoolExecutor executor;
+
+    private ScheduledExecutorService cleaner;
+
+    @Override
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        int workers = AppSettings.get().getInt(EXPORT_WORKERS, 2);
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(AppSettings.get().getInt(EXPORT_QUEUE_CAPACITY, 10)),
+                namedThreadFactory("kline-export"));
+        cleaner = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("kline-export-cleaner"));
+        cleaner.scheduleWithFixedDelay(this::removeExpiredQuietly, 0, 5, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        // unfinished exports are lost, their temp files are removed by the worker
+        executor.shutdownNow();
+        cleaner.shutdownNow();
+        executor = null;
+        cleaner = null;
+    }
+
+    @Override
+    public String submit(TransactionExportFilter filter) throws KLineException {
+        User user = AuthUtils.getUser();
+        if (!AuthUtils.isAdmin(user)) {
+            filter.setOwner(user.getName());
+        }
+        ThreadPoolExecutor current = executor;
+        if (current == null) {
+            throw new KLineException(EXPORT_IS_BUSY);
+        }
+        String jobId = UUID.randomUUID().toString();
+        Job job = new Job(user.getId());
+        jobs.put(jobId, job);
+        try {
+            current.execute(() -> export(jobId, job, filter));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(jobId);
+            throw new KLineException(EXPORT_IS_BUSY);
+        }
+        logger.info("Export {} queued by {} for {}", jobId, user.getCode(), filter);
+        return jobId;
+    }
+
+    /** The written csv, null while the export is running. */
+    @Override
+    public MetaFile findFile(String jobId) throws KLineException {
+        Job job = jobId == null ? null : jobs.get(jobId);
+        if (job == null || !Objects.equals(job.userId, AuthUtils.getUser().getId())) {
+            throw new KLineException(EXPORT_IS_NOT_FOUND);
+        }
+        if (job.failed) {
+            jobs.remove(jobId);
+            throw new KLineException(EXCEPTION_OCCURRED_WHILE_EXPORTING);
+        }
+        return job.metaFileId == null ? null : Beans.get(MetaFileRepository.class).find(job.metaFileId);
+    }
+
+    private void export(String jobId, Job job, TransactionExportFilter filter) {
+        Path path = null;
+        try {
+            path = Files.createTempFile("transactions-", ".csv");
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                // lets excel open the file as utf-8
+                writer.write('\ufeff');
+                transactionExporter.exportCsv(filter, writer, ',');
+            }
+            MetaFile metaFile = new MetaFile();
+            metaFile.setFileName("transactions-" + LocalDate.now() + ".csv");
+            metaFile.setDescription(EXPORT_DESCRIPTION);
+            job.metaFileId = Beans.get(MetaFiles.class).upload(path.toFile(), metaFile).getId();
+        } catch (Exception e) {
+            logger.error("exception occurred while export transactions {} : ", jobId, e);
+            job.failed = true;
+        } finally {
+            if (path != null) {
+                path.toFile().delete();
+            }
+            JPA.clear();
+        }
+    }
+
+    /** Removes the export files older than {@code export.keep-minutes}; returns the number removed. */
+    @Override
+    public int removeExpired() {
+        LocalDateTime before = LocalDateTime.now().minusMinutes(AppSettings.get().getInt(EXPORT_KEEP_MINUTES, 60));
+        jobs.values().removeIf(job -> job.createdOn.isBefore(before));
+        List<Path> paths = new ArrayList<>();
+        JPA.runInTransaction(() -> {
+            List<MetaFile> expired = JPA.em().createQuery(FIND_EXPIRED, MetaFile.class)
+                    .setParameter("description", EXPORT_DESCRIPTION)
+                    .setParameter("before", before)
+                    .getResultList();
+            for (MetaFile metaFile : expired) {
+                paths.add(MetaFiles.getPath(metaFile));
+                JPA.em().remove(metaFile);
+            }
+        });
+        // files are only deleted once their rows are gone
+        for (Path path : paths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (Exception e) {
+                logger.error("Exception occurred while remove file {}", path, e);
+            }
+        }
+        return paths.size();
+    }
+
+    private void removeExpiredQuietly() {
+        try {
+            int removed = removeExpired();
+            if (removed > 0) {
+                logger.info("Removed {} expired export file(s)", removed);
+            }
+        } catch (Exception e) {
+            logger.error("Exception occurred while remove expired exports", e);
+        } finally {
+            JPA.clear();
+        }
+    }
+
+    private static final class Job {
+        private final Long userId;
+        private final LocalDateTime createdOn = LocalDateTime.now();
+        private volatile Long metaFileId;
+        private volatile boolean failed;
+
+        private Job(Long userId) {
+            this.userId = userId;
+        }
+    }
+}
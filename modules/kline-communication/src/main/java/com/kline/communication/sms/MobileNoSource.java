@@ -0,0 +1,90 @@
+package com.kline.communication.sms;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * Reads mobile numbers from free text or an uploaded file, one line at a time.
+ *
+ * Numbers may be separated by new lines, commas, semicolons or spaces; dashes, dots and
+ * parentheses inside a number are ignored. Tokens with letters (a header row, a name column) are
+ * skipped, any other token is returned as is and checked with {@link #isValidMobileNo}.
+ */
+public class MobileNoSource implements Iterator<String>, Closeable {
+
+    private final BufferedReader reader;
+    private final Queue<String> pending = new ArrayDeque<>();
+
+    public MobileNoSource(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    public static boolean isValidMobileNo(String mobileNo) {
+        if (mobileNo == null || mobileNo.length() != 10) {
+            return false;
+        }
+        for (int i = 0; i < mobileNo.length(); i++) {
+            char c = mobileNo.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            String line;
+            while (pending.isEmpty() && (line = reader.readLine()) != null) {
+                for (String token : line.split("[,;\\s]+")) {
+                    String mobileNo = normalize(token);
+                    if (mobileNo != null) {
+                        pending.add(mobileNo);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return pending.poll();
+    }
+
+    /** The token without separators, {@code null} when it is empty or has letters. */
+    public static String normalize(String token) {
+        if (token == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(token.length());
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (Character.isLetter(c)) {
+                return null;
+            }
+            if (c != '-' && c != '.' && c != '(' && c != ')' && c != '"' && c != '\'') {
+                sb.append(c);
+            }
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
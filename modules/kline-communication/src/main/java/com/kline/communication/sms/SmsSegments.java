@@ -0,0 +1,114 @@
+package com.kline.communication.sms;
+
+/**
+ * Encoding and number of segments an sms text is billed for.
+ *
+ * A text that only uses the GSM 03.38 alphabet is sent as GSM-7: 160 septets in a single
+ * segment, 153 per segment once it has to be split, the extension characters ({@code ^ { } \ [ ~ ] | €}
+ * and form feed) taking two septets. Anything else is sent as UCS-2: 70 UTF-16 units, 67 per
+ * segment when split. An escape pair or a surrogate pair is never split across two segments.
+ */
+public final class SmsSegments {
+
+    public static final String GSM_7 = "GSM-7";
+    public static final String UCS_2 = "UCS-2";
+
+    private static final String GSM_BASIC = "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞÆæßÉ !\"#¤%&'()*+,-./0123456789:;<=>?"
+            + "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñüà";
+    private static final String GSM_EXTENSION = "\f^{}\\[~]|€";
+
+    /** Septets per character below {@code 0x400}, 0 when the character is not in the GSM alphabet. */
+    private static final byte[] SEPTETS = new byte[0x400];
+
+    static {
+        for (int i = 0; i < GSM_BASIC.length(); i++) {
+            SEPTETS[GSM_BASIC.charAt(i)] = 1;
+        }
+        for (int i = 0; i < GSM_EXTENSION.length(); i++) {
+            char c = GSM_EXTENSION.charAt(i);
+            if (c < SEPTETS.length) {
+                SEPTETS[c] = 2;
+            }
+        }
+    }
+
+    private final String encoding;
+    private final int units;
+    private final int segments;
+
+    private SmsSegments(String encoding, int units, int segments) {
+        this.encoding = encoding;
+        this.units = units;
+        this.segments = segments;
+    }
+
+    public static SmsSegments of(CharSequence text) {
+        int length = text == null ? 0 : text.length();
+        int septets = 0;
+        for (int i = 0; i < length; i++) {
+            int cost = septets(text.charAt(i));
+            if (cost == 0) {
+                return new SmsSegments(UCS_2, length, ucs2Segments(text));
+            }
+            septets += cost;
+        }
+        return new SmsSegments(GSM_7, septets, septets <= 160 ? 1 : gsmSegments(text));
+    }
+
+    private static int septets(char c) {
+        if (c < SEPTETS.length) {
+            return SEPTETS[c];
+        }
+        return c == '€' ? 2 : 0;
+    }
+
+    private static int gsmSegments(CharSequence text) {
+        int segments = 1;
+        int used = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int cost = septets(text.charAt(i));
+            if (used + cost > 153) {
+                segments++;
+                used = 0;
+            }
+            used += cost;
+        }
+        return segments;
+    }
+
+    private static int ucs2Segments(CharSequence text) {
+        if (text.length() <= 70) {
+            return 1;
+        }
+        int segments = 1;
+        int used = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int cost = Character.isHighSurrogate(text.charAt(i)) && i + 1 < text.length() ? 2 : 1;
+            if (used + cost > 67) {
+                segments++;
+                used = 0;
+            }
+            used += cost;
+            i += cost - 1;
+        }
+        return segments;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /** Septets for GSM-7, UTF-16 units for UCS-2. */
+    public int getUnits() {
+        return units;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    @Override
+    public String toString() {
+        return segments + " segment(s), " + units + " " + encoding + " unit(s)";
+    }
+}
@@ -0,0 +1,116 @@
+package com.kline.communication.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Template with {@code ${name}} placeholders, parsed once into literal and placeholder segments.
+ *
+ * Instances are immutable and can be shared between threads; rendering only walks the segments,
+ * so the same template can be rendered for every recipient of a bulk send. A template compiled with
+ * {@link #compileHtml} escapes the values it inserts, the template itself is left as is.
+ */
+public final class PlaceholderTemplate {
+
+    private final String[] literals;
+    private final String[] names;
+    private final int literalLength;
+    private final boolean html;
+
+    private PlaceholderTemplate(String[] literals, String[] names, boolean html) {
+        this.literals = literals;
+        this.names = names;
+        this.html = html;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    public static PlaceholderTemplate compile(String source) {
+        return compile(source, false);
+    }
+
+    public static PlaceholderTemplate compileHtml(String source) {
+        return compile(source, true);
+    }
+
+    private static PlaceholderTemplate compile(String source, boolean html) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        String text = source == null ? "" : source;
+        int from = 0;
+        int start;
+        while ((start = text.indexOf("${", from)) >= 0) {
+            int end = text.indexOf('}', start + 2);
+            if (end < 0) {
+                break;
+            }
+            literals.add(text.substring(from, start));
+            names.add(text.substring(start + 2, end).trim());
+            from = end + 1;
+        }
+        literals.add(text.substring(from));
+        return new PlaceholderTemplate(literals.toArray(new String[0]), names.toArray(new String[0]), html);
+    }
+
+    public boolean hasPlaceholders() {
+        return names.length > 0;
+    }
+
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /** Unknown placeholders render as an empty string. */
+    public String render(Map<String, String> values) {
+        if (names.length == 0) {
+            return literals[0];
+        }
+        return appendTo(new StringBuilder(literalLength + names.length * 16), values).toString();
+    }
+
+    /** Renders into {@code result}, a bulk sender can reuse one builder for every recipient. */
+    public StringBuilder appendTo(StringBuilder result, Map<String, String> values) {
+        for (int i = 0; i < names.length; i++) {
+            result.append(literals[i]);
+            String value = values.get(names[i]);
+            if (value == null) {
+                continue;
+            }
+            if (html) {
+                appendEscaped(result, value);
+            } else {
+                result.append(value);
+            }
+        }
+        return result.append(literals[names.length]);
+    }
+
+    private static void appendEscaped(StringBuilder result, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    result.append("&amp;");
+                    break;
+                case '<':
+                    result.append("&lt;");
+                    break;
+                case '>':
+                    result.append("&gt;");
+                    break;
+                case '"':
+                    result.append("&quot;");
+                    break;
+                case '\'':
+                    result.append("&#39;");
+                    break;
+                default:
+                    result.append(c);
+            }
+        }
+    }
+}
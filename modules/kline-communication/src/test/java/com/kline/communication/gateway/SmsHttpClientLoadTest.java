@@ -0,0 +1,121 @@
+package com.kline.communication.gateway;
+
+import com.google.gson.Gson;
+import com.kline.communication.model.SmsRequest;
+import com.kline.communication.model.SmsResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.kline.communication.constant.CommunicationConstant.SMS_SUCCESS_RESPONSE;
+
+/**
+ * Sends the same load to a {@link StubSmsGateway} with a new http client and Gson per sms, as
+ * SmsServiceImpl used to, then with the shared {@link SmsHttpClient}, and logs the throughput of
+ * both. The pooled client must stay within its per route limit of connections.
+ */
+public class SmsHttpClientLoadTest {
+
+    private static final int REQUESTS = 1000;
+    private static final int THREADS = 8;
+    private static final int MAX_PER_ROUTE = 10;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final SmsRequest request = new SmsRequest(new String[]{"0812345678"}, "Load test");
+    private final Map<String, String> headers = new HashMap<>();
+
+    private StubSmsGateway gateway;
+    private SmsHttpClient smsHttpClient;
+
+    @Before
+    public void setUp() throws Exception {
+        headers.put("requestor", "CRM");
+        gateway = new StubSmsGateway(THREADS * 2, 1);
+        smsHttpClient = new SmsHttpClient();
+    }
+
+    @After
+    public void tearDown() {
+        smsHttpClient.close();
+        gateway.close();
+    }
+
+    @Test
+    public void pooledClientReusesConnections() throws Exception {
+        double before = run(this::postWithNewClient);
+        int connectionsBefore = gateway.getConnections();
+        gateway.reset();
+
+        double after = run(() -> smsHttpClient.postJson(gateway.getUrl(), headers, request, SmsResponse.class));
+        logger.info("{} sms on {} threads: {} req/s over {} connection(s) with a client per sms,"
+                        + " {} req/s over {} connection(s) pooled",
+                REQUESTS, THREADS, Math.round(before), connectionsBefore, Math.round(after),
+                gateway.getConnections());
+
+        Assert.assertEquals(REQUESTS, gateway.getRequests());
+        Assert.assertTrue("pooled client opened " + gateway.getConnections() + " connections",
+                gateway.getConnections() <= MAX_PER_ROUTE);
+        Assert.assertEquals(Collections.singleton("application/json"), gateway.getContentTypes());
+    }
+
+    /** What SmsServiceImpl did for every sms before the shared client, closing the client in addition. */
+    private SmsResponse postWithNewClient() throws Exception {
+        try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
+            HttpPost post = new HttpPost(gateway.getUrl());
+            post.setEntity(new StringEntity(new Gson().toJson(request)));
+            post.setHeader("Content-Type", "application/json");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                post.setHeader(header.getKey(), header.getValue());
+            }
+            try (CloseableHttpResponse response = client.execute(post)) {
+                return new Gson().fromJson(EntityUtils.toString(response.getEntity(), "UTF-8"), SmsResponse.class);
+            }
+        }
+    }
+
+    /** Sends {@link #REQUESTS} sms from {@link #THREADS} threads and returns the requests per second. */
+    private double run(Send send) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>(THREADS);
+            long start = System.nanoTime();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(pool.submit(() -> {
+                    for (int j = 0; j < REQUESTS / THREADS; j++) {
+                        Assert.assertEquals(SMS_SUCCESS_RESPONSE, send.send().getResultCode());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return REQUESTS * 1e9 / (System.nanoTime() - start);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private interface Send {
+        SmsResponse send() throws Exception;
+    }
+}
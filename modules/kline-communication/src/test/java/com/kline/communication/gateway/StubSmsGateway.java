@@ -0,0 +1,100 @@
+package com.kline.communication.gateway;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local http server answering every sms request with a success, as the gateway does.
+ *
+ * It records the Content-Type headers it received and the client ports it was called from, one
+ * port per connection, so that a test can tell how many sockets a client opened.
+ */
+public class StubSmsGateway implements AutoCloseable {
+
+    private static final byte[] RESPONSE =
+            "{\"resultCode\":\"200\",\"resultDesc\":\"Success\",\"messageId\":\"stub\"}"
+                    .getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final long latencyMillis;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+    private final Set<String> contentTypes = ConcurrentHashMap.newKeySet();
+
+    public StubSmsGateway(int threads, long latencyMillis) throws IOException {
+        // without it the response body waits for the client's delayed ack, about 40 ms per request
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.latencyMillis = latencyMillis;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/sms", this::handle);
+        workers = Executors.newFixedThreadPool(threads);
+        server.setExecutor(workers);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/sms";
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public int getConnections() {
+        return connections.size();
+    }
+
+    public Set<String> getContentTypes() {
+        return contentTypes;
+    }
+
+    public void reset() {
+        requests.set(0);
+        connections.clear();
+        contentTypes.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // the body is not checked, only drained
+            }
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        contentTypes.add(contentType == null ? "" : contentType);
+        connections.add(exchange.getRemoteAddress().getPort());
+        requests.incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, RESPONSE.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(RESPONSE);
+        }
+    }
+}
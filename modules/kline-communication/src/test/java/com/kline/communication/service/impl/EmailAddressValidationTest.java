@@ -0,0 +1,94 @@
+package com.kline.communication.service.impl;
+
+import com.axelor.apps.tool.EmailTool;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.regex.Pattern;
+
+import static com.kline.communication.constant.CommunicationConstant.EMAIL_PATTERN;
+
+/**
+ * Compares {@link EmailTool}, which now validates every kline address, with the EMAIL_PATTERN regex
+ * EmailServiceImpl checked recipients against, and logs the time both take on the same addresses.
+ */
+@SuppressWarnings("deprecation")
+public class EmailAddressValidationTest {
+
+    private static final Pattern OLD_PATTERN = Pattern.compile(EMAIL_PATTERN);
+    private static final int ROUNDS = 20_000;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final String[] addresses = {
+            "john.doe@kline.co", "john_doe-1@kline.com", "somchai@mail.kline.co.th", "john.doe",
+            "john@@kline.com", "john doe@kline.com", "john@kline.c", "john..doe@kline.com", ""
+    };
+
+    @Test
+    public void acceptsWhatTheOldPatternAccepted() {
+        for (String address : new String[]{"john.doe@kline.co", "john_doe-1@kline.com", "a.b-c@domain.org"}) {
+            Assert.assertTrue(address, OLD_PATTERN.matcher(address).matches());
+            Assert.assertTrue(address, EmailTool.isValidEmailAddress(address));
+        }
+    }
+
+    @Test
+    public void rejectsWhatTheOldPatternRejected() {
+        for (String address : new String[]{"john.doe", "john@@kline.com", "john doe@kline.com", "@kline.com", ""}) {
+            Assert.assertFalse(address, OLD_PATTERN.matcher(address).matches());
+            Assert.assertFalse(address, EmailTool.isValidEmailAddress(address));
+        }
+    }
+
+    @Test
+    public void differences() {
+        // the old pattern had no room for a sub domain
+        Assert.assertFalse(OLD_PATTERN.matcher("somchai@mail.kline.co.th").matches());
+        Assert.assertTrue(EmailTool.isValidEmailAddress("somchai@mail.kline.co.th"));
+        // its unescaped dot matched any character before the top level domain
+        Assert.assertTrue(OLD_PATTERN.matcher("john@klinexcom").matches());
+        Assert.assertFalse(EmailTool.isValidEmailAddress("john@klinexcom"));
+    }
+
+    @Test(timeout = 1000)
+    public void longInputWithoutAt() {
+        // the old pattern backtracks on it, each extra character doubling the time: 24 took 0.4 s
+        StringBuilder address = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            address.append('a');
+        }
+        Assert.assertFalse(EmailTool.isValidEmailAddress(address.toString()));
+    }
+
+    @Test
+    public void benchmark() {
+        // warm up both before timing them
+        int matched = count(true, ROUNDS / 10) + count(false, ROUNDS / 10);
+
+        long start = System.nanoTime();
+        matched += count(true, ROUNDS);
+        long pattern = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        matched += count(false, ROUNDS);
+        long emailTool = System.nanoTime() - start;
+
+        logger.info("{} validations: EMAIL_PATTERN {} ms, EmailTool {} ms ({} matched)",
+                ROUNDS * addresses.length, pattern / 1_000_000, emailTool / 1_000_000, matched);
+    }
+
+    private int count(boolean oldPattern, int rounds) {
+        int matched = 0;
+        for (int i = 0; i < rounds; i++) {
+            for (String address : addresses) {
+                if (oldPattern ? OLD_PATTERN.matcher(address).matches() : EmailTool.isValidEmailAddress(address)) {
+                    matched++;
+                }
+            }
+        }
+        return matched;
+    }
+}
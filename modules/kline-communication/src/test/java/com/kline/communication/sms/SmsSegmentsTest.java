@@ -0,0 +1,94 @@
+package com.kline.communication.sms;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SmsSegmentsTest {
+
+    private static final String THAI = "\u0e2a";
+    private static final String EMOJI = "\ud83d\ude00";
+
+    @Test
+    public void gsm7SingleSegment() {
+        SmsSegments segments = SmsSegments.of(repeat("a", 160));
+        Assert.assertEquals(SmsSegments.GSM_7, segments.getEncoding());
+        Assert.assertEquals(160, segments.getUnits());
+        Assert.assertEquals(1, segments.getSegments());
+    }
+
+    @Test
+    public void gsm7Multipart() {
+        Assert.assertEquals(2, SmsSegments.of(repeat("a", 161)).getSegments());
+        Assert.assertEquals(2, SmsSegments.of(repeat("a", 306)).getSegments());
+        Assert.assertEquals(3, SmsSegments.of(repeat("a", 307)).getSegments());
+    }
+
+    @Test
+    public void gsm7BasicCharactersOutsideAscii() {
+        // e acute and the pound sign are in the GSM basic alphabet, one septet each
+        SmsSegments segments = SmsSegments.of("Caf\u00e9 \u00a35");
+        Assert.assertEquals(SmsSegments.GSM_7, segments.getEncoding());
+        Assert.assertEquals(7, segments.getUnits());
+    }
+
+    @Test
+    public void gsm7ExtensionTakesTwoSeptets() {
+        SmsSegments segments = SmsSegments.of("{}[]~\\|^\u20ac\f");
+        Assert.assertEquals(SmsSegments.GSM_7, segments.getEncoding());
+        Assert.assertEquals(20, segments.getUnits());
+
+        Assert.assertEquals(1, SmsSegments.of(repeat("\u20ac", 80)).getSegments());
+        // 162 septets, 76 euro signs per segment
+        Assert.assertEquals(2, SmsSegments.of(repeat("\u20ac", 81)).getSegments());
+    }
+
+    @Test
+    public void gsm7EscapePairIsNotSplit() {
+        // 152 + 2 septets do not fit the first 153, the brace starts the second segment
+        SmsSegments segments = SmsSegments.of(repeat("a", 152) + "{" + repeat("a", 152));
+        Assert.assertEquals(306, segments.getUnits());
+        Assert.assertEquals(3, segments.getSegments());
+    }
+
+    @Test
+    public void ucs2() {
+        SmsSegments segments = SmsSegments.of(repeat(THAI, 70));
+        Assert.assertEquals(SmsSegments.UCS_2, segments.getEncoding());
+        Assert.assertEquals(70, segments.getUnits());
+        Assert.assertEquals(1, segments.getSegments());
+
+        Assert.assertEquals(2, SmsSegments.of(repeat(THAI, 71)).getSegments());
+        Assert.assertEquals(2, SmsSegments.of(repeat(THAI, 134)).getSegments());
+        Assert.assertEquals(3, SmsSegments.of(repeat(THAI, 135)).getSegments());
+    }
+
+    @Test
+    public void ucs2WhenAnyCharacterIsOutsideGsm() {
+        SmsSegments segments = SmsSegments.of(repeat("a", 100) + THAI);
+        Assert.assertEquals(SmsSegments.UCS_2, segments.getEncoding());
+        Assert.assertEquals(101, segments.getUnits());
+        Assert.assertEquals(2, segments.getSegments());
+    }
+
+    @Test
+    public void ucs2SurrogatePairIsNotSplit() {
+        // the pair does not fit after 66 units, it starts the second segment
+        SmsSegments segments = SmsSegments.of(repeat(THAI, 66) + EMOJI + repeat(THAI, 66));
+        Assert.assertEquals(134, segments.getUnits());
+        Assert.assertEquals(3, segments.getSegments());
+    }
+
+    @Test
+    public void empty() {
+        Assert.assertEquals(1, SmsSegments.of("").getSegments());
+        Assert.assertEquals(0, SmsSegments.of(null).getUnits());
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder result = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            result.append(text);
+        }
+        return result.toString();
+    }
+}
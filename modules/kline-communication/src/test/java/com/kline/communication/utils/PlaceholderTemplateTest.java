@@ -0,0 +1,71 @@
+package com.kline.communication.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PlaceholderTemplateTest {
+
+    @Test
+    public void rendersValues() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("Dear ${name}, your number is ${ mobileNo }.");
+        Map<String, String> values = new HashMap<>();
+        values.put("name", "Somchai");
+        values.put("mobileNo", "0812345678");
+        Assert.assertEquals("Dear Somchai, your number is 0812345678.", template.render(values));
+        Assert.assertTrue(template.hasPlaceholders());
+        Assert.assertEquals("name", template.getNames()[0]);
+        Assert.assertEquals("mobileNo", template.getNames()[1]);
+    }
+
+    @Test
+    public void unknownPlaceholderRendersEmpty() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("Dear ${name},");
+        Assert.assertEquals("Dear ,", template.render(Collections.emptyMap()));
+    }
+
+    @Test
+    public void withoutPlaceholders() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("Hello");
+        Assert.assertFalse(template.hasPlaceholders());
+        Assert.assertEquals(0, template.getNames().length);
+        Assert.assertEquals("Hello", template.render(Collections.singletonMap("name", "x")));
+        Assert.assertEquals("", PlaceholderTemplate.compile(null).render(Collections.emptyMap()));
+    }
+
+    @Test
+    public void unterminatedPlaceholderIsLiteral() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("Price ${amount");
+        Assert.assertFalse(template.hasPlaceholders());
+        Assert.assertEquals("Price ${amount", template.render(Collections.singletonMap("amount", "5")));
+    }
+
+    @Test
+    public void adjacentPlaceholders() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("${a}${b}");
+        Map<String, String> values = new HashMap<>();
+        values.put("a", "1");
+        values.put("b", "2");
+        Assert.assertEquals("12", template.render(values));
+    }
+
+    @Test
+    public void htmlEscapesValuesOnly() {
+        PlaceholderTemplate template = PlaceholderTemplate.compileHtml("<p>${name}</p>");
+        Assert.assertEquals("<p>&lt;b&gt;Tom &amp; &quot;Jerry&quot; &#39;s&lt;/b&gt;</p>",
+                template.render(Collections.singletonMap("name", "<b>Tom & \"Jerry\" 's</b>")));
+    }
+
+    @Test
+    public void appendToReusesBuilder() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("Hi ${name}");
+        StringBuilder result = new StringBuilder();
+        template.appendTo(result, Collections.singletonMap("name", "A"));
+        result.setLength(0);
+        template.appendTo(result, Collections.singletonMap("name", "B"));
+        Assert.assertEquals("Hi B", result.toString());
+    }
+}